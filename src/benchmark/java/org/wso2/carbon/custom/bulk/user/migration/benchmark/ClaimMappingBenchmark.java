@@ -0,0 +1,64 @@
+package org.wso2.carbon.custom.bulk.user.migration.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.custom.bulk.user.migration.ClaimMappingPlan;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-row work of the provisioning workers before the user store call: mapping the values of a
+ * row to claims through the compiled {@link ClaimMappingPlan}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ClaimMappingBenchmark {
+
+    private static final int ROW_COUNT = 1024;
+
+    @Param({"2", "6", "12"})
+    public int claimCount;
+
+    private ClaimMappingPlan plan;
+    private String[][] rows;
+    private int next;
+
+    @Setup
+    public void compilePlan() {
+
+        String[] header = SyntheticUserCsvGenerator.header(claimCount).split(",");
+        plan = ClaimMappingPlan.compile(header, null);
+        rows = new String[ROW_COUNT][];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            String[] row = new String[header.length];
+            row[0] = "user" + i;
+            row[1] = "Pass#" + i;
+            for (int column = 2; column < row.length; column++) {
+                // Leave some values empty, as sparse exports do.
+                row[column] = (i + column) % 5 == 0 ? "" : "value-" + i + "-" + column;
+            }
+            rows[i] = row;
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> provisionUsers() {
+
+        String[] row = rows[next++ & (ROW_COUNT - 1)];
+        return plan.toClaims(row);
+    }
+}
@@ -0,0 +1,115 @@
+package org.wso2.carbon.custom.bulk.user.migration.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.custom.bulk.user.migration.ImportMetrics;
+import org.wso2.carbon.custom.bulk.user.migration.ImportProgressJournal;
+import org.wso2.carbon.custom.bulk.user.migration.UserRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_JOURNAL_FLUSH_INTERVAL;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_PROVISIONING_QUEUE_CAPACITY;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.PROGRESS_JOURNAL_FILE_NAME;
+
+/**
+ * Measures how fast the CSV readers parse the input and hand the rows to the provisioning queue, without any
+ * provisioning. The queue is drained by a thread that discards the rows, so the readers never wait for capacity.
+ * Both the opencsv based reader and the memory-mapped parser are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CsvParsingBenchmark {
+
+    @Param({"100000"})
+    public long rows;
+
+    @Param({"1", "4"})
+    public int shards;
+
+    @Param({"6"})
+    public int claimCount;
+
+    @Param({"false", "true"})
+    public boolean mappedParser;
+
+    private File workDirectory;
+    private File[] files;
+    private ExecutorService readerPool;
+    private ExecutorService chunkPool;
+    private BlockingQueue<UserRecord> userQueue;
+    private Thread drain;
+    private ImportProgressJournal journal;
+
+    @Setup(Level.Trial)
+    public void generateInput() throws IOException {
+
+        workDirectory = Files.createTempDirectory("bulk-user-parsing").toFile();
+        files = ImportPipeline.generateInput(workDirectory, rows, shards, claimCount);
+        readerPool = Executors.newFixedThreadPool(shards);
+        chunkPool = mappedParser ? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) : null;
+        userQueue = new ArrayBlockingQueue<>(DEFAULT_PROVISIONING_QUEUE_CAPACITY);
+        drain = new Thread(() -> {
+            try {
+                while (true) {
+                    userQueue.take();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "bulk-user-parsing-drain");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    @Setup(Level.Invocation)
+    public void resetJournal() throws IOException {
+
+        File journalFile = new File(workDirectory, PROGRESS_JOURNAL_FILE_NAME);
+        Files.deleteIfExists(journalFile.toPath());
+        journal = new ImportProgressJournal(journalFile, DEFAULT_JOURNAL_FLUSH_INTERVAL);
+        journal.load();
+    }
+
+    @Benchmark
+    public ImportProgressJournal readUsersFromCSVFiles() throws InterruptedException, ExecutionException {
+
+        ImportPipeline.readAll(files, userQueue, journal, new ImportMetrics("parsing-benchmark"), readerPool,
+                chunkPool);
+        return journal;
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteInput() {
+
+        drain.interrupt();
+        readerPool.shutdownNow();
+        if (chunkPool != null) {
+            chunkPool.shutdownNow();
+        }
+        ImportPipeline.deleteDirectory(workDirectory);
+    }
+}
@@ -0,0 +1,143 @@
+package org.wso2.carbon.custom.bulk.user.migration.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.custom.bulk.user.migration.AdaptiveConcurrencyLimiter;
+import org.wso2.carbon.custom.bulk.user.migration.ImportMetrics;
+import org.wso2.carbon.custom.bulk.user.migration.ProvisioningSink;
+import org.wso2.carbon.custom.bulk.user.migration.UpsertProvisioningSink;
+import org.wso2.carbon.custom.bulk.user.migration.UserStoreProvisioningSink;
+import org.wso2.carbon.custom.bulk.user.migration.VirtualThreadProvisioningSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_MAX_RETRY_BACKOFF_MILLIS;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_PROVISIONING_BATCH_SIZE;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_PROVISIONING_MAX_RETRIES;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_PROVISIONING_QUEUE_CAPACITY;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_RETRY_BACKOFF_MILLIS;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_THROTTLE_LATENCY_TOLERANCE;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_THROTTLE_MIN_CONCURRENCY;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_VIRTUAL_THREAD_MAX_CONCURRENCY;
+
+/**
+ * Measures a complete import, from the CSV files to the outcome files and the progress journal, against an
+ * {@link InMemoryUserStore} with a configurable latency per user store call.
+ *
+ * The users are provisioned through the production sinks, as configured by {@code BulkUserUploadThread}: a
+ * {@link UserStoreProvisioningSink} with the throttle and the default retries, optionally run on virtual threads and
+ * behind an {@link UpsertProvisioningSink}. With a latency of zero the result shows the overhead of the pipeline
+ * itself. With a realistic latency it shows how well the workers and the throttle keep the store busy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class EndToEndImportBenchmark {
+
+    @Param({"10000"})
+    public long rows;
+
+    @Param({"1"})
+    public int shards;
+
+    @Param({"0", "500"})
+    public long latencyMicros;
+
+    @Param({"4", "16"})
+    public int workerCount;
+
+    @Param({"true"})
+    public boolean adaptiveThrottling;
+
+    @Param({"false"})
+    public boolean virtualThreads;
+
+    @Param({"false"})
+    public boolean upsert;
+
+    private File workDirectory;
+    private File[] files;
+    private ImportPipeline pipeline;
+    private ImportMetrics metrics;
+    private ProvisioningSink sink;
+    private ExecutorService virtualThreadExecutor;
+
+    @Setup(Level.Trial)
+    public void generateInput() throws IOException {
+
+        workDirectory = Files.createTempDirectory("bulk-user-import").toFile();
+        files = ImportPipeline.generateInput(workDirectory, rows, shards,
+                SyntheticUserCsvGenerator.DEFAULT_CLAIM_COUNT);
+        pipeline = new ImportPipeline(workDirectory, shards, workerCount, DEFAULT_PROVISIONING_QUEUE_CAPACITY,
+                DEFAULT_PROVISIONING_BATCH_SIZE);
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyStore() {
+
+        metrics = new ImportMetrics("end-to-end-benchmark");
+        int maxInFlight = virtualThreads ? DEFAULT_VIRTUAL_THREAD_MAX_CONCURRENCY : workerCount;
+        AdaptiveConcurrencyLimiter limiter = adaptiveThrottling ? new AdaptiveConcurrencyLimiter(
+                DEFAULT_THROTTLE_MIN_CONCURRENCY, maxInFlight, DEFAULT_THROTTLE_LATENCY_TOLERANCE) : null;
+        metrics.setLimiter(limiter);
+
+        InMemoryUserStore store = new InMemoryUserStore(latencyMicros);
+        sink = new UserStoreProvisioningSink(store, limiter, metrics, DEFAULT_PROVISIONING_MAX_RETRIES,
+                DEFAULT_RETRY_BACKOFF_MILLIS, DEFAULT_MAX_RETRY_BACKOFF_MILLIS, upsert);
+        if (virtualThreads) {
+            virtualThreadExecutor = VirtualThreadProvisioningSink.newVirtualThreadExecutor();
+            if (virtualThreadExecutor == null) {
+                throw new IllegalStateException("Virtual threads are not supported by this Java runtime");
+            }
+            sink = new VirtualThreadProvisioningSink(sink, virtualThreadExecutor, maxInFlight,
+                    ImportPipeline.TENANT_DOMAIN, ImportPipeline.TENANT_ID);
+        }
+        if (upsert) {
+            sink = new UpsertProvisioningSink(sink, store, limiter, false);
+        }
+    }
+
+    @Benchmark
+    public long importUsers() throws IOException, InterruptedException, ExecutionException {
+
+        long imported = pipeline.run(files, sink, metrics);
+        if (imported != rows) {
+            throw new IllegalStateException("Imported " + imported + " of " + rows + " users");
+        }
+        return imported;
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopVirtualThreads() {
+
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdownNow();
+            virtualThreadExecutor = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteInput() {
+
+        ImportPipeline.deleteDirectory(workDirectory);
+    }
+}
@@ -0,0 +1,196 @@
+package org.wso2.carbon.custom.bulk.user.migration.benchmark;
+
+import org.wso2.carbon.custom.bulk.user.migration.CSVUserReader;
+import org.wso2.carbon.custom.bulk.user.migration.ImportMetrics;
+import org.wso2.carbon.custom.bulk.user.migration.ImportProgressJournal;
+import org.wso2.carbon.custom.bulk.user.migration.MappedCSVUserReader;
+import org.wso2.carbon.custom.bulk.user.migration.ProvisioningSink;
+import org.wso2.carbon.custom.bulk.user.migration.UserOutcomeWriter;
+import org.wso2.carbon.custom.bulk.user.migration.UserProvisioningWorker;
+import org.wso2.carbon.custom.bulk.user.migration.UserRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_JOURNAL_FLUSH_INTERVAL;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_MAPPED_CSV_CHUNK_SIZE_MB;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_OUTCOME_FLUSH_INTERVAL;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.ERROR_CLASS_COLUMN;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.ERROR_MESSAGE_COLUMN;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.FAILED_USERS_FILE_NAME;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.FAILURE_TYPE_COLUMN;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.PROGRESS_JOURNAL_FILE_NAME;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.SUCCESSFUL_USERS_FILE_NAME;
+
+/**
+ * The reader, queue and worker pipeline of {@code BulkUserUploadThread}, wired without a running Identity Server.
+ *
+ * The readers, workers, progress journal and outcome writers are the production classes. The users are handed to
+ * the given sink, which provisions them into a stand-in for the user store, and the claim manager is omitted, so every non-empty claim column is mapped.
+ * Every run starts with a fresh journal, so no rows are skipped as already processed.
+ */
+public class ImportPipeline {
+
+    static final String TENANT_DOMAIN = "carbon.super";
+    static final int TENANT_ID = -1234;
+
+    private static final long MAPPED_CHUNK_SIZE = DEFAULT_MAPPED_CSV_CHUNK_SIZE_MB * 1024L * 1024L;
+
+    private final File workDirectory;
+    private final int readerCount;
+    private final int workerCount;
+    private final int queueCapacity;
+    private final int batchSize;
+
+    public ImportPipeline(File workDirectory, int readerCount, int workerCount, int queueCapacity, int batchSize) {
+
+        this.workDirectory = workDirectory;
+        this.readerCount = readerCount;
+        this.workerCount = workerCount;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+
+        // The tenant flow of the workers needs a Carbon home, even though nothing is read from it.
+        if (System.getProperty("carbon.home") == null) {
+            System.setProperty("carbon.home", workDirectory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Imports the users of the given files into the sink.
+     *
+     * @param files The CSV files to import.
+     * @param sink The sink the users are provisioned through.
+     * @param metrics The metrics of the run.
+     * @return The number of users written to the successful users file.
+     * @throws IOException If the journal or the outcome files cannot be written.
+     * @throws InterruptedException If interrupted while waiting for the readers or the workers.
+     * @throws ExecutionException If a reader fails unexpectedly.
+     */
+    public long run(File[] files, ProvisioningSink sink, ImportMetrics metrics)
+            throws IOException, InterruptedException, ExecutionException {
+
+        File journalFile = new File(workDirectory, PROGRESS_JOURNAL_FILE_NAME);
+        Files.deleteIfExists(journalFile.toPath());
+        ImportProgressJournal journal = new ImportProgressJournal(journalFile, DEFAULT_JOURNAL_FLUSH_INTERVAL);
+        journal.load();
+
+        UserOutcomeWriter successfulUsers = new UserOutcomeWriter(new File(workDirectory, SUCCESSFUL_USERS_FILE_NAME),
+                false, DEFAULT_OUTCOME_FLUSH_INTERVAL);
+        UserOutcomeWriter failedUsers = new UserOutcomeWriter(new File(workDirectory, FAILED_USERS_FILE_NAME),
+                false, DEFAULT_OUTCOME_FLUSH_INTERVAL, FAILURE_TYPE_COLUMN, ERROR_CLASS_COLUMN, ERROR_MESSAGE_COLUMN);
+        journal.addDependentOutput(successfulUsers);
+        journal.addDependentOutput(failedUsers);
+
+        BlockingQueue<UserRecord> userQueue = new ArrayBlockingQueue<>(queueCapacity);
+        metrics.setQueue(userQueue);
+        ExecutorService workerPool = Executors.newFixedThreadPool(workerCount);
+        ExecutorService readerPool = Executors.newFixedThreadPool(Math.max(1, Math.min(readerCount, files.length)));
+        try {
+            List<Future<Integer>> workers = new ArrayList<>(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                workers.add(workerPool.submit(new UserProvisioningWorker(userQueue, sink, batchSize,
+                        TENANT_DOMAIN, TENANT_ID, successfulUsers, failedUsers, null, journal, null, metrics)));
+            }
+            readAll(files, userQueue, journal, metrics, readerPool, null);
+            for (int i = 0; i < workerCount; i++) {
+                userQueue.put(UserRecord.END_OF_INPUT);
+            }
+            for (Future<Integer> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            readerPool.shutdownNow();
+            workerPool.shutdownNow();
+            journal.flush();
+            successfulUsers.close();
+            failedUsers.close();
+        }
+        return successfulUsers.getRecordCount();
+    }
+
+    /**
+     * Reads the given files into the queue on the reader pool.
+     *
+     * @param files The CSV files to read.
+     * @param userQueue The queue the parsed users are put on.
+     * @param journal The progress journal the files are registered with.
+     * @param metrics The metrics of the run.
+     * @param readerPool The pool the readers run on.
+     * @param chunkPool The pool the chunks are parsed on with the memory-mapped parser, or null to read each
+     *                  file with the opencsv based reader.
+     * @throws InterruptedException If interrupted while waiting for the readers.
+     * @throws ExecutionException If a reader fails unexpectedly.
+     */
+    static void readAll(File[] files, BlockingQueue<UserRecord> userQueue, ImportProgressJournal journal,
+                        ImportMetrics metrics, ExecutorService readerPool, ExecutorService chunkPool)
+            throws InterruptedException, ExecutionException {
+
+        List<Future<Boolean>> readers = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (chunkPool != null) {
+                readers.add(readerPool.submit(new MappedCSVUserReader(file, userQueue, journal, null, metrics, null,
+                        chunkPool, MAPPED_CHUNK_SIZE)));
+            } else {
+                readers.add(readerPool.submit(new CSVUserReader(file, userQueue, journal, null, metrics, null)));
+            }
+        }
+        for (Future<Boolean> reader : readers) {
+            if (!reader.get()) {
+                throw new IllegalStateException("Reading a CSV file failed. See the log for details.");
+            }
+        }
+    }
+
+    /**
+     * Generates the input of a benchmark as a number of shard files that hold distinct users.
+     *
+     * @param directory The directory to write the files to.
+     * @param rows The total number of users.
+     * @param shards The number of files the users are split across.
+     * @param claimCount The number of claim columns.
+     * @return The generated files.
+     * @throws IOException If a file cannot be written.
+     */
+    public static File[] generateInput(File directory, long rows, int shards, int claimCount) throws IOException {
+
+        File[] files = new File[shards];
+        long firstUser = 1;
+        for (int i = 0; i < shards; i++) {
+            long shardRows = rows / shards + (i < rows % shards ? 1 : 0);
+            files[i] = new File(directory, "users-" + i + ".csv");
+            SyntheticUserCsvGenerator.generate(files[i], firstUser, shardRows, claimCount);
+            firstUser += shardRows;
+        }
+        return files;
+    }
+
+    /**
+     * Deletes a benchmark work directory and its files.
+     *
+     * @param directory The directory to delete.
+     */
+    public static void deleteDirectory(File directory) {
+
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (!child.delete()) {
+                    child.deleteOnExit();
+                }
+            }
+        }
+        if (!directory.delete()) {
+            directory.deleteOnExit();
+        }
+    }
+}
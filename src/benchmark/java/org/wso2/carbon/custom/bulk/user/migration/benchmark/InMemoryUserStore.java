@@ -0,0 +1,114 @@
+package org.wso2.carbon.custom.bulk.user.migration.benchmark;
+
+import org.wso2.carbon.custom.bulk.user.migration.UserStoreClient;
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for the user store that keeps users in memory and simulates the latency of a user store call.
+ *
+ * The store is plugged into the production sinks in place of the user store manager, so the throttle, the
+ * retries, the upserts and the virtual threads are measured as they run in an import. Adding a username that
+ * already exists fails with a {@link UserStoreException}, as it does in a real user store.
+ */
+public class InMemoryUserStore implements UserStoreClient {
+
+    private final Map<String, Map<String, String>> users = new ConcurrentHashMap<>();
+    private final long latencyNanos;
+
+    /**
+     * @param latencyMicros The simulated duration of each user store call.
+     */
+    public InMemoryUserStore(long latencyMicros) {
+
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    }
+
+    @Override
+    public void addUser(String username, String password, Map<String, String> claims) throws UserStoreException {
+
+        simulateLatency();
+        if (users.putIfAbsent(username, new HashMap<>(claims)) != null) {
+            throw new UserStoreException("Username " + username + " already exists in the system.");
+        }
+    }
+
+    @Override
+    public void setUserClaimValues(String username, Map<String, String> claims) throws UserStoreException {
+
+        simulateLatency();
+        Map<String, String> current = users.get(username);
+        if (current == null) {
+            throw new UserStoreException("User " + username + " does not exist in the system.");
+        }
+        synchronized (current) {
+            current.putAll(claims);
+        }
+    }
+
+    @Override
+    public boolean isExistingUser(String username) {
+
+        simulateLatency();
+        return users.containsKey(username);
+    }
+
+    @Override
+    public Map<String, Map<String, String>> getUsersClaimValues(String[] usernames, String[] claimURIs) {
+
+        simulateLatency();
+        Map<String, Map<String, String>> claimsByUser = new HashMap<>();
+        for (String username : usernames) {
+            Map<String, String> current = users.get(username);
+            if (current == null) {
+                continue;
+            }
+            Map<String, String> claims = new HashMap<>();
+            synchronized (current) {
+                for (String claimURI : claimURIs) {
+                    if (current.containsKey(claimURI)) {
+                        claims.put(claimURI, current.get(claimURI));
+                    }
+                }
+            }
+            claimsByUser.put(username, claims);
+        }
+        return claimsByUser;
+    }
+
+    @Override
+    public String[] listUsers(String filter, int limit, int offset) {
+
+        simulateLatency();
+        List<String> usernames = new ArrayList<>(users.keySet());
+        Collections.sort(usernames);
+        int from = Math.min(Math.max(offset - 1, 0), usernames.size());
+        int to = (int) Math.min(usernames.size(), (long) from + limit);
+        return usernames.subList(from, to).toArray(new String[0]);
+    }
+
+    public int size() {
+
+        return users.size();
+    }
+
+    public void clear() {
+
+        users.clear();
+    }
+
+    private void simulateLatency() {
+
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.wso2.carbon.custom.bulk.user.migration.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Generates CSV files in the bulk import format with synthetic users.
+ *
+ * The values are derived from a fixed seed, so the same arguments always produce the same file and benchmark
+ * runs on different machines parse identical input. Every tenth row has a value that needs quoting, so the
+ * quoted-field path of the parser is exercised as well.
+ *
+ * Usage: {@code SyntheticUserCsvGenerator <output file> <rows> [claim columns]}
+ */
+public class SyntheticUserCsvGenerator {
+
+    public static final int DEFAULT_CLAIM_COUNT = 6;
+
+    private static final String CLAIM_URI_PREFIX = "http://wso2.org/claims/";
+    private static final String[] CLAIMS = {
+            "givenname", "lastname", "emailaddress", "telephone", "country", "organization", "locality",
+            "streetaddress", "postalcode", "title", "department", "mobile"
+    };
+    private static final String[] GIVEN_NAMES = {"John", "Jane", "Alex", "Maria", "Wei", "Amal", "Olga", "Sam"};
+    private static final String[] LAST_NAMES = {"Doe", "Smith", "Silva", "Perera", "Chen", "Novak", "Khan", "Lee"};
+    private static final long SEED = 42L;
+
+    private SyntheticUserCsvGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticUserCsvGenerator <output file> <rows> [claim columns]");
+            System.exit(1);
+        }
+        int claimCount = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CLAIM_COUNT;
+        generate(new File(args[0]), 1, Long.parseLong(args[1]), claimCount);
+    }
+
+    /**
+     * Writes a CSV file with a header line and the given number of users.
+     *
+     * @param file The file to write. An existing file is overwritten.
+     * @param firstUser The number of the first user, so that several files can hold distinct users.
+     * @param rows The number of users to generate.
+     * @param claimCount The number of claim columns after the username and password, at most {@code CLAIMS.length}.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void generate(File file, long firstUser, long rows, int claimCount) throws IOException {
+
+        int claims = Math.max(0, Math.min(claimCount, CLAIMS.length));
+        Random random = new Random(SEED + firstUser);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()),
+                StandardCharsets.UTF_8), 1 << 16)) {
+            writer.write(header(claims));
+            writer.write('\n');
+            StringBuilder line = new StringBuilder(256);
+            for (long row = firstUser; row < firstUser + rows; row++) {
+                line.setLength(0);
+                line.append("user").append(row).append(',').append("Pass#").append(random.nextInt(1000000));
+                for (int i = 0; i < claims; i++) {
+                    line.append(',').append(value(CLAIMS[i], row, random));
+                }
+                line.append('\n');
+                writer.append(line);
+            }
+        }
+    }
+
+    /**
+     * @param claimCount The number of claim columns.
+     * @return The header line, without the line break.
+     */
+    public static String header(int claimCount) {
+
+        StringBuilder header = new StringBuilder("UserName,Password");
+        for (int i = 0; i < Math.min(claimCount, CLAIMS.length); i++) {
+            header.append(',').append(CLAIM_URI_PREFIX).append(CLAIMS[i]);
+        }
+        return header.toString();
+    }
+
+    private static String value(String claim, long row, Random random) {
+
+        switch (claim) {
+            case "givenname":
+                return GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)];
+            case "lastname":
+                return LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            case "emailaddress":
+                return "user" + row + "@example.com";
+            case "telephone":
+            case "mobile":
+                return "+94" + (700000000 + random.nextInt(99999999));
+            case "organization":
+                // The comma forces the value to be quoted.
+                return row % 10 == 0 ? "\"Example, Inc.\"" : "Example";
+            case "streetaddress":
+                return row + " Main Street";
+            default:
+                return claim + "-" + random.nextInt(100);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * AIMD limiter for the number of user store operations in flight.
+ *
+ * The limit is adjusted from the observed latency and error rate of the operations:
+ * <ul>
+ *     <li>After every window of {@code WINDOW_SIZE} operations without congestion, the limit grows by one.</li>
+ *     <li>The limit is multiplied by {@code DECREASE_FACTOR} when the average latency of a window exceeds
+ *     {@code latencyTolerance} times the best window seen recently, or when an operation fails with a
+ *     transient error. Transient errors reduce the limit at most once per average operation latency,
+ *     so a burst of timeouts from operations that were already in flight only counts once.</li>
+ * </ul>
+ * The limit starts at {@code maxLimit}, so a store that keeps up runs at full concurrency from the first operation,
+ * and a congested store is backed off from within the first windows. The limit always stays between
+ * {@code minLimit} and {@code maxLimit}.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Log log = LogFactory.getLog(AdaptiveConcurrencyLimiter.class);
+    private static final int WINDOW_SIZE = 50;
+    private static final int BASELINE_RESET_WINDOWS = 50;
+    private static final double DECREASE_FACTOR = 0.75;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+
+    private double limit;
+    private int inFlight;
+    private int windowSamples;
+    private long windowLatencyNanos;
+    private boolean windowCongested;
+    private int windowsSinceBaselineReset;
+    private long baselineLatencyNanos = Long.MAX_VALUE;
+    private long averageLatencyNanos;
+    private long lastDecreaseNanos;
+
+    public AdaptiveConcurrencyLimiter(int minLimit, int maxLimit, double latencyTolerance) {
+
+        this.minLimit = Math.max(1, Math.min(minLimit, maxLimit));
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Waits until an operation may start.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                permitReleased.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the completion of an operation started with {@link #acquire()}.
+     *
+     * @param latencyNanos The time the operation took.
+     * @param transientFailure true if the operation failed with an error that indicates an overloaded store.
+     */
+    public void release(long latencyNanos, boolean transientFailure) {
+
+        lock.lock();
+        try {
+            inFlight--;
+            averageLatencyNanos = averageLatencyNanos == 0 ? latencyNanos
+                    : (averageLatencyNanos * 7 + latencyNanos) / 8;
+
+            if (transientFailure) {
+                windowCongested = true;
+                long now = System.nanoTime();
+                if (now - lastDecreaseNanos > averageLatencyNanos) {
+                    decrease("transient user store error");
+                    lastDecreaseNanos = now;
+                }
+            }
+
+            windowLatencyNanos += latencyNanos;
+            if (++windowSamples >= WINDOW_SIZE) {
+                completeWindow();
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The current concurrency limit.
+     */
+    public int getLimit() {
+
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void completeWindow() {
+
+        long windowAverage = windowLatencyNanos / windowSamples;
+        if (++windowsSinceBaselineReset >= BASELINE_RESET_WINDOWS) {
+            // Let the baseline follow a store that has become slower for good, e.g. as its tables grow.
+            baselineLatencyNanos = windowAverage;
+            windowsSinceBaselineReset = 0;
+        } else {
+            baselineLatencyNanos = Math.min(baselineLatencyNanos, windowAverage);
+        }
+
+        if (windowAverage > baselineLatencyNanos * latencyTolerance) {
+            decrease("average latency " + TimeUnit.NANOSECONDS.toMillis(windowAverage) + " ms");
+        } else if (!windowCongested && limit < maxLimit) {
+            limit = Math.min(maxLimit, limit + 1);
+            if (log.isDebugEnabled()) {
+                log.debug(BULK_UPLOAD_LOG_PREFIX + "Increased user store concurrency limit to " + (int) limit);
+            }
+        }
+        windowSamples = 0;
+        windowLatencyNanos = 0;
+        windowCongested = false;
+    }
+
+    private void decrease(String reason) {
+
+        double newLimit = Math.max(minLimit, limit * DECREASE_FACTOR);
+        if ((int) newLimit < (int) limit) {
+            log.info(BULK_UPLOAD_LOG_PREFIX + "Reducing user store concurrency limit from " + (int) limit + " to "
+                    + (int) newLimit + " due to " + reason);
+        }
+        limit = newLimit;
+    }
+}
@@ -1,161 +1,492 @@
 package org.wso2.carbon.custom.bulk.user.migration;
 
-import au.com.bytecode.opencsv.CSVReader;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
 import org.wso2.carbon.custom.bulk.user.migration.internal.CustomUserAdministratorDataHolder;
+import org.wso2.carbon.user.api.ClaimManager;
 import org.wso2.carbon.user.api.UserStoreManager;
 import org.wso2.carbon.user.core.UserStoreException;
 import org.wso2.carbon.user.core.common.AbstractUserStoreManager;
 import org.wso2.carbon.user.core.service.RealmService;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.wso2.carbon.custom.bulk.user.migration.Constants.*;
 
 public class BulkUserUploadThread implements Callable<Boolean> {
     private static final Log log = LogFactory.getLog(BulkUserUploadThread.class);
-    private Properties properties = new Properties();
+    private static final long EXECUTOR_TERMINATION_TIMEOUT_SECONDS = 30;
+    private final Properties properties;
+    private final boolean loadPropertiesFromFile;
+    private final int maxWorkerCount;
     private String tenantDomain = "carbon.super";
     private int tenantId = -1234;
     private String userDomain = "primary";
     private UserStoreManager store;
     private File[] files;
-    private String[] firstLine;
     private String outputDirectory;
+    private int workerCount = DEFAULT_PROVISIONING_WORKER_COUNT;
+    private int queueCapacity = DEFAULT_PROVISIONING_QUEUE_CAPACITY;
+    private int batchSize = DEFAULT_PROVISIONING_BATCH_SIZE;
+    private int readerCount = DEFAULT_READER_COUNT;
+    private boolean mappedCsvParserEnabled;
+    private long mappedCsvChunkSize = DEFAULT_MAPPED_CSV_CHUNK_SIZE_MB * 1024L * 1024L;
+    private ImportProgressJournal progressJournal;
+    private ClaimManager claimManager;
+    private volatile ImportMetrics metrics;
+    private ExecutorService virtualThreadExecutor;
+    private boolean deltaImportEnabled;
+    private boolean upsertEnabled;
+    private boolean outcomeSpillEnabled;
+    private boolean failedUserRetrySpillEnabled;
+    private boolean retryFailedUsers;
+    private FingerprintStore fingerprintStore;
+    private OutcomeColumnLayout outcomeColumnLayout;
+    private boolean tenantFlowStarted;
+
+    /**
+     * Creates an import configured by the bulk.user.properties file in the server's configuration directory.
+     */
+    public BulkUserUploadThread() {
+        this.properties = new Properties();
+        this.loadPropertiesFromFile = true;
+        this.maxWorkerCount = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates an import with the given configuration, as submitted to the {@link ImportJobService}.
+     *
+     * @param properties The import configuration, with the same properties as the bulk.user.properties file.
+     * @param maxWorkerCount The maximum number of provisioning workers, and of CSV readers, of this import.
+     */
+    public BulkUserUploadThread(Properties properties, int maxWorkerCount) {
+        this.properties = properties;
+        this.loadPropertiesFromFile = false;
+        this.maxWorkerCount = maxWorkerCount;
+    }
+
+    /**
+     * @return The metrics of this import, or null if it has not started provisioning users.
+     */
+    public ImportMetrics getMetrics() {
+        return metrics;
+    }
 
     /**
      * This is the main method executed by the thread. It handles the entire bulk user upload process.
      * It performs the following steps:
-     * 1. Checks prerequisites (configuration, tenant context, CSV files).
-     * 2. Reads user data from CSV files.
-     * 3. Provisions users into the user store.
+     * 1. Checks prerequisites (configuration, tenant context, CSV files, progress journal).
+     * 2. Starts the provisioning workers.
+     * 3. Reads the CSV files in parallel and streams their users to the workers through a bounded queue,
+     *    skipping rows that the progress journal records as already processed.
+     *    In retry mode, the users whose failure in the previous run was transient are streamed from its retry
+     *    spill file instead.
      * 4. Logs the results (successful and failed users).
+     * The tenant flow started by the prerequisite check is ended before returning, also if the import fails.
      *
      * @return true if the process completes successfully, false if any error occurs.
      */
     @Override
     public Boolean call() {
-        if (!doCheckPrerequisites()) {
-            return false;
+        try {
+            return doCheckPrerequisites() && importUsers();
+        } finally {
+            endTenantFlow();
         }
+    }
 
+    private boolean importUsers() {
         long startTime = System.currentTimeMillis();
-        List<String[]> successfulUsers = new ArrayList<>();
-        List<String[]> failedUsers = new ArrayList<>();
+        boolean readSucceeded = false;
+        boolean workersSucceeded = false;
+        boolean completed = false;
 
         if (store != null) {
-            Set<String[]> userSet = readUsersFromCSVFiles();
-            if (userSet == null) {
-                return false; // Error occurred while reading files
+            // A retry run adds to the results of the previous run, but reports the users that still fail afresh,
+            // unless it resumes an interrupted retry run.
+            boolean append = retryFailedUsers || progressJournal.hasCheckpoint();
+            outcomeColumnLayout = readInputColumnLayout();
+            UserOutcomeWriter successfulUsers = openOutcomeWriter(SUCCESSFUL_USERS_FILE_NAME, append);
+            UserOutcomeWriter failedUsers = openFailedUsersWriter(progressJournal.hasCheckpoint());
+            UserOutcomeWriter skippedUsers = openOutcomeWriter(SKIPPED_USERS_FILE_NAME, append, SKIP_REASON_COLUMN);
+            if (successfulUsers == null || failedUsers == null || skippedUsers == null
+                    || (deltaImportEnabled && !openFingerprintStore())) {
+                closeOutcomeWriter(successfulUsers);
+                closeOutcomeWriter(failedUsers);
+                closeOutcomeWriter(skippedUsers);
+                return false;
+            }
+            progressJournal.addDependentOutput(successfulUsers);
+            progressJournal.addDependentOutput(failedUsers);
+            progressJournal.addDependentOutput(skippedUsers);
+            if (fingerprintStore != null) {
+                progressJournal.addDependentOutput(fingerprintStore);
             }
 
-            log.info(BULK_UPLOAD_LOG_PREFIX + "Starting user provisioning to the given user store...");
-            provisionUsers(userSet, successfulUsers, failedUsers);
+            log.info(BULK_UPLOAD_LOG_PREFIX + "Starting user provisioning to the given user store with "
+                    + workerCount + " provisioning workers...");
+            BlockingQueue<UserRecord> userQueue = new ArrayBlockingQueue<>(queueCapacity);
+            startMetrics(userQueue);
+            ExecutorService workerPool = Executors.newFixedThreadPool(workerCount);
+            List<Future<Integer>> workers = startProvisioningWorkers(workerPool, userQueue, successfulUsers,
+                    failedUsers, skippedUsers);
+            try {
+                readSucceeded = retryFailedUsers
+                        ? new FailedUserRetryReader(files[0], userQueue, progressJournal, claimManager, metrics,
+                        failedUsers).call()
+                        : readUsersFromCSVFiles(userQueue, createUserRecordFilter(skippedUsers));
+                signalEndOfInput(userQueue);
+                workersSucceeded = awaitProvisioningWorkers(workers);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error(BULK_UPLOAD_LOG_PREFIX + "Interrupted while streaming users to the provisioning workers", e);
+            } finally {
+                workerPool.shutdownNow();
+                if (virtualThreadExecutor != null) {
+                    virtualThreadExecutor.shutdownNow();
+                }
+                // No worker may write an outcome or checkpoint a row once the journal is flushed and the
+                // outcome writers are closed.
+                awaitTermination(workerPool, "provisioning workers");
+                awaitTermination(virtualThreadExecutor, "virtual provisioning threads");
+                progressJournal.flush();
+                metrics.stop();
+            }
 
-            PrivilegedCarbonContext.endTenantFlow();
+            endTenantFlow();
+
+            logTimeTaken("Reading from CSV files and provisioning users", startTime, System.currentTimeMillis());
+
+            closeOutcomeWriter(successfulUsers);
+            closeOutcomeWriter(failedUsers);
+            closeOutcomeWriter(skippedUsers);
+            closeFingerprintStore();
+            completed = readSucceeded && workersSucceeded && !Thread.currentThread().isInterrupted();
+            if (completed) {
+                // Every row has been processed, so there is nothing to resume and the next import starts afresh.
+                progressJournal.delete();
+                if (retryFailedUsers && !files[0].delete()) {
+                    log.warn(BULK_UPLOAD_LOG_PREFIX + "Unable to delete the retried failed users in "
+                            + files[0].getAbsolutePath() + ". Delete it before the next retry run.");
+                }
+            }
+        }
+        return completed;
+    }
 
-            logTimeTaken("Reading from CSV files", startTime, System.currentTimeMillis());
+    /**
+     * Reads all CSV files in parallel, each on its own {@link CSVUserReader} task, and streams their users
+     * into the given queue. At most {@code readerCount} files are read at the same time.
+     * If the memory-mapped parser is enabled, each file is read by a {@link MappedCSVUserReader} instead, which
+     * additionally splits the file into chunks parsed by up to {@code readerCount} threads.
+     *
+     * @param userQueue The queue shared with the provisioning workers.
+     * @param userRecordFilter The filter shared by all readers, or null to provision every user.
+     * @return true if all files were read, false if an error occurs while reading any of the files.
+     * @throws InterruptedException If interrupted while waiting for the readers.
+     */
+    private boolean readUsersFromCSVFiles(BlockingQueue<UserRecord> userQueue,
+                                          UserRecordFilter userRecordFilter) throws InterruptedException {
+        ExecutorService readerPool = Executors.newFixedThreadPool(Math.min(readerCount, files.length));
+        // The chunks need their own pool, as the file readers block their threads while waiting for them.
+        ExecutorService chunkPool = mappedCsvParserEnabled ? Executors.newFixedThreadPool(readerCount) : null;
+        List<Future<Boolean>> readers = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (chunkPool != null) {
+                readers.add(readerPool.submit(new MappedCSVUserReader(file, userQueue, progressJournal,
+                        claimManager, metrics, userRecordFilter, chunkPool, mappedCsvChunkSize)));
+            } else {
+                readers.add(readerPool.submit(new CSVUserReader(file, userQueue, progressJournal, claimManager,
+                        metrics, userRecordFilter)));
+            }
+        }
 
-            writeUsersToCSV(successfulUsers, "successful_users.csv");
-            writeUsersToCSV(failedUsers, "failed_users.csv");
+        boolean allRead = true;
+        try {
+            for (Future<Boolean> reader : readers) {
+                try {
+                    allRead &= reader.get();
+                } catch (ExecutionException e) {
+                    log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred in a CSV reader", e.getCause());
+                    allRead = false;
+                }
+            }
+        } finally {
+            readerPool.shutdownNow();
+            if (chunkPool != null) {
+                chunkPool.shutdownNow();
+            }
+            // The readers report skipped users and checkpoint empty rows, so they must stop before the outputs close.
+            awaitTermination(readerPool, "CSV readers");
+            awaitTermination(chunkPool, "CSV chunk parsers");
+        }
+        return allRead;
+    }
+
+    /**
+     * Waits for an executor that was shut down to finish its running tasks. The interrupt status of the calling
+     * thread is cleared while waiting, as a cancelled import must still wait for its tasks, and restored afterwards.
+     *
+     * @param executor The executor, or null if it was not created.
+     * @param name The name of the executor's threads, for the log.
+     */
+    private static void awaitTermination(ExecutorService executor, String name) {
+        if (executor == null) {
+            return;
+        }
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (!executor.awaitTermination(EXECUTOR_TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "The " + name + " did not stop within "
+                        + EXECUTOR_TERMINATION_TIMEOUT_SECONDS + " seconds. Their outcomes may be missing from the "
+                        + "outcome files.");
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Interrupted while waiting for the " + name + " to stop");
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
-        return true;
     }
 
     /**
-     * Reads user data from CSV files and returns it as a set of String arrays.
-     * Each array represents a user, and each element in the array represents a field (e.g., username, password, claims).
+     * Creates the filter that decides which users are handed to the provisioning workers: duplicates are skipped
+     * first, then, in delta import mode, users whose claims have not changed since the last import.
      *
-     * Steps:
-     * 1. Opens each CSV file.
-     * 2. Reads the header line (first line) to determine the structure of the data.
-     * 3. Reads and trims subsequent lines (user data).
-     * 4. Adds the user data to a set to avoid duplicates.
+     * @param skippedUsers The writer of the skipped users report.
+     * @return The filter, or null if no filter is enabled.
+     */
+    private UserRecordFilter createUserRecordFilter(UserOutcomeWriter skippedUsers) {
+        UserRecordFilterChain filter = new UserRecordFilterChain().add(createDuplicateUserFilter(skippedUsers));
+        if (fingerprintStore != null) {
+            filter.add(new DeltaImportFilter(fingerprintStore, skippedUsers, progressJournal, metrics));
+        }
+        return filter.isEmpty() ? null : filter;
+    }
+
+    /**
+     * Creates the filter that reports usernames repeated in the input, and optionally users already present in
+     * the user store, as skipped instead of provisioning them. The existing usernames are prefetched from the user
+     * store only if {@code prefetchExistingUsers} is enabled, and never in delta import or upsert mode, where
+     * existing users are updated.
      *
-     * @return A set of user data arrays, or null if an error occurs while reading the files.
+     * @param skippedUsers The writer of the skipped users report.
+     * @return The filter, or null if duplicate detection is disabled.
      */
-    private Set<String[]> readUsersFromCSVFiles() {
-        Set<String[]> userSet = new HashSet<>();
+    private DuplicateUserFilter createDuplicateUserFilter(UserOutcomeWriter skippedUsers) {
+        if (!Boolean.parseBoolean(properties.getProperty(DETECT_DUPLICATE_USERS, "true").trim())) {
+            return null;
+        }
+        int expectedSize = getUsernameIndexExpectedSize();
+        boolean caseInsensitive = isCaseInsensitiveUsername();
+
+        UsernameIndex existingUsers = null;
+        boolean prefetch = Boolean.parseBoolean(properties.getProperty(PREFETCH_EXISTING_USERS, "false").trim());
+        if (prefetch && (deltaImportEnabled || upsertEnabled)) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Property " + PREFETCH_EXISTING_USERS + " is ignored in delta import "
+                    + "and upsert modes, as users that already exist are updated.");
+        } else if (prefetch) {
+            try {
+                existingUsers = DuplicateUserFilter.prefetchExistingUsers(
+                        new UserStoreManagerClient((AbstractUserStoreManager) store),
+                        getPositiveIntProperty(PREFETCH_PAGE_SIZE, DEFAULT_PREFETCH_PAGE_SIZE),
+                        getPositiveIntProperty(PREFETCH_MAX_USERS, DEFAULT_PREFETCH_MAX_USERS), expectedSize,
+                        caseInsensitive);
+            } catch (UserStoreException e) {
+                log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while prefetching existing users. Users that "
+                        + "already exist will be reported by the user store instead.", e);
+            }
+        }
+        return new DuplicateUserFilter(new UsernameIndex(expectedSize, caseInsensitive), existingUsers, skippedUsers,
+                progressJournal, metrics);
+    }
+
+    /**
+     * Returns the number of usernames the username indexes are initially sized for: the configured
+     * {@code usernameIndexExpectedSize}, or else an estimate from the size of the input files, so that a small
+     * import does not allocate an index for millions of users. The indexes grow if the estimate is too low.
+     *
+     * @return The expected number of usernames.
+     */
+    private int getUsernameIndexExpectedSize() {
+        long totalBytes = 0;
         for (File file : files) {
-            log.info(BULK_UPLOAD_LOG_PREFIX + "Reading from file " + file.getAbsolutePath());
+            totalBytes += file.length();
+        }
+        long estimate = Math.min(totalBytes / INPUT_BYTES_PER_USER_ESTIMATE, Integer.MAX_VALUE / 2);
+        return getPositiveIntProperty(USERNAME_INDEX_EXPECTED_SIZE,
+                (int) Math.max(estimate, MIN_USERNAME_INDEX_EXPECTED_SIZE));
+    }
 
-            InputStream targetStream = null;
-            BufferedReader reader = null;
-            CSVReader csvReader = null;
+    private boolean isCaseInsensitiveUsername() {
+        return Boolean.parseBoolean(store.getRealmConfiguration().getUserStoreProperty(CASE_INSENSITIVE_USERNAME));
+    }
 
-            try {
-                targetStream = new FileInputStream(file);
-                reader = new BufferedReader(new InputStreamReader(targetStream, StandardCharsets.UTF_8));
-                csvReader = new CSVReader(reader);
+    /**
+     * Loads the fingerprints of the users provisioned by previous delta imports from the output directory.
+     *
+     * @return true if the fingerprint store is ready, false if its file cannot be read.
+     */
+    private boolean openFingerprintStore() {
+        File file = new File(outputDirectory, FINGERPRINT_STORE_FILE_NAME);
+        FingerprintStore store = new FingerprintStore(file,
+                getUsernameIndexExpectedSize(), isCaseInsensitiveUsername());
+        try {
+            store.load();
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while reading the fingerprint store " + file
+                    + ". Delete it to run a full import.", e);
+            return false;
+        }
+        fingerprintStore = store;
+        return true;
+    }
 
-                String[] line = csvReader.readNext();
-                if (line != null) {
-                    firstLine = Arrays.stream(line).map(String::trim).toArray(String[]::new);
-                }
+    private void closeFingerprintStore() {
+        if (fingerprintStore == null) {
+            return;
+        }
+        try {
+            fingerprintStore.close();
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while saving the fingerprint store. The fingerprints "
+                    + "recorded at the last checkpoint are kept.", e);
+        }
+    }
 
-                while ((line = csvReader.readNext()) != null) {
-                    if (line.length > 0) {
-                        String[] trimmedLine = Arrays.stream(line).map(String::trim).toArray(String[]::new);
-                        userSet.add(trimmedLine);
-                    }
-                }
-            } catch (IOException e) {
-                log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while reading from CSV files", e);
-                return null;
-            } finally {
-                if (csvReader != null) {
-                    try {
-                        csvReader.close();
-                    } catch (IOException e) {
-                        log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while closing CSVReader", e);
-                    }
-                }
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (IOException e) {
-                        log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while closing BufferedReader", e);
-                    }
-                }
-                if (targetStream != null) {
-                    try {
-                        targetStream.close();
-                    } catch (IOException e) {
-                        log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while closing FileInputStream", e);
-                    }
-                }
+    /**
+     * Starts the provisioning workers. All workers take batches of users from the shared queue and hand them to
+     * the provisioning sink, and each worker runs within its own tenant flow. If virtual thread provisioning is
+     * enabled and supported by the runtime, the sink provisions each user of a batch on its own virtual thread.
+     * In upsert mode, the claims of each batch are fetched first, so that only new and changed users are written.
+     *
+     * @param workerPool The executor on which the workers run.
+     * @param userQueue The queue shared with the CSV reader.
+     * @param successfulUsers The writer to which successfully provisioned users are appended.
+     * @param failedUsers The writer to which users that could not be provisioned are appended.
+     * @param skippedUsers The writer to which users that are already up to date are appended.
+     * @return The futures of the started workers.
+     */
+    private List<Future<Integer>> startProvisioningWorkers(ExecutorService workerPool,
+                                                           BlockingQueue<UserRecord> userQueue,
+                                                           UserOutcomeWriter successfulUsers,
+                                                           UserOutcomeWriter failedUsers,
+                                                           UserOutcomeWriter skippedUsers) {
+        int maxInFlight = workerCount;
+        if (Boolean.parseBoolean(properties.getProperty(VIRTUAL_THREAD_PROVISIONING_ENABLED, "false").trim())) {
+            virtualThreadExecutor = VirtualThreadProvisioningSink.newVirtualThreadExecutor();
+            if (virtualThreadExecutor == null) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Virtual threads are not supported by this Java runtime. "
+                        + "Users will be provisioned by the " + workerCount + " provisioning workers.");
+            } else {
+                // The users in flight on virtual threads count against the job's share like its workers do.
+                maxInFlight = getBoundedWorkerCount(VIRTUAL_THREAD_MAX_CONCURRENCY,
+                        DEFAULT_VIRTUAL_THREAD_MAX_CONCURRENCY);
+                log.info(BULK_UPLOAD_LOG_PREFIX + "Provisioning users on virtual threads with up to " + maxInFlight
+                        + " users in flight");
             }
         }
-        return userSet;
+
+        AdaptiveConcurrencyLimiter limiter = createLimiter(maxInFlight);
+        metrics.setLimiter(limiter);
+        UserStoreClient userStoreClient = new UserStoreManagerClient((AbstractUserStoreManager) store);
+        ProvisioningSink sink = new UserStoreProvisioningSink(userStoreClient, limiter, metrics,
+                getNonNegativeIntProperty(PROVISIONING_MAX_RETRIES, DEFAULT_PROVISIONING_MAX_RETRIES),
+                getPositiveIntProperty(RETRY_BACKOFF_MILLIS, DEFAULT_RETRY_BACKOFF_MILLIS),
+                getPositiveIntProperty(MAX_RETRY_BACKOFF_MILLIS, DEFAULT_MAX_RETRY_BACKOFF_MILLIS),
+                deltaImportEnabled || upsertEnabled);
+        if (virtualThreadExecutor != null) {
+            sink = new VirtualThreadProvisioningSink(sink, virtualThreadExecutor, maxInFlight, tenantDomain,
+                    tenantId);
+        }
+        if (upsertEnabled) {
+            sink = new UpsertProvisioningSink(sink, userStoreClient, limiter, isCaseInsensitiveUsername());
+        }
+        List<Future<Integer>> workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(workerPool.submit(new UserProvisioningWorker(userQueue, sink, batchSize, tenantDomain,
+                    tenantId, successfulUsers, failedUsers, skippedUsers, progressJournal, fingerprintStore,
+                    metrics)));
+        }
+        return workers;
     }
 
-    private void provisionUsers(Set<String[]> userSet, List<String[]> successfulUsers, List<String[]> failedUsers) {
-        for (String[] user : userSet) {
-            if (user != null && user[0] != null && !user[0].isEmpty()) {
-                Map<String, String> claims = new HashMap<>();
-                for (int i = 2; i < firstLine.length; i++) { // Skip Username and Password
-                    String claimURI = firstLine[i];
-                    String value = user[i];
-                    if (!claimURI.isEmpty() && !value.isEmpty()) {
-                        claims.put(claimURI, value);
-                    }
-                }
+    /**
+     * Creates the metrics of this import, registers them over JMX and starts the periodic progress log.
+     *
+     * @param userQueue The queue whose depth is reported.
+     */
+    private void startMetrics(BlockingQueue<UserRecord> userQueue) {
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        metrics = new ImportMetrics(tenantDomain + "/" + (StringUtils.isEmpty(userDomain) ? "PRIMARY" : userDomain));
+        metrics.setTotalBytes(totalBytes);
+        metrics.setQueue(userQueue);
+        metrics.start(getPositiveIntProperty(PROGRESS_LOG_INTERVAL_SECONDS, DEFAULT_PROGRESS_LOG_INTERVAL_SECONDS));
+    }
 
-                try {
-                    ((AbstractUserStoreManager) store).addUserWithID(user[0], user[1], null, claims, null);
-                    successfulUsers.add(user);
-                } catch (UserStoreException e) {
-                    log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while adding user with the username: " + user[0], e);
-                    failedUsers.add(user);
-                }
+    /**
+     * Creates the limiter that adapts the number of user store calls in flight to the observed latency and
+     * error rate.
+     *
+     * @param maxInFlight The upper bound of the limit: the provisioning worker count, or the virtual thread
+     *                    concurrency cap if users are provisioned on virtual threads.
+     * @return The limiter, or null if adaptive throttling is disabled.
+     */
+    private AdaptiveConcurrencyLimiter createLimiter(int maxInFlight) {
+        if (!Boolean.parseBoolean(properties.getProperty(ADAPTIVE_THROTTLING_ENABLED, "true").trim())) {
+            return null;
+        }
+        double latencyTolerance = DEFAULT_THROTTLE_LATENCY_TOLERANCE;
+        String tolerance = properties.getProperty(THROTTLE_LATENCY_TOLERANCE);
+        if (StringUtils.isNotBlank(tolerance)) {
+            try {
+                latencyTolerance = Math.max(1.0, Double.parseDouble(tolerance.trim()));
+            } catch (NumberFormatException e) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Invalid value '" + tolerance + "' for property "
+                        + THROTTLE_LATENCY_TOLERANCE + ". Using the default value: " + latencyTolerance);
+            }
+        }
+        return new AdaptiveConcurrencyLimiter(
+                getPositiveIntProperty(THROTTLE_MIN_CONCURRENCY, DEFAULT_THROTTLE_MIN_CONCURRENCY), maxInFlight,
+                latencyTolerance);
+    }
+
+    private void signalEndOfInput(BlockingQueue<UserRecord> userQueue) throws InterruptedException {
+        for (int i = 0; i < workerCount; i++) {
+            userQueue.put(UserRecord.END_OF_INPUT);
+        }
+    }
+
+    /**
+     * @return true if all workers finished, false if any of them failed.
+     */
+    private boolean awaitProvisioningWorkers(List<Future<Integer>> workers) throws InterruptedException {
+        boolean allFinished = true;
+        for (Future<Integer> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred in a provisioning worker", e.getCause());
+                allFinished = false;
             }
         }
+        return allFinished;
     }
 
     /**
@@ -172,7 +503,7 @@ public class BulkUserUploadThread implements Callable<Boolean> {
         long startTime = System.currentTimeMillis();
         log.info(BULK_UPLOAD_LOG_PREFIX + "Started prerequisite check.");
 
-        if (!loadProperties()) {
+        if (loadPropertiesFromFile && !loadProperties()) {
             return false;
         }
 
@@ -180,6 +511,20 @@ public class BulkUserUploadThread implements Callable<Boolean> {
         userDomain = properties.getProperty(USER_DOMAIN);
         outputDirectory = properties.getProperty(OUTPUT_DIRECTORY);
         String folderPath = properties.getProperty(FOLDER_PATH);
+        workerCount = getBoundedWorkerCount(PROVISIONING_WORKER_COUNT, DEFAULT_PROVISIONING_WORKER_COUNT);
+        queueCapacity = getPositiveIntProperty(PROVISIONING_QUEUE_CAPACITY, DEFAULT_PROVISIONING_QUEUE_CAPACITY);
+        batchSize = getPositiveIntProperty(PROVISIONING_BATCH_SIZE, DEFAULT_PROVISIONING_BATCH_SIZE);
+        readerCount = getBoundedWorkerCount(READER_COUNT, DEFAULT_READER_COUNT);
+        mappedCsvParserEnabled = Boolean.parseBoolean(
+                properties.getProperty(MAPPED_CSV_PARSER_ENABLED, "false").trim());
+        mappedCsvChunkSize = getPositiveIntProperty(MAPPED_CSV_CHUNK_SIZE_MB, DEFAULT_MAPPED_CSV_CHUNK_SIZE_MB)
+                * 1024L * 1024L;
+        deltaImportEnabled = Boolean.parseBoolean(properties.getProperty(DELTA_IMPORT_ENABLED, "false").trim());
+        upsertEnabled = Boolean.parseBoolean(properties.getProperty(UPSERT_ENABLED, "false").trim());
+        outcomeSpillEnabled = Boolean.parseBoolean(properties.getProperty(OUTCOME_SPILL_ENABLED, "false").trim());
+        failedUserRetrySpillEnabled = Boolean.parseBoolean(
+                properties.getProperty(FAILED_USER_RETRY_SPILL_ENABLED, "false").trim());
+        retryFailedUsers = Boolean.parseBoolean(properties.getProperty(RETRY_FAILED_USERS, "false").trim());
 
         tenantId = getTenantIdFromDomain(tenantDomain);
         if (tenantId == -2) {
@@ -188,9 +533,21 @@ public class BulkUserUploadThread implements Callable<Boolean> {
 
         initializeTenantContext();
 
-        files = getCSVFilesFromDirectory(folderPath);
-        if (files == null || files.length == 0) {
-            log.error(BULK_UPLOAD_LOG_PREFIX + "Prerequisites were not satisfied. No CSV file is found at " + folderPath);
+        if (retryFailedUsers) {
+            files = getRetryInput();
+            if (files == null) {
+                return false;
+            }
+        } else {
+            files = getCSVFilesFromDirectory(folderPath);
+            if (files == null || files.length == 0) {
+                log.error(BULK_UPLOAD_LOG_PREFIX + "Prerequisites were not satisfied. No CSV file is found at "
+                        + folderPath);
+                return false;
+            }
+        }
+
+        if (!initializeProgressJournal()) {
             return false;
         }
 
@@ -212,17 +569,126 @@ public class BulkUserUploadThread implements Callable<Boolean> {
         return true;
     }
 
+    /**
+     * Reads a positive integer property from the loaded configuration.
+     *
+     * @param key The property key.
+     * @param defaultValue The value to use if the property is missing or invalid.
+     * @return The configured value, or the default value.
+     */
+    private int getPositiveIntProperty(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            int parsedValue = Integer.parseInt(value.trim());
+            if (parsedValue > 0) {
+                return parsedValue;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the warning below.
+        }
+        log.warn(BULK_UPLOAD_LOG_PREFIX + "Invalid value '" + value + "' for property " + key
+                + ". Using the default value: " + defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * Reads a thread count property, capped at the share of threads the import job service grants each import.
+     *
+     * @param key The property key.
+     * @param defaultValue The value to use if the property is missing or invalid.
+     * @return The configured value, or the default value, at most {@code maxWorkerCount}.
+     */
+    private int getBoundedWorkerCount(String key, int defaultValue) {
+        int count = getPositiveIntProperty(key, defaultValue);
+        if (count > maxWorkerCount) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Property " + key + " is limited to " + maxWorkerCount
+                    + " threads per import job");
+            return maxWorkerCount;
+        }
+        return count;
+    }
+
+    private boolean initializeProgressJournal() {
+        int flushInterval = getPositiveIntProperty(JOURNAL_FLUSH_INTERVAL, DEFAULT_JOURNAL_FLUSH_INTERVAL);
+        // A retry run keeps its own journal, so the checkpoint of an interrupted import is left as it is.
+        String journalFileName = retryFailedUsers ? RETRY_PROGRESS_JOURNAL_FILE_NAME : PROGRESS_JOURNAL_FILE_NAME;
+        progressJournal = new ImportProgressJournal(new File(outputDirectory, journalFileName), flushInterval);
+        try {
+            progressJournal.load();
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error while loading the progress journal from " + outputDirectory
+                    + ". Task Aborted.", e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a non-negative integer property from the loaded configuration.
+     *
+     * @param key The property key.
+     * @param defaultValue The value to use if the property is missing or invalid.
+     * @return The configured value, or the default value.
+     */
+    private int getNonNegativeIntProperty(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value != null && "0".equals(value.trim())) {
+            return 0;
+        }
+        return getPositiveIntProperty(key, defaultValue);
+    }
+
     private void initializeTenantContext() {
         PrivilegedCarbonContext.startTenantFlow();
+        tenantFlowStarted = true;
         PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantDomain(tenantDomain, true);
         PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantId(tenantId);
     }
 
+    private void endTenantFlow() {
+        if (tenantFlowStarted) {
+            PrivilegedCarbonContext.endTenantFlow();
+            tenantFlowStarted = false;
+        }
+    }
+
     private File[] getCSVFilesFromDirectory(String folderPath) {
         File dir = new File(folderPath);
         return dir.listFiles((dir1, name) -> name.toLowerCase().endsWith(".csv"));
     }
 
+    /**
+     * Finds the failed users to retry. The retry spill file of the previous run is renamed to the retry input
+     * first, so that this run can write its own retry spill file. The retry input left by an interrupted retry run
+     * is read again.
+     *
+     * @return The retry input, or null if there are no failed users to retry.
+     */
+    private File[] getRetryInput() {
+        File retryInput = new File(outputDirectory, FAILED_USERS_RETRY_INPUT_FILE_NAME);
+        if (retryInput.exists()) {
+            log.info(BULK_UPLOAD_LOG_PREFIX + "Resuming the retry of the failed users in "
+                    + retryInput.getAbsolutePath());
+            return new File[]{retryInput};
+        }
+        File retrySpill = new File(outputDirectory, FAILED_USERS_RETRY_SPILL_FILE_NAME);
+        if (!retrySpill.exists()) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Prerequisites were not satisfied. No failed users to retry are found "
+                    + "at " + retrySpill.getAbsolutePath() + ". Enable " + FAILED_USER_RETRY_SPILL_ENABLED
+                    + " for the import whose failed users are to be retried.");
+            return null;
+        }
+        if (!retrySpill.renameTo(retryInput)) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while moving " + retrySpill.getAbsolutePath()
+                    + " to " + retryInput.getAbsolutePath());
+            return null;
+        }
+        return new File[]{retryInput};
+    }
+
     private boolean initializeUserStoreManager() {
         try {
             log.info(BULK_UPLOAD_LOG_PREFIX + "Attempting to find user store manager for tenant: "
@@ -233,6 +699,7 @@ public class BulkUserUploadThread implements Callable<Boolean> {
                         + tenantDomain + ", userstore: " + userDomain);
                 return false;
             }
+            claimManager = store.getClaimManager();
 
             log.info(BULK_UPLOAD_LOG_PREFIX + "User store manager successfully initialized for tenant: "
                     + tenantDomain + ", TenantId: " + tenantId + ", userstore: " + userDomain);
@@ -263,11 +730,13 @@ public class BulkUserUploadThread implements Callable<Boolean> {
 
     /**
      * Retrieves the user store manager for the given user domain and tenant domain.
-     * If a secondary user store is specified, it waits for it to become available (up to 30 seconds).
+     * If a secondary user store is specified, it waits for it to be deployed for up to
+     * {@code userStoreWaitTimeoutSeconds}. The store is polled with an exponential back-off, so the wait does not
+     * compete for the CPU with the server start-up.
      *
      * @param userDomain The user domain.
      * @param tenantDomain The tenant domain.
-     * @return The UserStoreManager instance, or null if the user store is not found.
+     * @return The UserStoreManager instance, or null if the user store is not found or the wait is interrupted.
      * @throws org.wso2.carbon.user.api.UserStoreException If an error occurs while retrieving the user store manager.
      */
     private UserStoreManager getUserStoreManager(String userDomain, String tenantDomain)
@@ -275,16 +744,26 @@ public class BulkUserUploadThread implements Callable<Boolean> {
 
         RealmService realm = CustomUserAdministratorDataHolder.getInstance().getRealmService();
         if (StringUtils.isNotEmpty(userDomain)) {
-            long startTime = System.currentTimeMillis();
-            while (System.currentTimeMillis() < startTime + 300000) {
-                UserStoreManager store = ((AbstractUserStoreManager) realm.getTenantUserRealm(tenantId).getUserStoreManager())
-                        .getSecondaryUserStoreManager(userDomain);
-                if (store != null) {
-                    return store;
-                }
+            long timeoutMillis = TimeUnit.SECONDS.toMillis(
+                    getPositiveIntProperty(USER_STORE_WAIT_TIMEOUT_SECONDS, DEFAULT_USER_STORE_WAIT_TIMEOUT_SECONDS));
+            UserStoreManager store;
+            try {
+                store = pollWithBackoff("Secondary user store " + userDomain,
+                        () -> ((AbstractUserStoreManager) realm.getTenantUserRealm(tenantId).getUserStoreManager())
+                                .getSecondaryUserStoreManager(userDomain),
+                        timeoutMillis, USER_STORE_POLL_INITIAL_DELAY_MILLIS, USER_STORE_POLL_MAX_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error(BULK_UPLOAD_LOG_PREFIX + "Interrupted while waiting for the secondary user store: "
+                        + userDomain + ", tenantDomain: " + tenantDomain + ". Task aborted.");
+                return null;
+            }
+            if (store != null) {
+                return store;
             }
             log.error(BULK_UPLOAD_LOG_PREFIX + "Secondary user store manager not found for userDomain: "
-                    + userDomain + ", tenantDomain: " + tenantDomain + "Allocated time exceeded. Task aborted.");
+                    + userDomain + ", tenantDomain: " + tenantDomain + " within " + timeoutMillis
+                    + " ms. Task aborted.");
             return null;
         } else {
             log.info(BULK_UPLOAD_LOG_PREFIX + "Retrieving primary user store manager for tenantDomain: " + tenantDomain);
@@ -293,29 +772,147 @@ public class BulkUserUploadThread implements Callable<Boolean> {
     }
 
     /**
-     * Writes a list of users to a CSV file. This method is used to save both successful and failed users
-     * to separate CSV files for logging and auditing purposes.
+     * Calls the lookup until it returns a value or the timeout expires. The delay between two calls starts at
+     * {@code initialDelayMillis} and doubles up to {@code maxDelayMillis}.
      *
-     * The file is saved in the specified output directory with the given file name.
+     * @param description The description of the value in log messages.
+     * @param lookup The lookup, which returns null while the value is not available.
+     * @param timeoutMillis The time after which the lookup is not called again.
+     * @param initialDelayMillis The delay before the second call.
+     * @param maxDelayMillis The maximum delay between two calls.
+     * @return The value, or null if the lookup did not return one within the timeout.
+     * @throws org.wso2.carbon.user.api.UserStoreException If the lookup fails.
+     * @throws InterruptedException If interrupted while waiting for the next call.
+     */
+    static <T> T pollWithBackoff(String description, Lookup<T> lookup, long timeoutMillis, long initialDelayMillis,
+                                 long maxDelayMillis) throws org.wso2.carbon.user.api.UserStoreException, InterruptedException {
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long delay = initialDelayMillis;
+        while (true) {
+            T value = lookup.get();
+            if (value != null) {
+                return value;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug(BULK_UPLOAD_LOG_PREFIX + description + " is not available yet. Checking again in "
+                        + Math.min(delay, remaining) + " ms");
+            }
+            Thread.sleep(Math.min(delay, remaining));
+            delay = Math.min(delay * 2, maxDelayMillis);
+        }
+    }
+
+    /**
+     * A lookup polled by {@link #pollWithBackoff(String, Lookup, long, long, long)}.
+     */
+    interface Lookup<T> {
+
+        /**
+         * @return The value, or null if it is not available yet.
+         * @throws org.wso2.carbon.user.api.UserStoreException If the lookup fails.
+         */
+        T get() throws org.wso2.carbon.user.api.UserStoreException;
+    }
+
+    /**
+     * Opens a writer that appends users to a CSV file in the output directory while the import is running.
+     * This is used to save both successful and failed users to separate CSV files for logging and auditing purposes.
+     * If outcome spilling is enabled, the users are written to a spill file next to the CSV file, from which the CSV
+     * file is rendered when the writer is closed.
      *
-     * @param users The list of users to write. Each user is represented as a String array.
      * @param fileName The name of the output CSV file (e.g., "successful_users.csv" or "failed_users.csv").
+     * @param append true to keep the users written by a previous, interrupted run.
+     * @param extraColumns The names of the columns appended after the user's own values.
+     * @return The outcome writer, or null if the file cannot be opened.
      */
-    private void writeUsersToCSV(List<String[]> users, String fileName) {
-        if (users.isEmpty()) {
-            log.info(BULK_UPLOAD_LOG_PREFIX + "No users to write to " + fileName);
-            return;
+    private UserOutcomeWriter openOutcomeWriter(String fileName, boolean append, String... extraColumns) {
+        File file = new File(outputDirectory, fileName);
+        try {
+            if (outcomeSpillEnabled) {
+                return new UserOutcomeWriter(file, new File(outputDirectory, getSpillFileName(fileName)), append,
+                        extraColumns);
+            }
+            UserOutcomeWriter writer = new UserOutcomeWriter(file, append,
+                    getPositiveIntProperty(OUTCOME_FLUSH_INTERVAL, DEFAULT_OUTCOME_FLUSH_INTERVAL), extraColumns);
+            if (outcomeColumnLayout != null) {
+                writer.setColumnLayout(outcomeColumnLayout);
+            }
+            return writer;
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while opening " + file.getAbsolutePath(), e);
+            return null;
         }
+    }
 
-        String outputDir = outputDirectory.endsWith(File.separator) ? outputDirectory : outputDirectory + File.separator;
-        String filePath = outputDir + fileName;
-
-        try (FileWriter writer = new FileWriter(filePath)) {
-            writer.write(String.join(",", firstLine) + "\n");
-            for (String[] user : users) {
-                writer.write(String.join(",", user) + "\n");
+    /**
+     * Opens the writer of the failed users report, with the classification of each failure. If failed users are
+     * to be retried later, or are being retried, they are also written to the retry spill file with their
+     * passwords.
+     *
+     * @param append true to keep the users written by a previous, interrupted run.
+     * @return The outcome writer, or null if a file cannot be opened.
+     */
+    /**
+     * Reads the headers of the input files, so that the outcome files list the columns of all of them, whatever
+     * file each user was read from. In retry mode, the headers are collected from the retry spill file.
+     *
+     * @return The union of the input headers, or null if none could be read.
+     */
+    private OutcomeColumnLayout readInputColumnLayout() {
+        List<String[]> headers = new ArrayList<>(files.length);
+        for (File file : files) {
+            try {
+                if (retryFailedUsers) {
+                    OutcomeColumnLayout layout = OutcomeColumnLayout.fromSpill(file);
+                    return layout.getColumns().length > 0 ? layout : null;
+                }
+                String[] header = OutcomeColumnLayout.readHeader(file);
+                if (header != null) {
+                    headers.add(header);
+                }
+            } catch (IOException e) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Unable to read the header of " + file.getAbsolutePath()
+                        + ". Its columns are left out of the outcome files. " + e.getMessage());
             }
-            log.info(BULK_UPLOAD_LOG_PREFIX + "Successfully wrote " + users.size() + " users to " + filePath);
+        }
+        return headers.isEmpty() ? null : OutcomeColumnLayout.of(headers);
+    }
+
+    private UserOutcomeWriter openFailedUsersWriter(boolean append) {
+        UserOutcomeWriter failedUsers = openOutcomeWriter(FAILED_USERS_FILE_NAME, append, FAILURE_TYPE_COLUMN,
+                ERROR_CLASS_COLUMN, ERROR_MESSAGE_COLUMN);
+        if (failedUsers == null || !(failedUserRetrySpillEnabled || retryFailedUsers)) {
+            return failedUsers;
+        }
+        File retrySpillFile = new File(outputDirectory, FAILED_USERS_RETRY_SPILL_FILE_NAME);
+        try {
+            failedUsers.attachRetrySpill(retrySpillFile, append);
+            return failedUsers;
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while opening " + retrySpillFile.getAbsolutePath(), e);
+            closeOutcomeWriter(failedUsers);
+            return null;
+        }
+    }
+
+    private static String getSpillFileName(String fileName) {
+        return fileName.substring(0, fileName.lastIndexOf('.')) + SPILL_FILE_EXTENSION;
+    }
+
+    private void closeOutcomeWriter(UserOutcomeWriter outcomeWriter) {
+        if (outcomeWriter == null) {
+            return;
+        }
+        String filePath = outcomeWriter.getFile().getAbsolutePath();
+        try {
+            outcomeWriter.close();
+            log.info(BULK_UPLOAD_LOG_PREFIX + "Successfully wrote " + outcomeWriter.getRecordCount() + " users to "
+                    + filePath);
         } catch (IOException e) {
             log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while writing to " + filePath, e);
         }
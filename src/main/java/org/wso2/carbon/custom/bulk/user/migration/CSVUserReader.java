@@ -0,0 +1,268 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import au.com.bytecode.opencsv.CSVReader;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.user.api.ClaimManager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Reads the users of a single CSV file and streams them to the provisioning workers.
+ * Each file is read by its own reader task with a claim mapping compiled from that file's own header,
+ * so several files can be parsed in parallel and files with different column layouts can be mixed.
+ */
+public class CSVUserReader implements Callable<Boolean> {
+
+    private static final Log log = LogFactory.getLog(CSVUserReader.class);
+    private static final int ROW_OFFSET_INTERVAL = 1000;
+    private static final int SKIP_BUFFER_SIZE = 8192;
+    private static final byte QUOTE = '"';
+    private static final byte LINE_FEED = '\n';
+    private final File file;
+    private final BlockingQueue<UserRecord> userQueue;
+    private final ImportProgressJournal progressJournal;
+    private final ClaimManager claimManager;
+    private final ImportMetrics metrics;
+    private final UserRecordFilter userRecordFilter;
+
+    public CSVUserReader(File file, BlockingQueue<UserRecord> userQueue, ImportProgressJournal progressJournal,
+                         ClaimManager claimManager, ImportMetrics metrics, UserRecordFilter userRecordFilter) {
+
+        this.file = file;
+        this.userQueue = userQueue;
+        this.progressJournal = progressJournal;
+        this.claimManager = claimManager;
+        this.metrics = metrics;
+        this.userRecordFilter = userRecordFilter;
+    }
+
+    /**
+     * Streams user data from the CSV file into the queue.
+     * Each row is handed to the provisioning workers as soon as it is parsed, and the bounded queue
+     * blocks the reader whenever the workers fall behind, so heap usage does not grow with the input size.
+     *
+     * Steps:
+     * 1. Opens the CSV file.
+     * 2. Reads the header line (first line) and compiles it into the claim mapping of the file.
+     * 3. Skips the data rows already processed in a previous run, as recorded in the progress journal. If the
+     *    journal has the offset of a row close to the completed-row watermark, the reader seeks to that row, so at
+     *    most {@code ROW_OFFSET_INTERVAL} rows are parsed again before the watermark.
+     * 4. Reads and trims subsequent lines (user data).
+     * 5. Reports the users rejected by the filter (e.g. duplicates) as skipped.
+     * 6. Puts each remaining row on the queue, waiting for free capacity if required.
+     *
+     * @return true if the file was read, false if an error occurs while reading the file.
+     * @throws InterruptedException If interrupted while waiting for space in the queue.
+     */
+    @Override
+    public Boolean call() throws InterruptedException {
+
+        String path = file.getAbsolutePath();
+        log.info(BULK_UPLOAD_LOG_PREFIX + "Reading from file " + path);
+
+        CountingInputStream targetStream = null;
+        BufferedReader reader = null;
+        CSVReader csvReader = null;
+
+        try {
+            CompletedRowRanges completedRows = progressJournal.register(file);
+            long watermark = completedRows.getWatermark();
+            targetStream = new CountingInputStream(new FileInputStream(file), metrics, progressJournal, path);
+            reader = new BufferedReader(new InputStreamReader(targetStream, StandardCharsets.UTF_8));
+            csvReader = new CSVReader(reader);
+
+            String[] line = csvReader.readNext();
+            if (line == null) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Skipping empty file " + path);
+                return true;
+            }
+            ClaimMappingPlan claimMappingPlan = ClaimMappingPlan.compile(trimInPlace(line), claimManager);
+
+            long rowNumber = 0;
+            if (!completedRows.isEmpty()) {
+                log.info(BULK_UPLOAD_LOG_PREFIX + "Resuming file " + path + " with " + completedRows.getRowCount()
+                        + " already processed rows");
+                ImportProgressJournal.RowOffset resumeOffset = progressJournal.getResumeOffset(path);
+                if (resumeOffset != null && resumeOffset.getOffset() <= file.length()) {
+                    // The readers of the header have read ahead, so the rows after the offset are read through new
+                    // readers over the same stream. The abandoned readers hold no resources of their own.
+                    targetStream.seek(resumeOffset.getOffset(), resumeOffset.getRowNumber());
+                    reader = new BufferedReader(new InputStreamReader(targetStream, StandardCharsets.UTF_8));
+                    csvReader = new CSVReader(reader);
+                    rowNumber = resumeOffset.getRowNumber() - 1;
+                }
+                while (rowNumber < watermark && csvReader.readNext() != null) {
+                    rowNumber++;
+                }
+                metrics.bytesSkipped(targetStream.getCount());
+            }
+
+            while ((line = csvReader.readNext()) != null) {
+                rowNumber++;
+                if (completedRows.contains(rowNumber)) {
+                    continue;
+                }
+                if (line.length > 0) {
+                    metrics.rowParsed();
+                    UserRecord record = new UserRecord(claimMappingPlan, trimInPlace(line), path, rowNumber);
+                    if (userRecordFilter == null || userRecordFilter.accept(record)) {
+                        userQueue.put(record);
+                    }
+                } else {
+                    progressJournal.markCompleted(path, rowNumber);
+                }
+            }
+            log.info(BULK_UPLOAD_LOG_PREFIX + "Finished reading " + rowNumber + " rows from file " + path);
+            return true;
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while reading from CSV file " + path, e);
+            return false;
+        } finally {
+            if (csvReader != null) {
+                try {
+                    csvReader.close();
+                } catch (IOException e) {
+                    log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while closing CSVReader", e);
+                }
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while closing BufferedReader", e);
+                }
+            }
+            if (targetStream != null) {
+                try {
+                    targetStream.close();
+                } catch (IOException e) {
+                    log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while closing FileInputStream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Trims every value of a parsed CSV line, reusing the array returned by the CSV reader.
+     *
+     * @param line The parsed line.
+     * @return The same array, with trimmed values.
+     */
+    private static String[] trimInPlace(String[] line) {
+
+        for (int i = 0; i < line.length; i++) {
+            String value = line[i];
+            line[i] = value == null ? "" : value.trim();
+        }
+        return line;
+    }
+
+    /**
+     * Input stream that reports the number of bytes read from the file to the import metrics, and records the
+     * offset of every {@code ROW_OFFSET_INTERVAL}th data row in the progress journal.
+     *
+     * Rows are counted at line feeds outside quotes, which numbers them as the CSV reader does for files with LF or
+     * CRLF line endings: the CSV reader joins lines while a quote is open, and a doubled quote within a quoted value
+     * leaves the quote state as it was. Files with bare CR line endings are read as a single row here, so no offsets
+     * are recorded for them and they are resumed by parsing every row up to the watermark.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final FileInputStream fileStream;
+        private final ImportMetrics metrics;
+        private final ImportProgressJournal progressJournal;
+        private final String path;
+        private long count;
+        private long row;
+        private boolean inQuotes;
+
+        private CountingInputStream(FileInputStream in, ImportMetrics metrics, ImportProgressJournal progressJournal,
+                                    String path) {
+
+            super(in);
+            this.fileStream = in;
+            this.metrics = metrics;
+            this.progressJournal = progressJournal;
+            this.path = path;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            int value = super.read();
+            if (value >= 0) {
+                track((byte) value, count);
+                count(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+
+            int bytes = super.read(buffer, offset, length);
+            for (int i = 0; i < bytes; i++) {
+                track(buffer[offset + i], count + i);
+            }
+            if (bytes > 0) {
+                count(bytes);
+            }
+            return bytes;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+
+            // Skipped bytes are read, so that no line feed escapes the row count.
+            int bytes = read(new byte[(int) Math.min(n, SKIP_BUFFER_SIZE)]);
+            return Math.max(bytes, 0);
+        }
+
+        /**
+         * Moves the stream to the start of a data row.
+         *
+         * @param offset The offset of the row in the file.
+         * @param rowNumber The 1-based data row number.
+         * @throws IOException If the file position cannot be changed.
+         */
+        private void seek(long offset, long rowNumber) throws IOException {
+
+            fileStream.getChannel().position(offset);
+            metrics.bytesRead(offset - count);
+            count = offset;
+            row = rowNumber;
+            inQuotes = false;
+        }
+
+        private void track(byte b, long position) {
+
+            if (b == QUOTE) {
+                inQuotes = !inQuotes;
+            } else if (b == LINE_FEED && !inQuotes && ++row % ROW_OFFSET_INTERVAL == 0) {
+                progressJournal.recordRowOffset(path, row, position + 1);
+            }
+        }
+
+        private void count(long bytes) {
+
+            count += bytes;
+            metrics.bytesRead(bytes);
+        }
+
+        private long getCount() {
+
+            return count;
+        }
+    }
+}
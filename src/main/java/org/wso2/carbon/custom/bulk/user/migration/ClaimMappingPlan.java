@@ -0,0 +1,174 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.user.api.ClaimManager;
+import org.wso2.carbon.user.api.UserStoreException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Immutable mapping from the columns of a CSV file to user claims, compiled once from the header line.
+ *
+ * The first two columns are the username and the password. Of the remaining columns, those with an empty
+ * header and those whose claim URI is unknown to the claim manager are dropped when the plan is compiled,
+ * so building the claims of a row only visits the columns that are actually provisioned.
+ */
+public class ClaimMappingPlan {
+
+    private static final Log log = LogFactory.getLog(ClaimMappingPlan.class);
+    private static final int USERNAME_COLUMN = 0;
+    static final int PASSWORD_COLUMN = 1;
+    private static final int FIRST_CLAIM_COLUMN = 2;
+
+    private final String[] header;
+    private final int[] claimColumns;
+    private final String[] claimURIs;
+    private final boolean[] mappedColumns;
+    private final int claimMapCapacity;
+
+    private ClaimMappingPlan(String[] header, int[] claimColumns, String[] claimURIs) {
+
+        this.header = header;
+        this.claimColumns = claimColumns;
+        this.claimURIs = claimURIs;
+        this.mappedColumns = new boolean[Math.max(header.length, FIRST_CLAIM_COLUMN)];
+        mappedColumns[USERNAME_COLUMN] = true;
+        mappedColumns[PASSWORD_COLUMN] = true;
+        for (int column : claimColumns) {
+            mappedColumns[column] = true;
+        }
+        // Presize so that a row with every claim set never triggers a rehash.
+        this.claimMapCapacity = (int) (claimColumns.length / 0.75f) + 1;
+    }
+
+    /**
+     * Compiles the mapping for a CSV header line.
+     *
+     * @param header The trimmed header line of the CSV file.
+     * @param claimManager The claim manager used to drop unknown claims, or null to keep every non-empty claim.
+     * @return The compiled plan.
+     */
+    public static ClaimMappingPlan compile(String[] header, ClaimManager claimManager) {
+
+        int[] columns = new int[Math.max(header.length - FIRST_CLAIM_COLUMN, 0)];
+        String[] uris = new String[columns.length];
+        int count = 0;
+        for (int i = FIRST_CLAIM_COLUMN; i < header.length; i++) {
+            String claimURI = header[i];
+            if (claimURI.isEmpty()) {
+                continue;
+            }
+            if (!isKnownClaim(claimURI, claimManager)) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Claim " + claimURI + " in column " + (i + 1)
+                        + " is not a known claim. Values of this column will not be provisioned.");
+                continue;
+            }
+            columns[count] = i;
+            uris[count] = claimURI;
+            count++;
+        }
+
+        int[] claimColumns = new int[count];
+        String[] claimURIs = new String[count];
+        System.arraycopy(columns, 0, claimColumns, 0, count);
+        System.arraycopy(uris, 0, claimURIs, 0, count);
+        return new ClaimMappingPlan(header, claimColumns, claimURIs);
+    }
+
+    private static boolean isKnownClaim(String claimURI, ClaimManager claimManager) {
+
+        if (claimManager == null) {
+            return true;
+        }
+        try {
+            return claimManager.getClaim(claimURI) != null;
+        } catch (UserStoreException e) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Unable to verify claim " + claimURI + ". It will be provisioned as is.",
+                    e);
+            return true;
+        }
+    }
+
+    public String[] getHeader() {
+
+        return header;
+    }
+
+    /**
+     * @return The URIs of the claims provisioned from the file, in column order.
+     */
+    public String[] getClaimURIs() {
+
+        return claimURIs.clone();
+    }
+
+    /**
+     * @param column The 0-based column index.
+     * @return true if the values of the column are used to provision the user, i.e. the column is the username,
+     * the password or a known claim.
+     */
+    public boolean isMapped(int column) {
+
+        return column < mappedColumns.length && mappedColumns[column];
+    }
+
+    public String getUsername(String[] values) {
+
+        return values.length > USERNAME_COLUMN ? values[USERNAME_COLUMN] : null;
+    }
+
+    public String getPassword(String[] values) {
+
+        return values.length > PASSWORD_COLUMN ? values[PASSWORD_COLUMN] : null;
+    }
+
+    /**
+     * Builds the claims of a row. Columns missing from a short row and empty values are skipped.
+     *
+     * @param values The trimmed values of the row.
+     * @return The claim URI to value map of the row.
+     */
+    public Map<String, String> toClaims(String[] values) {
+
+        Map<String, String> claims = new HashMap<>(claimMapCapacity);
+        for (int i = 0; i < claimColumns.length; i++) {
+            int column = claimColumns[i];
+            if (column >= values.length) {
+                break;
+            }
+            String value = values[column];
+            if (!value.isEmpty()) {
+                claims.put(claimURIs[i], value);
+            }
+        }
+        return claims;
+    }
+
+    /**
+     * Computes a fingerprint of the claims of a row, i.e. of the values {@link #toClaims(String[])} would map.
+     * The fingerprint does not depend on the order of the columns, so reordering the columns of an export does
+     * not change it. The password is not part of the fingerprint.
+     *
+     * @param values The trimmed values of the row.
+     * @return The non-zero 64-bit fingerprint of the claims.
+     */
+    public long fingerprint(String[] values) {
+
+        long fingerprint = 0;
+        for (int i = 0; i < claimColumns.length; i++) {
+            int column = claimColumns[i];
+            if (column >= values.length) {
+                break;
+            }
+            String value = values[column];
+            if (!value.isEmpty()) {
+                fingerprint += HashFunctions.hash(claimURIs[i], value);
+            }
+        }
+        return fingerprint == 0 ? 1L : fingerprint;
+    }
+}
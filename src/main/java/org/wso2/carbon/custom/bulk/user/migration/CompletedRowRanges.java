@@ -0,0 +1,120 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Set of completed data row numbers of a CSV file, stored as disjoint, inclusive ranges of rows.
+ *
+ * Parallel chunks and concurrent workers complete rows out of order, but each of them completes a contiguous run of
+ * rows, so the set takes memory in proportion to the gaps between the runs rather than to the number of rows, and
+ * can be written to the progress journal in full. The ranges starting at the first row form the watermark.
+ *
+ * The set is not thread safe. A copy that is no longer modified can be read by several threads.
+ */
+public class CompletedRowRanges {
+
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    public CompletedRowRanges() {
+
+    }
+
+    /**
+     * @param other The ranges to copy.
+     */
+    public CompletedRowRanges(CompletedRowRanges other) {
+
+        ranges.putAll(other.ranges);
+    }
+
+    /**
+     * Adds a row, merging it with the ranges next to it.
+     *
+     * @param row The 1-based data row number.
+     */
+    public void add(long row) {
+
+        add(row, row);
+    }
+
+    /**
+     * Adds a range of rows, merging it with the ranges it overlaps or touches.
+     *
+     * @param first The first row of the range.
+     * @param last The last row of the range, inclusive.
+     */
+    public void add(long first, long last) {
+
+        if (first > last) {
+            return;
+        }
+        Map.Entry<Long, Long> previous = ranges.floorEntry(first);
+        if (previous != null && previous.getValue() >= first - 1) {
+            if (previous.getValue() >= last) {
+                return;
+            }
+            first = previous.getKey();
+        }
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(first);
+        while (next != null && next.getKey() <= last + 1) {
+            last = Math.max(last, next.getValue());
+            ranges.remove(next.getKey());
+            next = ranges.higherEntry(next.getKey());
+        }
+        ranges.put(first, last);
+    }
+
+    public boolean contains(long row) {
+
+        Map.Entry<Long, Long> range = ranges.floorEntry(row);
+        return range != null && range.getValue() >= row;
+    }
+
+    /**
+     * @param first The first row of the range.
+     * @param last The last row of the range, inclusive.
+     * @return true if every row of the range is completed.
+     */
+    public boolean containsAll(long first, long last) {
+
+        Map.Entry<Long, Long> range = ranges.floorEntry(first);
+        return range != null && range.getValue() >= last;
+    }
+
+    /**
+     * @return The highest row such that the row and all rows before it are completed, or 0 if the first row is not.
+     */
+    public long getWatermark() {
+
+        Long last = ranges.get(1L);
+        return last == null ? 0 : last;
+    }
+
+    /**
+     * @return The number of completed rows.
+     */
+    public long getRowCount() {
+
+        long count = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            count += range.getValue() - range.getKey() + 1;
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+
+        return ranges.isEmpty();
+    }
+
+    /**
+     * @return The ranges in ascending order, as a read-only map from the first to the last row of each range.
+     */
+    public SortedMap<Long, Long> getRanges() {
+
+        return Collections.unmodifiableSortedMap(ranges);
+    }
+}
@@ -4,6 +4,12 @@ public class Constants {
 
     public static final int DEFAULT_BULK_USER_UPLOAD_POOL_SIZE = 4;
     public static final String BULK_UPLOAD = "bulkupload";
+
+    // Import Job Service Configuration (system properties)
+    public static final String MAX_CONCURRENT_IMPORT_JOBS = "bulkupload.maxConcurrentJobs";
+    public static final String MAX_WORKERS_PER_IMPORT_JOB = "bulkupload.maxWorkersPerJob";
+    public static final int DEFAULT_MAX_WORKERS_PER_IMPORT_JOB = 32;
+    public static final int MAX_RETAINED_IMPORT_JOBS = 100;
     public static final String BULK_UPLOAD_LOG_PREFIX = "[CUSTOM BULK USER UPLOADER]";
 
     // Configuration file paths
@@ -18,10 +24,95 @@ public class Constants {
     public static final String FOLDER_PATH = "csvFilePath";
     //output directory in properties file
     public static final String OUTPUT_DIRECTORY = "outputDirectory";
+    // Outcome files written to the output directory
+    public static final String SUCCESSFUL_USERS_FILE_NAME = "successful_users.csv";
+    public static final String FAILED_USERS_FILE_NAME = "failed_users.csv";
+    public static final String SKIPPED_USERS_FILE_NAME = "skipped_users.csv";
+    public static final String SKIP_REASON_COLUMN = "SkipReason";
+    public static final String FAILURE_TYPE_COLUMN = "FailureType";
+    public static final String ERROR_CLASS_COLUMN = "ErrorClass";
+    public static final String ERROR_MESSAGE_COLUMN = "ErrorMessage";
+    public static final String OUTCOME_FLUSH_INTERVAL = "outcomeFlushInterval";
+    public static final int DEFAULT_OUTCOME_FLUSH_INTERVAL = 100;
 
     // Tenant and User Domain Configuration
     public static final String TENANT_DOMAIN = "tenantDomain";
     public static final String USER_DOMAIN = "userDomain";
+    public static final String USER_STORE_WAIT_TIMEOUT_SECONDS = "userStoreWaitTimeoutSeconds";
+    public static final int DEFAULT_USER_STORE_WAIT_TIMEOUT_SECONDS = 300;
+    public static final long USER_STORE_POLL_INITIAL_DELAY_MILLIS = 100;
+    public static final long USER_STORE_POLL_MAX_DELAY_MILLIS = 5000;
+
+    // Provisioning Configuration
+    public static final String PROVISIONING_WORKER_COUNT = "provisioningWorkerCount";
+    public static final int DEFAULT_PROVISIONING_WORKER_COUNT = 4;
+    public static final String PROVISIONING_QUEUE_CAPACITY = "provisioningQueueCapacity";
+    public static final int DEFAULT_PROVISIONING_QUEUE_CAPACITY = 10000;
+    public static final String PROVISIONING_BATCH_SIZE = "provisioningBatchSize";
+    public static final int DEFAULT_PROVISIONING_BATCH_SIZE = 50;
+    public static final String READER_COUNT = "readerCount";
+    public static final int DEFAULT_READER_COUNT = Runtime.getRuntime().availableProcessors();
+    public static final String MAPPED_CSV_PARSER_ENABLED = "mappedCsvParserEnabled";
+    public static final String MAPPED_CSV_CHUNK_SIZE_MB = "mappedCsvChunkSizeMB";
+    public static final int DEFAULT_MAPPED_CSV_CHUNK_SIZE_MB = 64;
+
+    // Adaptive Throttling and Retry Configuration
+    public static final String ADAPTIVE_THROTTLING_ENABLED = "adaptiveThrottlingEnabled";
+    public static final String THROTTLE_MIN_CONCURRENCY = "throttleMinConcurrency";
+    public static final int DEFAULT_THROTTLE_MIN_CONCURRENCY = 1;
+    public static final String THROTTLE_LATENCY_TOLERANCE = "throttleLatencyTolerance";
+    public static final double DEFAULT_THROTTLE_LATENCY_TOLERANCE = 2.0;
+    public static final String PROVISIONING_MAX_RETRIES = "provisioningMaxRetries";
+    public static final int DEFAULT_PROVISIONING_MAX_RETRIES = 3;
+    public static final String RETRY_BACKOFF_MILLIS = "retryBackoffMillis";
+    public static final int DEFAULT_RETRY_BACKOFF_MILLIS = 200;
+    public static final String MAX_RETRY_BACKOFF_MILLIS = "maxRetryBackoffMillis";
+    public static final int DEFAULT_MAX_RETRY_BACKOFF_MILLIS = 10000;
+
+    // Virtual Thread Provisioning Configuration
+    public static final String VIRTUAL_THREAD_PROVISIONING_ENABLED = "virtualThreadProvisioningEnabled";
+    public static final String VIRTUAL_THREAD_MAX_CONCURRENCY = "virtualThreadMaxConcurrency";
+    public static final int DEFAULT_VIRTUAL_THREAD_MAX_CONCURRENCY = 1000;
+
+    // Duplicate User Detection Configuration
+    public static final String DETECT_DUPLICATE_USERS = "detectDuplicateUsers";
+    public static final String USERNAME_INDEX_EXPECTED_SIZE = "usernameIndexExpectedSize";
+    public static final int MIN_USERNAME_INDEX_EXPECTED_SIZE = 1024;
+    public static final int INPUT_BYTES_PER_USER_ESTIMATE = 100;
+    public static final String PREFETCH_EXISTING_USERS = "prefetchExistingUsers";
+    public static final String PREFETCH_PAGE_SIZE = "prefetchPageSize";
+    public static final int DEFAULT_PREFETCH_PAGE_SIZE = 1000;
+    public static final String PREFETCH_MAX_USERS = "prefetchMaxUsers";
+    public static final int DEFAULT_PREFETCH_MAX_USERS = 10000000;
+    // User store property that makes usernames case-insensitive
+    public static final String CASE_INSENSITIVE_USERNAME = "CaseInsensitiveUsername";
+
+    // Delta Import Configuration
+    public static final String DELTA_IMPORT_ENABLED = "deltaImportEnabled";
+    public static final String FINGERPRINT_STORE_FILE_NAME = "user_fingerprints.dat";
+
+    // Upsert Configuration
+    public static final String UPSERT_ENABLED = "upsertEnabled";
+
+    // Outcome Spill Configuration
+    public static final String OUTCOME_SPILL_ENABLED = "outcomeSpillEnabled";
+    public static final String SPILL_FILE_EXTENSION = ".spill";
+
+    // Failed User Retry Configuration
+    public static final String FAILED_USER_RETRY_SPILL_ENABLED = "failedUserRetrySpillEnabled";
+    public static final String RETRY_FAILED_USERS = "retryFailedUsers";
+    public static final String FAILED_USERS_RETRY_SPILL_FILE_NAME = "failed_users_retry" + SPILL_FILE_EXTENSION;
+    public static final String FAILED_USERS_RETRY_INPUT_FILE_NAME = "failed_users_retrying" + SPILL_FILE_EXTENSION;
+
+    // Metrics Configuration
+    public static final String PROGRESS_LOG_INTERVAL_SECONDS = "progressLogIntervalSeconds";
+    public static final int DEFAULT_PROGRESS_LOG_INTERVAL_SECONDS = 30;
+
+    // Progress Journal Configuration
+    public static final String PROGRESS_JOURNAL_FILE_NAME = "import_progress.journal";
+    public static final String RETRY_PROGRESS_JOURNAL_FILE_NAME = "retry_progress.journal";
+    public static final String JOURNAL_FLUSH_INTERVAL = "journalFlushInterval";
+    public static final int DEFAULT_JOURNAL_FLUSH_INTERVAL = 1000;
 
 
 }
@@ -0,0 +1,58 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+/**
+ * Filter for delta imports, which compares the claims of each user with the fingerprint recorded when the user
+ * was last provisioned:
+ * <ul>
+ *     <li>Users without a fingerprint are new and are added.</li>
+ *     <li>Users whose fingerprint differs are updated with the claims of the row.</li>
+ *     <li>Users whose fingerprint is unchanged are reported as skipped without a user store call.</li>
+ * </ul>
+ * The fingerprint of a row is attached to its record, and recorded in the {@link FingerprintStore} once the user
+ * has been provisioned.
+ */
+public class DeltaImportFilter implements UserRecordFilter {
+
+    public static final String UNCHANGED = "UNCHANGED";
+
+    private final FingerprintStore fingerprintStore;
+    private final UserOutcomeWriter skippedUsers;
+    private final ImportProgressJournal progressJournal;
+    private final ImportMetrics metrics;
+
+    /**
+     * @param fingerprintStore The fingerprints of the users provisioned by previous imports.
+     * @param skippedUsers The writer of the skipped users report.
+     * @param progressJournal The journal in which skipped rows are marked as processed.
+     * @param metrics The metrics to which skipped users are reported.
+     */
+    public DeltaImportFilter(FingerprintStore fingerprintStore, UserOutcomeWriter skippedUsers,
+                             ImportProgressJournal progressJournal, ImportMetrics metrics) {
+
+        this.fingerprintStore = fingerprintStore;
+        this.skippedUsers = skippedUsers;
+        this.progressJournal = progressJournal;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean accept(UserRecord record) {
+
+        String username = record.getUsername();
+        if (username == null || username.isEmpty()) {
+            return true;
+        }
+
+        long fingerprint = record.getClaimMappingPlan().fingerprint(record.getValues());
+        long previous = fingerprintStore.get(username);
+        if (previous == fingerprint) {
+            skippedUsers.write(record, UNCHANGED);
+            progressJournal.markCompleted(record.getSourcePath(), record.getRowNumber());
+            metrics.userSkipped();
+            return false;
+        }
+        record.setFingerprint(fingerprint);
+        record.setOperation(previous == 0 ? UserRecord.Operation.ADD : UserRecord.Operation.UPDATE);
+        return true;
+    }
+}
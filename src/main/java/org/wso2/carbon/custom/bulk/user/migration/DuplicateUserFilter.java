@@ -0,0 +1,131 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.user.core.util.UserCoreUtil;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Filters out users that would only fail in the user store: usernames repeated within the input, and, if the
+ * existing usernames were prefetched, users that are already present in the store. Filtered users are written to
+ * the skipped users report together with the reason, without a user store round trip.
+ */
+public class DuplicateUserFilter implements UserRecordFilter {
+
+    public static final String DUPLICATE_IN_INPUT = "DUPLICATE_IN_INPUT";
+    public static final String ALREADY_EXISTS = "ALREADY_EXISTS";
+
+    private static final Log log = LogFactory.getLog(DuplicateUserFilter.class);
+
+    private final UsernameIndex inputUsers;
+    private final UsernameIndex existingUsers;
+    private final UserOutcomeWriter skippedUsers;
+    private final ImportProgressJournal progressJournal;
+    private final ImportMetrics metrics;
+
+    /**
+     * @param inputUsers The index to which the usernames of the input are added as they stream in.
+     * @param existingUsers The usernames already present in the user store, or null if they were not prefetched.
+     * @param skippedUsers The writer of the skipped users report.
+     * @param progressJournal The journal in which skipped rows are marked as processed.
+     * @param metrics The metrics to which skipped users are reported.
+     */
+    public DuplicateUserFilter(UsernameIndex inputUsers, UsernameIndex existingUsers, UserOutcomeWriter skippedUsers,
+                               ImportProgressJournal progressJournal, ImportMetrics metrics) {
+
+        this.inputUsers = inputUsers;
+        this.existingUsers = existingUsers;
+        this.skippedUsers = skippedUsers;
+        this.progressJournal = progressJournal;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Checks whether a user should be provisioned. Rejected users are reported and marked as processed.
+     *
+     * @param record The parsed user.
+     * @return true if the user should be handed to the provisioning workers.
+     */
+    @Override
+    public boolean accept(UserRecord record) {
+
+        String username = record.getUsername();
+        if (username == null || username.isEmpty()) {
+            return true;
+        }
+
+        String reason = null;
+        if (existingUsers != null && existingUsers.contains(username)) {
+            reason = ALREADY_EXISTS;
+        } else if (!inputUsers.add(username)) {
+            reason = DUPLICATE_IN_INPUT;
+        }
+        if (reason == null) {
+            return true;
+        }
+
+        skippedUsers.write(record, reason);
+        progressJournal.markCompleted(record.getSourcePath(), record.getRowNumber());
+        metrics.userSkipped();
+        return false;
+    }
+
+    /**
+     * Loads the usernames already present in the user store, page by page.
+     *
+     * The store may cap a page at its own maximum list length, so the first page sets the length of a full page,
+     * and listing stops at the first shorter page. It also stops at a page without any new username, as returned
+     * by a store that ignores the offset, and after {@code maxUsers} usernames. An incomplete index only means that
+     * the users it misses are reported as existing by the user store instead.
+     *
+     * @param store The user store the users are imported into.
+     * @param pageSize The number of usernames requested per page.
+     * @param maxUsers The number of usernames after which listing stops.
+     * @param expectedSize The number of usernames the index is initially sized for.
+     * @param caseInsensitive true if the user store treats usernames case-insensitively.
+     * @return The index of existing usernames.
+     * @throws UserStoreException If listing the users fails.
+     */
+    public static UsernameIndex prefetchExistingUsers(UserStoreClient store, int pageSize, int maxUsers,
+                                                      int expectedSize, boolean caseInsensitive)
+            throws UserStoreException {
+
+        long startTime = System.currentTimeMillis();
+        UsernameIndex existingUsers = new UsernameIndex(Math.min(expectedSize, maxUsers), caseInsensitive);
+        int offset = 1;
+        int fullPageLength = 0;
+        while (existingUsers.size() < maxUsers) {
+            String[] page = store.listUsers("*", pageSize, offset);
+            if (page == null || page.length == 0) {
+                break;
+            }
+            int added = 0;
+            for (String username : page) {
+                if (existingUsers.add(UserCoreUtil.removeDomainFromName(username))) {
+                    added++;
+                }
+            }
+            if (added == 0) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "The user store returned a page of already listed usernames at "
+                        + "offset " + offset + ". Prefetching of existing usernames is stopped.");
+                break;
+            }
+            if (fullPageLength == 0) {
+                fullPageLength = page.length;
+            } else if (page.length < fullPageLength) {
+                break;
+            }
+            offset += page.length;
+        }
+        if (existingUsers.size() >= maxUsers) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Stopped prefetching existing usernames after " + maxUsers
+                    + " usernames. Users that already exist beyond them will be reported by the user store.");
+        }
+
+        log.info(BULK_UPLOAD_LOG_PREFIX + "Prefetched " + existingUsers.size()
+                + " existing usernames from the user store in " + (System.currentTimeMillis() - startTime) + " ms");
+        return existingUsers;
+    }
+}
@@ -0,0 +1,123 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.user.api.ClaimManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.FAILURE_TYPE_COLUMN;
+
+/**
+ * Reads the failed users of a previous run from its retry spill file and streams the users whose failure was
+ * transient to the provisioning workers, without parsing the original CSV files again.
+ *
+ * Users whose failure was permanent, such as a password policy violation or a user that already exists, are not
+ * retried and are written to the failed users report of this run as they were. Users recorded without a
+ * classification are retried.
+ *
+ * The records are checkpointed in the progress journal by their position in the spill file, so a retry run that
+ * is interrupted resumes after the users it has already processed instead of adding them again.
+ */
+public class FailedUserRetryReader implements Callable<Boolean> {
+
+    private static final Log log = LogFactory.getLog(FailedUserRetryReader.class);
+    private final File file;
+    private final BlockingQueue<UserRecord> userQueue;
+    private final ClaimManager claimManager;
+    private final ImportMetrics metrics;
+    private final UserOutcomeWriter failedUsers;
+    private final ImportProgressJournal progressJournal;
+
+    /**
+     * @param file The retry spill file of the previous run.
+     * @param userQueue The queue shared with the provisioning workers.
+     * @param progressJournal The journal of the retry run, in which the spill file is registered.
+     * @param claimManager The claim manager the claim columns are validated against.
+     * @param metrics The metrics of this run.
+     * @param failedUsers The writer of the failed users report of this run.
+     */
+    public FailedUserRetryReader(File file, BlockingQueue<UserRecord> userQueue,
+                                 ImportProgressJournal progressJournal, ClaimManager claimManager,
+                                 ImportMetrics metrics, UserOutcomeWriter failedUsers) {
+
+        this.file = file;
+        this.userQueue = userQueue;
+        this.progressJournal = progressJournal;
+        this.claimManager = claimManager;
+        this.metrics = metrics;
+        this.failedUsers = failedUsers;
+    }
+
+    /**
+     * Streams the retryable users of the spill file into the queue, skipping the records the journal records as
+     * already processed. The claim mapping of each original CSV file is compiled once, from the header recorded in
+     * the spill file.
+     *
+     * @return true if the file was read, false if an error occurs while reading the file.
+     * @throws InterruptedException If interrupted while waiting for space in the queue.
+     */
+    @Override
+    public Boolean call() throws InterruptedException {
+
+        String path = file.getAbsolutePath();
+        log.info(BULK_UPLOAD_LOG_PREFIX + "Retrying the failed users of " + path);
+
+        Map<String, ClaimMappingPlan> claimMappingPlans = new HashMap<>();
+        CompletedRowRanges completedRecords = progressJournal.register(file);
+        if (!completedRecords.isEmpty()) {
+            log.info(BULK_UPLOAD_LOG_PREFIX + "Resuming the retry after " + completedRecords.getRowCount()
+                    + " already processed users");
+        }
+        long retried = 0;
+        long permanent = 0;
+        long position = 0;
+        long recordNumber = 0;
+        try (OutcomeSpillCursor cursor = new OutcomeSpillCursor(file)) {
+            while (cursor.next()) {
+                recordNumber++;
+                if (completedRecords.contains(recordNumber)) {
+                    metrics.bytesSkipped(cursor.getPosition() - position);
+                    position = cursor.getPosition();
+                    continue;
+                }
+                metrics.bytesRead(cursor.getPosition() - position);
+                position = cursor.getPosition();
+                metrics.rowParsed();
+
+                ClaimMappingPlan claimMappingPlan = claimMappingPlans.get(cursor.getSourcePath());
+                if (claimMappingPlan == null) {
+                    claimMappingPlan = ClaimMappingPlan.compile(cursor.getHeader(), claimManager);
+                    claimMappingPlans.put(cursor.getSourcePath(), claimMappingPlan);
+                }
+                UserRecord record = new UserRecord(claimMappingPlan, cursor.getValues(), cursor.getSourcePath(),
+                        cursor.getRowNumber());
+                record.setCheckpoint(path, recordNumber);
+
+                int failureTypeIndex = Arrays.asList(cursor.getExtraColumns()).indexOf(FAILURE_TYPE_COLUMN);
+                if (failureTypeIndex >= 0 && failureTypeIndex < cursor.getExtraValues().length
+                        && FailureClassifier.PERMANENT.equals(cursor.getExtraValues()[failureTypeIndex])) {
+                    failedUsers.write(record, cursor.getExtraValues());
+                    progressJournal.markCompleted(path, recordNumber);
+                    permanent++;
+                } else {
+                    userQueue.put(record);
+                    retried++;
+                }
+            }
+            log.info(BULK_UPLOAD_LOG_PREFIX + "Finished reading " + path + ". " + retried + " users are retried and "
+                    + permanent + " users with a permanent failure are not retried.");
+            return true;
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while reading failed users from " + path, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Locale;
+import java.util.concurrent.TimeoutException;
+import javax.naming.CommunicationException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.TimeLimitExceededException;
+
+/**
+ * Classifies user store failures into transient ones, which are worth retrying once the store has recovered
+ * (connection resets, timeouts, an overloaded LDAP server), and permanent ones such as policy violations or
+ * users that already exist. A failure caused by an interrupt, e.g. of a cancelled import job, is transient, as
+ * the user was never rejected by the user store.
+ */
+public final class FailureClassifier {
+
+    public static final String TRANSIENT = "TRANSIENT";
+    public static final String PERMANENT = "PERMANENT";
+
+    private FailureClassifier() {
+
+    }
+
+    /**
+     * Describes a failure for the failed users report, with the columns {@code FAILURE_TYPE_COLUMN},
+     * {@code ERROR_CLASS_COLUMN} and {@code ERROR_MESSAGE_COLUMN}.
+     *
+     * @param failure The failure to describe.
+     * @return {@link #TRANSIENT} or {@link #PERMANENT}, the class name of the root cause and the failure message.
+     */
+    public static String[] describe(Throwable failure) {
+
+        Throwable rootCause = getRootCause(failure);
+        String message = failure.getMessage() != null ? failure.getMessage() : rootCause.getMessage();
+        return new String[]{isTransient(failure) ? TRANSIENT : PERMANENT, rootCause.getClass().getName(),
+                message != null ? message : ""};
+    }
+
+    /**
+     * @param failure The failure.
+     * @return The innermost cause of the failure, or the failure itself if it has no cause.
+     */
+    public static Throwable getRootCause(Throwable failure) {
+
+        Throwable rootCause = failure;
+        while (rootCause.getCause() != null && rootCause.getCause() != rootCause) {
+            rootCause = rootCause.getCause();
+        }
+        return rootCause;
+    }
+
+    /**
+     * Checks whether the failure, or any of its causes, indicates a transient condition of the user store.
+     *
+     * @param failure The failure to classify.
+     * @return true if retrying the operation later may succeed.
+     */
+    public static boolean isTransient(Throwable failure) {
+
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException || cause instanceof SocketException
+                    || cause instanceof InterruptedException || cause instanceof InterruptedIOException
+                    || cause instanceof ClosedByInterruptException
+                    || cause instanceof TimeoutException || cause instanceof SQLTransientException
+                    || cause instanceof SQLRecoverableException || cause instanceof CommunicationException
+                    || cause instanceof ServiceUnavailableException || cause instanceof TimeLimitExceededException) {
+                return true;
+            }
+            String message = cause.getMessage();
+            if (message != null) {
+                String lowerCaseMessage = message.toLowerCase(Locale.ENGLISH);
+                if (lowerCaseMessage.contains("timed out") || lowerCaseMessage.contains("timeout")
+                        || lowerCaseMessage.contains("connection reset")) {
+                    return true;
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,257 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Persistent map from each imported username to the fingerprint of the claims it was last provisioned with.
+ *
+ * Usernames and fingerprints are kept as 64-bit hashes in an open-addressing table of primitive longs, so each
+ * user costs about 32 bytes in memory and 16 bytes on disk. The file is a sequence of (username hash, fingerprint)
+ * pairs in which later pairs override earlier ones: fingerprints recorded during an import are appended and
+ * fsync'd whenever the progress journal checkpoints, and the file is compacted to one pair per user through a
+ * temporary file and an atomic rename when the store is closed. A pair cut short by a crash is discarded on load.
+ */
+public class FingerprintStore implements Flushable, Closeable {
+
+    private static final Log log = LogFactory.getLog(FingerprintStore.class);
+    private static final long EMPTY = 0L;
+    private static final double MAX_LOAD_FACTOR = 0.6;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+    private static final int PAIR_SIZE = 16;
+
+    private final File file;
+    private final File tempFile;
+    private final boolean caseInsensitive;
+    private long[] keys;
+    private long[] fingerprints;
+    private int size;
+    private long[] pending = new long[256];
+    private int pendingCount;
+    private FileOutputStream appendStream;
+    private DataOutputStream appendOutput;
+
+    /**
+     * @param file The file the fingerprints are kept in.
+     * @param expectedSize The number of users the table is initially sized for.
+     * @param caseInsensitive true if usernames that differ only in case are the same user.
+     */
+    public FingerprintStore(File file, int expectedSize, boolean caseInsensitive) {
+
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.caseInsensitive = caseInsensitive;
+        int capacity = tableSizeFor(expectedSize);
+        this.keys = new long[capacity];
+        this.fingerprints = new long[capacity];
+    }
+
+    /**
+     * Loads the fingerprints recorded by previous imports, if the file exists.
+     *
+     * @throws IOException If the file exists but cannot be read.
+     */
+    public synchronized void load() throws IOException {
+
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                IO_BUFFER_SIZE))) {
+            while (true) {
+                long key;
+                long fingerprint;
+                try {
+                    key = input.readLong();
+                    fingerprint = input.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                putHash(key, fingerprint);
+            }
+        }
+
+        long alignedLength = file.length() / PAIR_SIZE * PAIR_SIZE;
+        if (alignedLength != file.length()) {
+            // Drop the pair cut short by a crash, so that the pairs appended by this import stay aligned.
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Discarding an incomplete entry at the end of " + file);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(alignedLength);
+            }
+        }
+        log.info(BULK_UPLOAD_LOG_PREFIX + "Loaded the fingerprints of " + size + " users from " + file);
+    }
+
+    /**
+     * @param username The username.
+     * @return The fingerprint the user was last provisioned with, or 0 if the user was never provisioned.
+     */
+    public synchronized long get(String username) {
+
+        long key = hash(username);
+        int mask = keys.length - 1;
+        for (int slot = (int) key & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return fingerprints[slot];
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Records the fingerprints of successfully provisioned users. They are written to the file on the next flush.
+     *
+     * @param records The provisioned users.
+     */
+    public synchronized void record(List<UserRecord> records) {
+
+        for (UserRecord record : records) {
+            if (record.getFingerprint() == EMPTY) {
+                continue;
+            }
+            long key = hash(record.getUsername());
+            putHash(key, record.getFingerprint());
+            if (pendingCount + 2 > pending.length) {
+                long[] grown = new long[pending.length * 2];
+                System.arraycopy(pending, 0, grown, 0, pendingCount);
+                pending = grown;
+            }
+            pending[pendingCount++] = key;
+            pending[pendingCount++] = record.getFingerprint();
+        }
+    }
+
+    public synchronized int size() {
+
+        return size;
+    }
+
+    /**
+     * Appends the fingerprints recorded since the last flush to the file and forces them to the disk.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+
+        if (pendingCount == 0) {
+            return;
+        }
+        if (appendOutput == null) {
+            appendStream = new FileOutputStream(file, true);
+            appendOutput = new DataOutputStream(new BufferedOutputStream(appendStream, IO_BUFFER_SIZE));
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            appendOutput.writeLong(pending[i]);
+        }
+        appendOutput.flush();
+        appendStream.getFD().sync();
+        pendingCount = 0;
+    }
+
+    /**
+     * Flushes the recorded fingerprints and compacts the file to a single pair per user.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+
+        try {
+            flush();
+        } finally {
+            if (appendOutput != null) {
+                appendOutput.close();
+                appendOutput = null;
+                appendStream = null;
+            }
+        }
+
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream, IO_BUFFER_SIZE));
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != EMPTY) {
+                    output.writeLong(keys[slot]);
+                    output.writeLong(fingerprints[slot]);
+                }
+            }
+            output.flush();
+            outputStream.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        log.info(BULK_UPLOAD_LOG_PREFIX + "Saved the fingerprints of " + size + " users to " + file);
+    }
+
+    private void putHash(long key, long fingerprint) {
+
+        if (size + 1 > keys.length * MAX_LOAD_FACTOR) {
+            resize();
+        }
+        if (insert(keys, fingerprints, key, fingerprint)) {
+            size++;
+        }
+    }
+
+    private void resize() {
+
+        long[] newKeys = new long[keys.length * 2];
+        long[] newFingerprints = new long[newKeys.length];
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                insert(newKeys, newFingerprints, keys[slot], fingerprints[slot]);
+            }
+        }
+        keys = newKeys;
+        fingerprints = newFingerprints;
+    }
+
+    /**
+     * @return true if the key was not in the table yet.
+     */
+    private static boolean insert(long[] targetKeys, long[] targetFingerprints, long key, long fingerprint) {
+
+        int mask = targetKeys.length - 1;
+        int slot = (int) key & mask;
+        while (targetKeys[slot] != EMPTY) {
+            if (targetKeys[slot] == key) {
+                targetFingerprints[slot] = fingerprint;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        targetKeys[slot] = key;
+        targetFingerprints[slot] = fingerprint;
+        return true;
+    }
+
+    private long hash(String username) {
+
+        return HashFunctions.hash(UsernameIndex.foldCase(username, caseInsensitive));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+
+        long required = (long) Math.ceil(Math.max(expectedSize, 16) / MAX_LOAD_FACTOR);
+        return (int) Math.min(1L << 30, Long.highestOneBit(required - 1) << 1);
+    }
+}
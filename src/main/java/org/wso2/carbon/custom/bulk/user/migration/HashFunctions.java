@@ -0,0 +1,60 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+/**
+ * 64-bit hashing of strings for the compact username and fingerprint tables.
+ *
+ * Strings are hashed with FNV-1a over their UTF-16 code units, followed by the MurmurHash3 finalizer to spread
+ * the bits over the whole word. Zero is never returned, so tables can use it to mark an empty slot.
+ */
+final class HashFunctions {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private HashFunctions() {
+    }
+
+    /**
+     * @param value The string to hash.
+     * @return The non-zero 64-bit hash of the string.
+     */
+    static long hash(String value) {
+
+        return finish(update(FNV_OFFSET_BASIS, value));
+    }
+
+    /**
+     * Hashes two strings as a pair, so that ("ab", "c") and ("a", "bc") hash differently.
+     *
+     * @param first The first string.
+     * @param second The second string.
+     * @return The non-zero 64-bit hash of the pair.
+     */
+    static long hash(String first, String second) {
+
+        long hash = update(FNV_OFFSET_BASIS, first);
+        // A separator outside the range of a char, so it cannot occur within either string.
+        hash ^= 0x10000L;
+        hash *= FNV_PRIME;
+        return finish(update(hash, second));
+    }
+
+    private static long update(long hash, String value) {
+
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long finish(long hash) {
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1L : hash;
+    }
+}
@@ -0,0 +1,270 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.CONFIG_FILE_PATH;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.MAX_RETAINED_IMPORT_JOBS;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.OUTPUT_DIRECTORY;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.TENANT_DOMAIN;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.USER_DOMAIN;
+
+/**
+ * {@link ImportJobService} that runs the import jobs on a shared, bounded scheduler.
+ *
+ * At most {@code maxConcurrentJobs} jobs run at the same time, and further jobs wait in submission order. Each
+ * running job gets the same share of the server's threads: its provisioning workers, its CSV readers and the users
+ * it provisions on virtual threads at the same time are each capped at {@code maxWorkersPerJob}, so a large job
+ * cannot starve the other jobs of threads or of user store calls, and the threads of all jobs together stay
+ * bounded. Within its share, each job still adapts its user store concurrency to the store's latency.
+ */
+public class ImportJobManager implements ImportJobService {
+
+    private static final Log log = LogFactory.getLog(ImportJobManager.class);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final ExecutorService scheduler;
+    private final int maxWorkersPerJob;
+    private final Map<String, ImportJob> jobs = new LinkedHashMap<>();
+
+    /**
+     * @param maxConcurrentJobs The maximum number of jobs that run at the same time.
+     * @param maxWorkersPerJob The maximum number of provisioning workers, and of CSV readers, of each job.
+     */
+    public ImportJobManager(int maxConcurrentJobs, int maxWorkersPerJob) {
+
+        this(Executors.newFixedThreadPool(maxConcurrentJobs), maxWorkersPerJob);
+    }
+
+    /**
+     * @param scheduler The executor the jobs run on.
+     * @param maxWorkersPerJob The maximum number of provisioning workers, and of CSV readers, of each job.
+     */
+    ImportJobManager(ExecutorService scheduler, int maxWorkersPerJob) {
+
+        this.scheduler = scheduler;
+        this.maxWorkersPerJob = maxWorkersPerJob;
+    }
+
+    @Override
+    public String submit() {
+
+        Properties configuration = new Properties();
+        try (InputStream inputStream = new FileInputStream(CONFIG_FILE_PATH)) {
+            configuration.load(inputStream);
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error while loading properties file " + CONFIG_FILE_PATH
+                    + ". Import job rejected.", e);
+            return null;
+        }
+        return submit(configuration);
+    }
+
+    @Override
+    public synchronized String submit(Properties configuration) {
+
+        Properties jobConfiguration = new Properties();
+        jobConfiguration.putAll(configuration);
+        ImportJob job = new ImportJob(UUID.randomUUID().toString(), jobConfiguration,
+                new BulkUserUploadThread(jobConfiguration, maxWorkersPerJob));
+        for (ImportJob other : jobs.values()) {
+            if (other.isActive() && other.conflictsWith(job)) {
+                log.error(BULK_UPLOAD_LOG_PREFIX + "Import job for tenant: " + job.tenantDomain + ", userstore: "
+                        + job.userDomain + " rejected, as job " + other.jobId
+                        + " is already importing into the same user store or output directory.");
+                return null;
+            }
+        }
+
+        try {
+            job.future = scheduler.submit(job);
+        } catch (RejectedExecutionException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Import job for tenant: " + job.tenantDomain + ", userstore: "
+                    + job.userDomain + " rejected, as the import job service is shutting down.");
+            return null;
+        }
+        jobs.put(job.jobId, job);
+        pruneFinishedJobs();
+        log.info(BULK_UPLOAD_LOG_PREFIX + "Submitted import job " + job.jobId + " for tenant: " + job.tenantDomain
+                + ", userstore: " + job.userDomain);
+        return job.jobId;
+    }
+
+    @Override
+    public synchronized ImportJobStatus getStatus(String jobId) {
+
+        ImportJob job = jobs.get(jobId);
+        return job != null ? job.getStatus() : null;
+    }
+
+    @Override
+    public synchronized List<ImportJobStatus> getJobs() {
+
+        List<ImportJobStatus> statuses = new ArrayList<>(jobs.size());
+        for (ImportJob job : jobs.values()) {
+            statuses.add(job.getStatus());
+        }
+        return statuses;
+    }
+
+    @Override
+    public synchronized boolean cancel(String jobId) {
+
+        ImportJob job = jobs.get(jobId);
+        if (job == null || !job.cancel()) {
+            return false;
+        }
+        log.info(BULK_UPLOAD_LOG_PREFIX + "Cancelled import job " + jobId);
+        return true;
+    }
+
+    /**
+     * Cancels all jobs and stops the scheduler. Running jobs are interrupted, flush their progress journals and
+     * can be resumed after the next start.
+     */
+    public void shutdown() {
+
+        synchronized (this) {
+            for (ImportJob job : jobs.values()) {
+                job.cancel();
+            }
+        }
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Import jobs did not stop within " + SHUTDOWN_TIMEOUT_SECONDS
+                        + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void pruneFinishedJobs() {
+
+        int finished = 0;
+        for (ImportJob job : jobs.values()) {
+            if (!job.isActive()) {
+                finished++;
+            }
+        }
+        Iterator<ImportJob> iterator = jobs.values().iterator();
+        while (finished > MAX_RETAINED_IMPORT_JOBS && iterator.hasNext()) {
+            if (!iterator.next().isActive()) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+
+    /**
+     * A submitted import and its life cycle.
+     */
+    private static final class ImportJob implements Runnable {
+
+        private final String jobId;
+        private final String tenantDomain;
+        private final String userDomain;
+        private final File outputDirectory;
+        private final BulkUserUploadThread upload;
+        private final long submittedTime = System.currentTimeMillis();
+        private Future<?> future;
+        private ImportJobStatus.State state = ImportJobStatus.State.QUEUED;
+        private boolean cancelRequested;
+        private long startTime;
+        private long endTime;
+
+        private ImportJob(String jobId, Properties configuration, BulkUserUploadThread upload) {
+
+            this.jobId = jobId;
+            this.tenantDomain = configuration.getProperty(TENANT_DOMAIN);
+            this.userDomain = configuration.getProperty(USER_DOMAIN);
+            String output = configuration.getProperty(OUTPUT_DIRECTORY);
+            this.outputDirectory = output != null ? new File(output).getAbsoluteFile() : null;
+            this.upload = upload;
+        }
+
+        @Override
+        public void run() {
+
+            synchronized (this) {
+                if (state != ImportJobStatus.State.QUEUED) {
+                    return;
+                }
+                state = ImportJobStatus.State.RUNNING;
+                startTime = System.currentTimeMillis();
+            }
+            log.info(BULK_UPLOAD_LOG_PREFIX + "Started import job " + jobId);
+
+            boolean succeeded = false;
+            ImportJobStatus.State finalState;
+            try {
+                succeeded = Boolean.TRUE.equals(upload.call());
+            } catch (RuntimeException e) {
+                log.error(BULK_UPLOAD_LOG_PREFIX + "Unexpected error in import job " + jobId, e);
+            } finally {
+                synchronized (this) {
+                    state = cancelRequested ? ImportJobStatus.State.CANCELLED
+                            : succeeded ? ImportJobStatus.State.SUCCEEDED : ImportJobStatus.State.FAILED;
+                    endTime = System.currentTimeMillis();
+                    finalState = state;
+                }
+            }
+            log.info(BULK_UPLOAD_LOG_PREFIX + "Import job " + jobId + " finished with state " + finalState);
+        }
+
+        private synchronized boolean cancel() {
+
+            if (state == ImportJobStatus.State.QUEUED) {
+                state = ImportJobStatus.State.CANCELLED;
+                endTime = System.currentTimeMillis();
+                future.cancel(false);
+                return true;
+            }
+            if (state == ImportJobStatus.State.RUNNING && !cancelRequested) {
+                cancelRequested = true;
+                future.cancel(true);
+                return true;
+            }
+            return false;
+        }
+
+        private synchronized boolean isActive() {
+
+            return state == ImportJobStatus.State.QUEUED || state == ImportJobStatus.State.RUNNING;
+        }
+
+        private boolean conflictsWith(ImportJob other) {
+
+            boolean sameStore = StringUtils.equals(tenantDomain, other.tenantDomain)
+                    && StringUtils.equalsIgnoreCase(StringUtils.defaultIfEmpty(userDomain, "PRIMARY"),
+                    StringUtils.defaultIfEmpty(other.userDomain, "PRIMARY"));
+            return sameStore || (outputDirectory != null && outputDirectory.equals(other.outputDirectory));
+        }
+
+        private synchronized ImportJobStatus getStatus() {
+
+            return new ImportJobStatus(jobId, tenantDomain, userDomain, state, submittedTime, startTime, endTime,
+                    upload.getMetrics());
+        }
+    }
+}
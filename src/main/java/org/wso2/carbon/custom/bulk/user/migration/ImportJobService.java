@@ -0,0 +1,50 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * OSGi service that runs bulk user imports as jobs on demand, without a server restart.
+ *
+ * Each job imports the CSV files of one configuration, i.e. the contents of a bulk.user.properties file, into one
+ * tenant and user store. Jobs for different tenants or user stores run concurrently on a shared, bounded
+ * scheduler. Jobs are rejected while another queued or running job targets the same user store or output directory.
+ */
+public interface ImportJobService {
+
+    /**
+     * Submits an import configured by the bulk.user.properties file in the server's configuration directory.
+     *
+     * @return The id of the job, or null if the configuration cannot be read or the job is rejected.
+     */
+    String submit();
+
+    /**
+     * Submits an import.
+     *
+     * @param configuration The import configuration, with the same properties as the bulk.user.properties file.
+     * @return The id of the job, or null if the job is rejected.
+     */
+    String submit(Properties configuration);
+
+    /**
+     * @param jobId The id of the job.
+     * @return The status of the job, or null if there is no such job.
+     */
+    ImportJobStatus getStatus(String jobId);
+
+    /**
+     * @return The status of the queued and running jobs, and of the most recently finished jobs, in submission
+     * order.
+     */
+    List<ImportJobStatus> getJobs();
+
+    /**
+     * Cancels a job. A queued job is removed from the queue. A running job stops reading and provisioning users,
+     * and can be resumed by submitting the same configuration again.
+     *
+     * @param jobId The id of the job.
+     * @return true if the job was queued or running, false if it has already finished or does not exist.
+     */
+    boolean cancel(String jobId);
+}
@@ -0,0 +1,137 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+/**
+ * Immutable snapshot of the state and progress of an import job.
+ */
+public class ImportJobStatus {
+
+    /**
+     * The life cycle of an import job.
+     */
+    public enum State {
+        /** Waiting for a slot on the scheduler. */
+        QUEUED,
+        /** Reading and provisioning users. */
+        RUNNING,
+        /** All files were read and every user was processed. Individual users may still have failed. */
+        SUCCEEDED,
+        /** The import could not start or could not read all files. */
+        FAILED,
+        /** Cancelled before it finished. */
+        CANCELLED
+    }
+
+    private final String jobId;
+    private final String tenantDomain;
+    private final String userDomain;
+    private final State state;
+    private final long submittedTime;
+    private final long startTime;
+    private final long endTime;
+    private final long rowsParsed;
+    private final long usersProvisioned;
+    private final long usersUpdated;
+    private final long usersFailed;
+    private final long usersSkipped;
+    private final double percentComplete;
+
+    public ImportJobStatus(String jobId, String tenantDomain, String userDomain, State state, long submittedTime,
+                           long startTime, long endTime, ImportMetrics metrics) {
+
+        this.jobId = jobId;
+        this.tenantDomain = tenantDomain;
+        this.userDomain = userDomain;
+        this.state = state;
+        this.submittedTime = submittedTime;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.rowsParsed = metrics != null ? metrics.getRowsParsed() : 0;
+        this.usersProvisioned = metrics != null ? metrics.getUsersProvisioned() : 0;
+        this.usersUpdated = metrics != null ? metrics.getUsersUpdated() : 0;
+        this.usersFailed = metrics != null ? metrics.getUsersFailed() : 0;
+        this.usersSkipped = metrics != null ? metrics.getUsersSkipped() : 0;
+        this.percentComplete = metrics != null ? metrics.getPercentComplete() : 0;
+    }
+
+    public String getJobId() {
+
+        return jobId;
+    }
+
+    public String getTenantDomain() {
+
+        return tenantDomain;
+    }
+
+    /**
+     * @return The user store domain, or null for the primary user store.
+     */
+    public String getUserDomain() {
+
+        return userDomain;
+    }
+
+    public State getState() {
+
+        return state;
+    }
+
+    public long getSubmittedTime() {
+
+        return submittedTime;
+    }
+
+    /**
+     * @return The time the job started running, or 0 if it has not started.
+     */
+    public long getStartTime() {
+
+        return startTime;
+    }
+
+    /**
+     * @return The time the job finished, or 0 if it has not finished.
+     */
+    public long getEndTime() {
+
+        return endTime;
+    }
+
+    public long getRowsParsed() {
+
+        return rowsParsed;
+    }
+
+    public long getUsersProvisioned() {
+
+        return usersProvisioned;
+    }
+
+    public long getUsersUpdated() {
+
+        return usersUpdated;
+    }
+
+    public long getUsersFailed() {
+
+        return usersFailed;
+    }
+
+    public long getUsersSkipped() {
+
+        return usersSkipped;
+    }
+
+    public double getPercentComplete() {
+
+        return percentComplete;
+    }
+
+    @Override
+    public String toString() {
+
+        return "ImportJobStatus{jobId=" + jobId + ", tenantDomain=" + tenantDomain + ", userDomain=" + userDomain
+                + ", state=" + state + ", provisioned=" + usersProvisioned + ", updated=" + usersUpdated
+                + ", failed=" + usersFailed + ", skipped=" + usersSkipped + "}";
+    }
+}
@@ -0,0 +1,343 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Live metrics of a bulk user import.
+ *
+ * Counters are updated by the CSV readers and the provisioning workers without locking. While the import runs,
+ * a daemon thread logs a progress line every reporting interval, and the same values are exposed over JMX
+ * through {@link ImportMetricsMBean}. Rates are measured over the last reporting interval. The remaining time
+ * is estimated from the share of the input bytes read so far and the current provisioning rate.
+ */
+public class ImportMetrics implements ImportMetricsMBean {
+
+    private static final Log log = LogFactory.getLog(ImportMetrics.class);
+    private static final String OBJECT_NAME_PREFIX =
+            "org.wso2.carbon.custom.bulk.user.migration:type=ImportMetrics,name=";
+
+    private final String name;
+    private final long startTime = System.currentTimeMillis();
+    private final LongAdder rowsParsed = new LongAdder();
+    private final LongAdder usersProvisioned = new LongAdder();
+    private final LongAdder usersUpdated = new LongAdder();
+    private final LongAdder usersFailed = new LongAdder();
+    private final LongAdder usersSkipped = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesSkipped = new LongAdder();
+    private final Map<String, LongAdder> failuresByType = new ConcurrentHashMap<>();
+    private final LatencyHistogram userStoreCallLatency = new LatencyHistogram();
+
+    private volatile long totalBytes;
+    private volatile BlockingQueue<?> queue;
+    private volatile AdaptiveConcurrencyLimiter limiter;
+    private volatile double rowsParsedPerSecond;
+    private volatile double usersProvisionedPerSecond;
+
+    private ScheduledExecutorService reporter;
+    private ObjectName objectName;
+    private long lastReportTime = startTime;
+    private long lastRowsParsed;
+    private long lastUsersProcessed;
+
+    /**
+     * @param name The name that identifies this import in the logs and in the JMX object name.
+     */
+    public ImportMetrics(String name) {
+
+        this.name = name;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+
+        this.totalBytes = totalBytes;
+    }
+
+    public void setQueue(BlockingQueue<?> queue) {
+
+        this.queue = queue;
+    }
+
+    public void setLimiter(AdaptiveConcurrencyLimiter limiter) {
+
+        this.limiter = limiter;
+    }
+
+    public void rowParsed() {
+
+        rowsParsed.increment();
+    }
+
+    public void bytesRead(long count) {
+
+        bytesRead.add(count);
+    }
+
+    /**
+     * Records input bytes that belong to rows skipped because they were processed by a previous run.
+     *
+     * @param count The number of bytes skipped.
+     */
+    public void bytesSkipped(long count) {
+
+        bytesSkipped.add(count);
+    }
+
+    /**
+     * Records the time taken by the user store calls that provision one user: adding it, updating its claims, or
+     * both when an existing user is updated after a failed add.
+     *
+     * @param latencyNanos The time taken, in nanoseconds.
+     */
+    public void recordUserStoreCallLatency(long latencyNanos) {
+
+        userStoreCallLatency.record(latencyNanos);
+    }
+
+    public void userProvisioned() {
+
+        usersProvisioned.increment();
+    }
+
+    public void userUpdated() {
+
+        usersUpdated.increment();
+    }
+
+    public void userSkipped() {
+
+        usersSkipped.increment();
+    }
+
+    /**
+     * Records a failed user, counted by the type of the root cause of the failure
+     * (e.g. a SocketTimeoutException wrapped in a UserStoreException).
+     *
+     * @param cause The failure.
+     */
+    public void userFailed(Throwable cause) {
+
+        usersFailed.increment();
+        String type = cause == null ? "Unknown" : FailureClassifier.getRootCause(cause).getClass().getSimpleName();
+        failuresByType.computeIfAbsent(type, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Registers the MBean and starts logging a progress line every given number of seconds.
+     *
+     * @param reportIntervalSeconds The interval between two progress lines.
+     */
+    public synchronized void start(int reportIntervalSeconds) {
+
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Unable to register the import metrics MBean for " + name, e);
+            objectName = null;
+        }
+
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulk-user-import-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(this::logProgress, reportIntervalSeconds, reportIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the progress log, logs the final summary and unregisters the MBean.
+     */
+    public synchronized void stop() {
+
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        logProgress();
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Unable to unregister the import metrics MBean for " + name, e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Updates the interval rates and logs a progress line.
+     */
+    public synchronized void logProgress() {
+
+        long now = System.currentTimeMillis();
+        long parsed = rowsParsed.sum();
+        long processed = getUsersProcessed();
+        double seconds = Math.max(now - lastReportTime, 1) / 1000.0;
+        rowsParsedPerSecond = (parsed - lastRowsParsed) / seconds;
+        usersProvisionedPerSecond = (processed - lastUsersProcessed) / seconds;
+        lastReportTime = now;
+        lastRowsParsed = parsed;
+        lastUsersProcessed = processed;
+
+        long eta = getEstimatedSecondsRemaining();
+        log.info(BULK_UPLOAD_LOG_PREFIX + "[PROGRESS] " + name
+                + " | parsed: " + parsed + " (" + Math.round(rowsParsedPerSecond) + "/s)"
+                + " | provisioned: " + usersProvisioned.sum() + ", updated: " + usersUpdated.sum()
+                + ", failed: " + usersFailed.sum()
+                + ", skipped: " + usersSkipped.sum() + " (" + Math.round(usersProvisionedPerSecond) + "/s)"
+                + " | user store call p50/p99/max ms: " + format(getUserStoreCallLatencyP50Millis()) + "/"
+                + format(getUserStoreCallLatencyP99Millis()) + "/" + format(getUserStoreCallLatencyMaxMillis())
+                + " | queue: " + getQueueDepth()
+                + " | concurrency limit: " + getConcurrencyLimit()
+                + " | complete: " + format(getPercentComplete()) + "%"
+                + (eta >= 0 ? ", ETA: " + eta + " s" : "")
+                + " | failures: " + getFailuresByType()
+                + " | elapsed: " + (now - startTime) / 1000 + " s");
+    }
+
+    @Override
+    public long getRowsParsed() {
+
+        return rowsParsed.sum();
+    }
+
+    @Override
+    public long getUsersProvisioned() {
+
+        return usersProvisioned.sum();
+    }
+
+    @Override
+    public long getUsersUpdated() {
+
+        return usersUpdated.sum();
+    }
+
+    @Override
+    public long getUsersFailed() {
+
+        return usersFailed.sum();
+    }
+
+    @Override
+    public long getUsersSkipped() {
+
+        return usersSkipped.sum();
+    }
+
+    @Override
+    public double getRowsParsedPerSecond() {
+
+        return rowsParsedPerSecond;
+    }
+
+    @Override
+    public double getUsersProvisionedPerSecond() {
+
+        return usersProvisionedPerSecond;
+    }
+
+    @Override
+    public double getUserStoreCallLatencyP50Millis() {
+
+        return userStoreCallLatency.getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getUserStoreCallLatencyP99Millis() {
+
+        return userStoreCallLatency.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getUserStoreCallLatencyMaxMillis() {
+
+        return userStoreCallLatency.getMaxMillis();
+    }
+
+    @Override
+    public int getQueueDepth() {
+
+        BlockingQueue<?> currentQueue = queue;
+        return currentQueue == null ? 0 : currentQueue.size();
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+
+        AdaptiveConcurrencyLimiter currentLimiter = limiter;
+        return currentLimiter == null ? -1 : currentLimiter.getLimit();
+    }
+
+    @Override
+    public String getFailuresByType() {
+
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : failuresByType.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot.toString();
+    }
+
+    @Override
+    public double getPercentComplete() {
+
+        long toProcess = totalBytes - bytesSkipped.sum();
+        if (toProcess <= 0) {
+            return 0;
+        }
+        return Math.min(100.0, 100.0 * (bytesRead.sum() - bytesSkipped.sum()) / toProcess);
+    }
+
+    /**
+     * Estimates the remaining time from the share of input read so far, extrapolating the total number of rows,
+     * and the provisioning rate of the last interval.
+     *
+     * @return The estimated number of seconds remaining, or -1 if no estimate is available yet.
+     */
+    @Override
+    public long getEstimatedSecondsRemaining() {
+
+        double fraction = getPercentComplete() / 100.0;
+        double rate = usersProvisionedPerSecond;
+        if (fraction <= 0 || rate <= 0) {
+            return -1;
+        }
+        double estimatedTotalRows = rowsParsed.sum() / fraction;
+        double remainingRows = Math.max(0, estimatedTotalRows - getUsersProcessed());
+        return Math.round(remainingRows / rate);
+    }
+
+    private long getUsersProcessed() {
+
+        return usersProvisioned.sum() + usersUpdated.sum() + usersFailed.sum() + usersSkipped.sum();
+    }
+
+    private static String format(double value) {
+
+        return String.format(Locale.ENGLISH, "%.1f", value);
+    }
+}
@@ -0,0 +1,38 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+/**
+ * JMX view of a running bulk user import. Registered under
+ * {@code org.wso2.carbon.custom.bulk.user.migration:type=ImportMetrics}.
+ */
+public interface ImportMetricsMBean {
+
+    long getRowsParsed();
+
+    long getUsersProvisioned();
+
+    long getUsersUpdated();
+
+    long getUsersFailed();
+
+    long getUsersSkipped();
+
+    double getRowsParsedPerSecond();
+
+    double getUsersProvisionedPerSecond();
+
+    double getUserStoreCallLatencyP50Millis();
+
+    double getUserStoreCallLatencyP99Millis();
+
+    double getUserStoreCallLatencyMaxMillis();
+
+    int getQueueDepth();
+
+    int getConcurrencyLimit();
+
+    String getFailuresByType();
+
+    long getEstimatedSecondsRemaining();
+
+    double getPercentComplete();
+}
@@ -0,0 +1,335 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Persistent record of how far the import has progressed through each CSV file.
+ *
+ * For every file the journal keeps the rows that have been processed (successfully or not) as
+ * {@link CompletedRowRanges}: a completed-row watermark, i.e. the highest row number such that the row and all rows
+ * before it have been processed, followed by the ranges of rows completed out of order by parallel chunks and
+ * concurrent workers. The journal is written to the output directory every {@code flushInterval} completed rows,
+ * through a temporary file that is fsync'd and then atomically renamed, so a restart always sees a consistent
+ * state, skips straight past the watermark and skips every row of the ranges above it. The readers also record the
+ * byte offsets at which some rows start through {@link #recordRowOffset(String, long, long)}, and the journal keeps
+ * the last of them at or below the watermark, so a resumed reader seeks close to the watermark instead of parsing
+ * every row before it again. Outputs registered
+ * through {@link #addDependentOutput(Flushable)} are flushed before each write, so no row is checkpointed
+ * before its outcome has reached the disk. The journal is deleted through {@link #delete()} once the import has
+ * completed, so that the next import of the same files starts from the beginning.
+ */
+public class ImportProgressJournal {
+
+    private static final Log log = LogFactory.getLog(ImportProgressJournal.class);
+    private static final String SEPARATOR = ",";
+    private static final String RANGE_SEPARATOR = "-";
+    private static final String OFFSET_SEPARATOR = "@";
+
+    private final File journalFile;
+    private final File tempFile;
+    private final int flushInterval;
+    private final Map<String, FileProgress> progressByFile = new HashMap<>();
+    private final List<Flushable> dependentOutputs = new ArrayList<>();
+    private int completedSinceFlush;
+    private boolean checkpointFound;
+
+    public ImportProgressJournal(File journalFile, int flushInterval) {
+
+        this.journalFile = journalFile;
+        this.tempFile = new File(journalFile.getPath() + ".tmp");
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Loads the completed rows of a previous run, if the journal file exists.
+     *
+     * @throws IOException If the journal file exists but cannot be read.
+     */
+    public synchronized void load() throws IOException {
+
+        if (!journalFile.exists()) {
+            return;
+        }
+        checkpointFound = true;
+        Properties entries = new Properties();
+        try (InputStream inputStream = new FileInputStream(journalFile)) {
+            entries.load(inputStream);
+        }
+        for (String path : entries.stringPropertyNames()) {
+            String[] parts = entries.getProperty(path).split(SEPARATOR);
+            if (parts.length < 3) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Ignoring malformed progress journal entry for " + path);
+                continue;
+            }
+            try {
+                FileProgress progress = new FileProgress(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+                progress.completed.add(1, Long.parseLong(parts[2]));
+                for (int i = 3; i < parts.length; i++) {
+                    if (parts[i].contains(OFFSET_SEPARATOR)) {
+                        String[] rowOffset = parts[i].split(OFFSET_SEPARATOR);
+                        if (rowOffset.length != 2) {
+                            throw new NumberFormatException("Malformed row offset " + parts[i]);
+                        }
+                        progress.rowOffsets.put(Long.parseLong(rowOffset[0]), Long.parseLong(rowOffset[1]));
+                        continue;
+                    }
+                    String[] range = parts[i].split(RANGE_SEPARATOR);
+                    if (range.length != 2) {
+                        throw new NumberFormatException("Malformed range " + parts[i]);
+                    }
+                    progress.completed.add(Long.parseLong(range[0]), Long.parseLong(range[1]));
+                }
+                progressByFile.put(path, progress);
+            } catch (NumberFormatException e) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Ignoring malformed progress journal entry for " + path);
+            }
+        }
+    }
+
+    /**
+     * Registers an output that must be flushed before the completed rows are written.
+     *
+     * @param output The output recording the outcome of each checkpointed row.
+     */
+    public synchronized void addDependentOutput(Flushable output) {
+
+        dependentOutputs.add(output);
+    }
+
+    /**
+     * @return true if a journal written by a previous run was loaded, i.e. this run resumes an earlier import.
+     */
+    public synchronized boolean hasCheckpoint() {
+
+        return checkpointFound;
+    }
+
+    /**
+     * Registers a CSV file with the journal and returns the data rows already completed for it.
+     * If the file was modified since the journal entry was written, its progress is reset.
+     *
+     * @param file The CSV file about to be read.
+     * @return A copy of the completed rows, which can be skipped.
+     */
+    public synchronized CompletedRowRanges register(File file) {
+
+        String path = file.getAbsolutePath();
+        FileProgress progress = progressByFile.get(path);
+        if (progress != null && (progress.size != file.length() || progress.lastModified != file.lastModified())) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "File " + path + " has changed since the last run. "
+                    + "Its progress will be discarded and it will be processed from the beginning.");
+            progress = null;
+        }
+        if (progress == null) {
+            progress = new FileProgress(file.length(), file.lastModified());
+            progressByFile.put(path, progress);
+        }
+        return new CompletedRowRanges(progress.completed);
+    }
+
+    /**
+     * Records the byte offset at which a data row starts. Readers record offsets every few thousand rows, well
+     * ahead of the watermark, and the journal keeps them until the watermark has passed them.
+     *
+     * @param path The absolute path of the CSV file.
+     * @param rowNumber The 1-based data row number within the file.
+     * @param offset The offset of the first byte of the row in the file.
+     */
+    public synchronized void recordRowOffset(String path, long rowNumber, long offset) {
+
+        FileProgress progress = progressByFile.get(path);
+        if (progress != null) {
+            progress.rowOffsets.put(rowNumber, offset);
+        }
+    }
+
+    /**
+     * Returns the position a reader can resume a registered file from: the last recorded row offset at or below
+     * the row after the watermark. All rows between that row and the watermark are completed, and are skipped by
+     * the reader.
+     *
+     * @param path The absolute path of the CSV file.
+     * @return The row to resume from and its offset, or null if the file has to be read from its first row.
+     */
+    public synchronized RowOffset getResumeOffset(String path) {
+
+        FileProgress progress = progressByFile.get(path);
+        if (progress == null) {
+            return null;
+        }
+        Map.Entry<Long, Long> resumeOffset = progress.getResumeOffset();
+        if (resumeOffset == null || resumeOffset.getKey() <= 1) {
+            return null;
+        }
+        return new RowOffset(resumeOffset.getKey(), resumeOffset.getValue());
+    }
+
+    /**
+     * Marks a data row as processed.
+     *
+     * @param path The absolute path of the CSV file the row was read from.
+     * @param rowNumber The 1-based data row number within the file.
+     */
+    public synchronized void markCompleted(String path, long rowNumber) {
+
+        FileProgress progress = progressByFile.get(path);
+        if (progress == null) {
+            return;
+        }
+        progress.completed.add(rowNumber);
+        if (++completedSinceFlush >= flushInterval) {
+            flush();
+        }
+    }
+
+    /**
+     * Marks a batch of data rows as processed under a single lock acquisition.
+     *
+     * @param records The processed users.
+     */
+    public synchronized void markCompleted(List<UserRecord> records) {
+
+        for (UserRecord record : records) {
+            markCompleted(record.getCheckpointPath(), record.getCheckpointRow());
+        }
+    }
+
+    /**
+     * Writes the current completed rows to disk. Failures are logged, as losing a checkpoint only
+     * means more rows are re-processed after a restart.
+     */
+    public synchronized void flush() {
+
+        completedSinceFlush = 0;
+        try {
+            for (Flushable output : dependentOutputs) {
+                output.flush();
+            }
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while flushing import outcomes. "
+                    + "The progress journal is not updated.", e);
+            return;
+        }
+
+        Properties entries = new Properties();
+        for (Map.Entry<String, FileProgress> entry : progressByFile.entrySet()) {
+            FileProgress progress = entry.getValue();
+            StringBuilder value = new StringBuilder().append(progress.size).append(SEPARATOR)
+                    .append(progress.lastModified).append(SEPARATOR).append(progress.completed.getWatermark());
+            for (Map.Entry<Long, Long> range : progress.completed.getRanges().entrySet()) {
+                if (range.getKey() > 1) {
+                    value.append(SEPARATOR).append(range.getKey()).append(RANGE_SEPARATOR).append(range.getValue());
+                }
+            }
+            Map.Entry<Long, Long> resumeOffset = progress.getResumeOffset();
+            if (resumeOffset != null) {
+                // Offsets below the resume offset are never needed again, as the watermark only grows.
+                progress.rowOffsets.headMap(resumeOffset.getKey()).clear();
+                value.append(SEPARATOR).append(resumeOffset.getKey()).append(OFFSET_SEPARATOR)
+                        .append(resumeOffset.getValue());
+            }
+            entries.setProperty(entry.getKey(), value.toString());
+        }
+
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+            Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+            entries.store(writer, "Bulk user import progress: "
+                    + "<file>=<size>,<lastModified>,<completed rows>[,<first row>-<last row>...][,<row>@<offset>]");
+            writer.flush();
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while writing the progress journal " + tempFile, e);
+            return;
+        }
+
+        try {
+            Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while replacing the progress journal " + journalFile,
+                    e);
+        }
+    }
+
+    /**
+     * Deletes the journal file after a completed import. Failures are logged, as the only consequence is that the
+     * next import of the same files skips their rows.
+     */
+    public synchronized void delete() {
+
+        progressByFile.clear();
+        checkpointFound = false;
+        try {
+            Files.deleteIfExists(tempFile.toPath());
+            Files.deleteIfExists(journalFile.toPath());
+        } catch (IOException e) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Error occurred while deleting the progress journal " + journalFile
+                    + ". Delete it before importing the same files again.", e);
+        }
+    }
+
+    private static class FileProgress {
+
+        private final long size;
+        private final long lastModified;
+        private final CompletedRowRanges completed = new CompletedRowRanges();
+        private final TreeMap<Long, Long> rowOffsets = new TreeMap<>();
+
+        private FileProgress(long size, long lastModified) {
+
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private Map.Entry<Long, Long> getResumeOffset() {
+
+            return rowOffsets.floorEntry(completed.getWatermark() + 1);
+        }
+    }
+
+    /**
+     * A data row of a CSV file and the byte offset at which it starts.
+     */
+    public static class RowOffset {
+
+        private final long rowNumber;
+        private final long offset;
+
+        private RowOffset(long rowNumber, long offset) {
+
+            this.rowNumber = rowNumber;
+            this.offset = offset;
+        }
+
+        public long getRowNumber() {
+
+            return rowNumber;
+        }
+
+        public long getOffset() {
+
+            return offset;
+        }
+    }
+}
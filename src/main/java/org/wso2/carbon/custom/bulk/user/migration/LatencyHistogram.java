@@ -0,0 +1,98 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets at microsecond resolution.
+ *
+ * Each power-of-two range is split into {@code SUB_BUCKETS} linear buckets, so any recorded value is
+ * reported with a relative error below 1 / {@code SUB_BUCKETS} while the whole histogram fits in a few
+ * kilobytes, regardless of how many values are recorded.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one latency value.
+     *
+     * @param latencyNanos The latency in nanoseconds.
+     */
+    public void record(long latencyNanos) {
+
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        buckets.incrementAndGet(bucketOf(micros));
+        count.increment();
+        max.accumulate(micros);
+    }
+
+    public long getCount() {
+
+        return count.sum();
+    }
+
+    /**
+     * @return The highest recorded latency, in milliseconds.
+     */
+    public double getMaxMillis() {
+
+        return max.get() / 1000.0;
+    }
+
+    /**
+     * Returns the latency below which the given fraction of the recorded values fall.
+     *
+     * @param quantile The quantile, between 0 and 1 (e.g. 0.99 for the 99th percentile).
+     * @return The latency in milliseconds, or 0 if nothing has been recorded.
+     */
+    public double getPercentileMillis(double quantile) {
+
+        long total = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank) {
+                return Math.min(upperBoundOf(i), max.get()) / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    private static int bucketOf(long micros) {
+
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBoundOf(int bucket) {
+
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (((SUB_BUCKETS | subBucket) + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,481 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.user.api.ClaimManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Reads the users of a single CSV file through memory-mapped NIO buffers and parses it in parallel.
+ *
+ * The file is scanned once for record boundaries, tracking only quotes and line feeds, and cut into record-aligned
+ * chunks of about {@code chunkSize} bytes. Each chunk is handed to the chunk pool as soon as its end is found, where
+ * it is mapped and tokenized directly from the UTF-8 bytes, without a character decoding pass over the whole file.
+ * Only the username, the password and the columns kept by the {@link ClaimMappingPlan} become Strings; the values of
+ * other columns are left empty. Each chunk knows the number of its first row, so the rows keep the same numbers in the
+ * progress journal as with {@link CSVUserReader}, and chunks whose rows the journal records as completed are never
+ * mapped.
+ *
+ * Records end at a line feed outside quotes, so both LF and CRLF files are supported. Quoted values may contain
+ * delimiters and line breaks, and a doubled quote within a quoted value stands for a quote.
+ */
+public class MappedCSVUserReader implements Callable<Boolean> {
+
+    private static final Log log = LogFactory.getLog(MappedCSVUserReader.class);
+    private static final int SCAN_BUFFER_SIZE = 1 << 20;
+    private static final byte QUOTE = '"';
+    private static final byte DELIMITER = ',';
+    private static final byte LINE_FEED = '\n';
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private final File file;
+    private final BlockingQueue<UserRecord> userQueue;
+    private final ImportProgressJournal progressJournal;
+    private final ClaimManager claimManager;
+    private final ImportMetrics metrics;
+    private final UserRecordFilter userRecordFilter;
+    private final ExecutorService chunkPool;
+    private final long chunkSize;
+
+    /**
+     * @param file The CSV file to read.
+     * @param userQueue The queue shared with the provisioning workers.
+     * @param progressJournal The journal recording the rows already processed.
+     * @param claimManager The claim manager used to drop unknown claims, or null to keep every non-empty claim.
+     * @param metrics The metrics of the import.
+     * @param userRecordFilter The filter shared by all readers, or null to provision every user.
+     * @param chunkPool The pool the chunks are parsed on. It must not be the pool this reader runs on.
+     * @param chunkSize The approximate number of bytes per chunk.
+     */
+    public MappedCSVUserReader(File file, BlockingQueue<UserRecord> userQueue, ImportProgressJournal progressJournal,
+                               ClaimManager claimManager, ImportMetrics metrics,
+                               UserRecordFilter userRecordFilter, ExecutorService chunkPool, long chunkSize) {
+
+        this.file = file;
+        this.userQueue = userQueue;
+        this.progressJournal = progressJournal;
+        this.claimManager = claimManager;
+        this.metrics = metrics;
+        this.userRecordFilter = userRecordFilter;
+        this.chunkPool = chunkPool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Streams user data from the CSV file into the queue.
+     *
+     * Steps:
+     * 1. Scans the file for record boundaries. The header line (first line) is compiled into the claim mapping of
+     *    the file as soon as its end is found.
+     * 2. Cuts the rows not yet processed into chunks while scanning, and hands each chunk to the chunk pool as soon
+     *    as its end is found, so the first users are provisioned while the rest of the file is still scanned.
+     * 3. Parses the chunks in parallel on the chunk pool, putting each row on the queue as soon as it is parsed.
+     *
+     * @return true if the file was read, false if an error occurs while reading the file.
+     * @throws InterruptedException If interrupted while waiting for the chunks.
+     */
+    @Override
+    public Boolean call() throws InterruptedException {
+
+        String path = file.getAbsolutePath();
+        log.info(BULK_UPLOAD_LOG_PREFIX + "Reading from file " + path + " with the memory-mapped parser");
+
+        List<Future<Long>> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            CompletedRowRanges completedRows = progressJournal.register(file);
+            if (!completedRows.isEmpty()) {
+                log.info(BULK_UPLOAD_LOG_PREFIX + "Resuming file " + path + " with " + completedRows.getRowCount()
+                        + " already processed rows");
+            }
+            long rowCount = scan(channel, completedRows, path, chunks);
+            if (rowCount < 0) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Skipping empty file " + path);
+                return true;
+            }
+
+            boolean allParsed = true;
+            for (Future<Long> chunk : chunks) {
+                try {
+                    chunk.get();
+                } catch (ExecutionException e) {
+                    log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while parsing a chunk of CSV file " + path,
+                            e.getCause());
+                    allParsed = false;
+                }
+            }
+            log.info(BULK_UPLOAD_LOG_PREFIX + "Finished reading " + rowCount + " rows in " + chunks.size()
+                    + " chunks from file " + path);
+            return allParsed;
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while reading from CSV file " + path, e);
+            return false;
+        } finally {
+            for (Future<Long> chunk : chunks) {
+                chunk.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Scans the file for record boundaries and submits the rows after the completed-row watermark to the chunk
+     * pool in record-aligned chunks, each as soon as its end is found. Chunks whose rows were all completed by a
+     * previous run are not submitted. When the journal has the offset of a row close to the watermark, the scan
+     * jumps from the end of the header straight to that row. Only quotes and line feeds are inspected, so the scan is
+     * bound by the disk rather than the CPU, and it stays ahead of the chunk parsers, which find the pages in the page
+     * cache.
+     *
+     * @param channel The channel of the CSV file.
+     * @param completedRows The data rows already processed.
+     * @param path The absolute path of the file.
+     * @param chunks The list the futures of the submitted chunks are added to.
+     * @return The number of data rows of the file, or -1 if the file is empty.
+     * @throws IOException If the file cannot be read.
+     */
+    private long scan(FileChannel channel, CompletedRowRanges completedRows, String path, List<Future<Long>> chunks)
+            throws IOException {
+
+        long watermark = completedRows.getWatermark();
+        ImportProgressJournal.RowOffset resumeOffset = progressJournal.getResumeOffset(path);
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SCAN_BUFFER_SIZE);
+        ClaimMappingPlan claimMappingPlan = null;
+        long position = 0;
+        long recordStart = 0;
+        long chunkStart = -1;
+        long chunkFirstRow = 0;
+        long row = 0;
+        boolean inQuotes = false;
+
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == QUOTE) {
+                    inQuotes = !inQuotes;
+                } else if (b == LINE_FEED && !inQuotes) {
+                    recordStart = position + i + 1;
+                    if (row == 0) {
+                        claimMappingPlan = readHeader(channel, recordStart);
+                        if (resumeOffset != null && resumeOffset.getOffset() > recordStart
+                                && resumeOffset.getOffset() <= size) {
+                            break;
+                        }
+                    }
+                    if (row == watermark) {
+                        skipCompletedRows(recordStart, watermark);
+                        chunkStart = recordStart;
+                        chunkFirstRow = row + 1;
+                    } else if (chunkStart >= 0 && recordStart - chunkStart >= chunkSize) {
+                        submit(channel, new Chunk(chunkStart, recordStart, chunkFirstRow, row), claimMappingPlan,
+                                path, completedRows, chunks);
+                        chunkStart = recordStart;
+                        chunkFirstRow = row + 1;
+                    }
+                    row++;
+                }
+            }
+            if (row == 0 && claimMappingPlan != null) {
+                // Resume at the recorded row. The rows between it and the watermark are completed.
+                position = resumeOffset.getOffset();
+                recordStart = position;
+                row = resumeOffset.getRowNumber();
+                if (row - 1 == watermark) {
+                    skipCompletedRows(recordStart, watermark);
+                    chunkStart = recordStart;
+                    chunkFirstRow = row;
+                }
+                continue;
+            }
+            position += read;
+        }
+
+        if (recordStart < size) {
+            // The last record is not terminated by a line feed.
+            if (row == 0) {
+                claimMappingPlan = readHeader(channel, size);
+            }
+            if (row == watermark) {
+                skipCompletedRows(size, watermark);
+            }
+            row++;
+        }
+        if (row == 0) {
+            return -1;
+        }
+        if (row > watermark && chunkStart >= 0 && chunkStart < size) {
+            submit(channel, new Chunk(chunkStart, size, chunkFirstRow, row - 1), claimMappingPlan, path,
+                    completedRows, chunks);
+        }
+        return row - 1;
+    }
+
+    /**
+     * Compiles the header line into the claim mapping of the file. The header is read into a heap buffer, so no
+     * mapping is kept for it.
+     *
+     * @param channel The channel of the CSV file.
+     * @param headerEnd The position after the header line.
+     * @return The claim mapping of the file.
+     * @throws IOException If the header cannot be read.
+     */
+    private ClaimMappingPlan readHeader(FileChannel channel, long headerEnd) throws IOException {
+
+        if (headerEnd > Integer.MAX_VALUE) {
+            throw new IOException("A header line larger than 2 GB was found in " + file.getAbsolutePath());
+        }
+        ByteBuffer headerBuffer = ByteBuffer.allocate((int) headerEnd);
+        while (headerBuffer.hasRemaining()) {
+            if (channel.read(headerBuffer, headerBuffer.position()) < 0) {
+                throw new IOException("Unexpected end of file while reading the header of " + file.getAbsolutePath());
+            }
+        }
+        int headerStart = hasBom(headerBuffer) ? UTF8_BOM.length : 0;
+        String[] header = new RowTokenizer(headerBuffer, null).next(headerStart, (int) headerEnd);
+        return ClaimMappingPlan.compile(header, claimManager);
+    }
+
+    /**
+     * Accounts the header and the rows up to the completed-row watermark, which are not parsed again.
+     *
+     * @param dataStart The position of the first row after the watermark.
+     * @param watermark The completed-row watermark.
+     */
+    private void skipCompletedRows(long dataStart, long watermark) {
+
+        metrics.bytesRead(dataStart);
+        if (watermark > 0) {
+            metrics.bytesSkipped(dataStart);
+        }
+    }
+
+    /**
+     * Records the offset of a chunk in the journal, so a later run can resume from it, and submits the chunk to the
+     * chunk pool, unless all its rows were completed by a previous run.
+     */
+    private void submit(FileChannel channel, Chunk chunk, ClaimMappingPlan claimMappingPlan, String path,
+                        CompletedRowRanges completedRows, List<Future<Long>> chunks) {
+
+        progressJournal.recordRowOffset(path, chunk.firstRow, chunk.start);
+        if (completedRows.containsAll(chunk.firstRow, chunk.lastRow)) {
+            metrics.bytesRead(chunk.end - chunk.start);
+            metrics.bytesSkipped(chunk.end - chunk.start);
+            return;
+        }
+        chunks.add(chunkPool.submit(new ChunkParser(channel, chunk, claimMappingPlan, path, completedRows)));
+    }
+
+    private static boolean hasBom(ByteBuffer buffer) {
+
+        if (buffer.limit() < UTF8_BOM.length) {
+            return false;
+        }
+        for (int i = 0; i < UTF8_BOM.length; i++) {
+            if (buffer.get(i) != UTF8_BOM[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps one chunk of the file and puts its rows on the queue. The mapping is only referenced while the chunk is
+     * parsed, so it can be released as soon as the parser returns.
+     */
+    private class ChunkParser implements Callable<Long> {
+
+        private final FileChannel channel;
+        private final Chunk chunk;
+        private final ClaimMappingPlan claimMappingPlan;
+        private final String path;
+        private final CompletedRowRanges completedRows;
+
+        private ChunkParser(FileChannel channel, Chunk chunk, ClaimMappingPlan claimMappingPlan, String path,
+                            CompletedRowRanges completedRows) {
+
+            this.channel = channel;
+            this.chunk = chunk;
+            this.claimMappingPlan = claimMappingPlan;
+            this.path = path;
+            this.completedRows = completedRows;
+        }
+
+        /**
+         * @return The number of rows parsed from the chunk.
+         * @throws IOException If the chunk cannot be mapped.
+         * @throws InterruptedException If interrupted while waiting for space in the queue.
+         */
+        @Override
+        public Long call() throws IOException, InterruptedException {
+
+            long length = chunk.end - chunk.start;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("A record larger than 2 GB was found at byte " + chunk.start + " of " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, length);
+            RowTokenizer tokenizer = new RowTokenizer(buffer, claimMappingPlan);
+            int limit = (int) length;
+            int position = 0;
+            long rowNumber = chunk.firstRow;
+            while (position < limit) {
+                String[] values = tokenizer.next(position, limit);
+                metrics.bytesRead(tokenizer.end - position);
+                if (completedRows.contains(rowNumber)) {
+                    metrics.bytesSkipped(tokenizer.end - position);
+                    position = tokenizer.end;
+                    rowNumber++;
+                    continue;
+                }
+                position = tokenizer.end;
+                if (values.length == 1 && values[0].isEmpty()) {
+                    progressJournal.markCompleted(path, rowNumber);
+                } else {
+                    metrics.rowParsed();
+                    UserRecord record = new UserRecord(claimMappingPlan, values, path, rowNumber);
+                    if (userRecordFilter == null || userRecordFilter.accept(record)) {
+                        userQueue.put(record);
+                    }
+                }
+                rowNumber++;
+            }
+            return rowNumber - chunk.firstRow;
+        }
+    }
+
+    /**
+     * Splits records into trimmed values, decoding only the columns used by the claim mapping.
+     */
+    private static class RowTokenizer {
+
+        private final ByteBuffer buffer;
+        private final ClaimMappingPlan claimMappingPlan;
+        private final int width;
+        private byte[] scratch = new byte[256];
+        private int end;
+
+        /**
+         * @param buffer The buffer holding whole records.
+         * @param claimMappingPlan The plan that decides which columns are decoded, or null to decode every column.
+         */
+        private RowTokenizer(ByteBuffer buffer, ClaimMappingPlan claimMappingPlan) {
+
+            this.buffer = buffer;
+            this.claimMappingPlan = claimMappingPlan;
+            this.width = claimMappingPlan == null ? 16 : Math.max(claimMappingPlan.getHeader().length, 1);
+        }
+
+        /**
+         * Parses the record starting at the given position. The position after the record is left in {@code end}.
+         *
+         * @param position The position of the first byte of the record.
+         * @param limit The position after the last byte available.
+         * @return The trimmed values of the record.
+         */
+        private String[] next(int position, int limit) {
+
+            String[] values = new String[width];
+            int count = 0;
+            int p = position;
+            while (true) {
+                boolean decode = claimMappingPlan == null || claimMappingPlan.isMapped(count);
+                boolean inQuotes = false;
+                int length = 0;
+                while (p < limit) {
+                    byte b = buffer.get(p);
+                    if (b == QUOTE) {
+                        if (inQuotes && p + 1 < limit && buffer.get(p + 1) == QUOTE) {
+                            if (decode) {
+                                length = append(length, b);
+                            }
+                            p += 2;
+                            continue;
+                        }
+                        inQuotes = !inQuotes;
+                    } else if (!inQuotes && (b == DELIMITER || b == LINE_FEED)) {
+                        break;
+                    } else if (decode) {
+                        length = append(length, b);
+                    }
+                    p++;
+                }
+
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = decode ? decodeTrimmed(length) : "";
+
+                if (p < limit && buffer.get(p) == DELIMITER) {
+                    p++;
+                    continue;
+                }
+                end = p < limit ? p + 1 : p;
+                return count == values.length ? values : Arrays.copyOf(values, count);
+            }
+        }
+
+        private int append(int length, byte b) {
+
+            if (length == scratch.length) {
+                scratch = Arrays.copyOf(scratch, length * 2);
+            }
+            scratch[length] = b;
+            return length + 1;
+        }
+
+        /**
+         * Decodes the collected bytes as UTF-8 after trimming the bytes that {@link String#trim()} would remove.
+         * These are all ASCII, so the trimming never splits a multi-byte character.
+         */
+        private String decodeTrimmed(int length) {
+
+            int from = 0;
+            int to = length;
+            while (from < to && (scratch[from] & 0xFF) <= ' ') {
+                from++;
+            }
+            while (to > from && (scratch[to - 1] & 0xFF) <= ' ') {
+                to--;
+            }
+            return from == to ? "" : new String(scratch, from, to - from, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A record-aligned range of the file.
+     */
+    private static class Chunk {
+
+        private final long start;
+        private final long end;
+        private final long firstRow;
+        private final long lastRow;
+
+        private Chunk(long start, long end, long firstRow, long lastRow) {
+
+            this.start = start;
+            this.end = end;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import au.com.bytecode.opencsv.CSVReader;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * The columns of an outcome CSV file, and the placement of the values of each input file under them.
+ *
+ * Input files may order their columns differently, or have columns the other files lack. The layout lists every
+ * column once, in the order in which the columns first appear in the headers it is built from, and each value is
+ * placed under the column of the same name. The username and the password are placed by position, as they are read,
+ * whatever their columns are called. A name repeated within one header is listed as often as it is repeated.
+ *
+ * The placement of each header is computed once and then looked up by the identity of the header array, which is
+ * shared by all rows of a file. Values whose column is not part of the layout are left out, with a warning.
+ */
+public class OutcomeColumnLayout {
+
+    private static final Log log = LogFactory.getLog(OutcomeColumnLayout.class);
+    private static final int POSITIONAL_COLUMNS = ClaimMappingPlan.PASSWORD_COLUMN + 1;
+
+    private final List<String> columns = new ArrayList<>();
+    private final Map<String, List<Integer>> positionsByName = new HashMap<>();
+    private final Map<String[], int[]> positionsByHeader = new IdentityHashMap<>();
+
+    private OutcomeColumnLayout() {
+
+    }
+
+    /**
+     * Builds the union of the given headers.
+     *
+     * @param headers The header lines of the input files, without extra columns.
+     * @return The layout.
+     */
+    public static OutcomeColumnLayout of(Iterable<String[]> headers) {
+
+        OutcomeColumnLayout layout = new OutcomeColumnLayout();
+        for (String[] header : headers) {
+            layout.addColumns(header);
+        }
+        return layout;
+    }
+
+    /**
+     * Builds the union of the distinct headers of the records in a spill file.
+     *
+     * @param spillFile The spill file.
+     * @return The layout.
+     * @throws IOException If the spill file cannot be read.
+     */
+    public static OutcomeColumnLayout fromSpill(File spillFile) throws IOException {
+
+        Set<List<String>> headers = new LinkedHashSet<>();
+        try (OutcomeSpillCursor cursor = new OutcomeSpillCursor(spillFile)) {
+            String[] previousHeader = null;
+            while (cursor.next()) {
+                // The cursor returns the same header array for all records of a source file.
+                if (cursor.getHeader() != previousHeader) {
+                    previousHeader = cursor.getHeader();
+                    headers.add(Arrays.asList(previousHeader));
+                }
+            }
+        }
+        List<String[]> headerArrays = new ArrayList<>(headers.size());
+        for (List<String> header : headers) {
+            headerArrays.add(header.toArray(new String[0]));
+        }
+        return of(headerArrays);
+    }
+
+    /**
+     * Reads the trimmed header line of a CSV file.
+     *
+     * @param file The CSV file.
+     * @return The header, or null if the file is empty.
+     * @throws IOException If the file cannot be read.
+     */
+    public static String[] readHeader(File file) throws IOException {
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            String[] header = new CSVReader(reader).readNext();
+            if (header == null) {
+                return null;
+            }
+            for (int i = 0; i < header.length; i++) {
+                header[i] = header[i] == null ? "" : header[i].trim();
+            }
+            return header;
+        }
+    }
+
+    /**
+     * @return The names of the columns, in order.
+     */
+    public String[] getColumns() {
+
+        return columns.toArray(new String[0]);
+    }
+
+    /**
+     * Places the values of a row under the columns of the layout.
+     *
+     * @param header The header of the file the row was read from.
+     * @param values The values of the row.
+     * @return The values by column of the layout, null where the file has no value for a column.
+     */
+    public String[] arrange(String[] header, String[] values) {
+
+        int[] positions = getPositions(header);
+        String[] arranged = new String[columns.size()];
+        for (int i = 0; i < values.length && i < positions.length; i++) {
+            if (positions[i] >= 0 && positions[i] < arranged.length) {
+                arranged[positions[i]] = values[i];
+            }
+        }
+        return arranged;
+    }
+
+    private void addColumns(String[] header) {
+
+        for (int i = columns.size(); i < POSITIONAL_COLUMNS; i++) {
+            columns.add(i < header.length ? header[i] : "");
+        }
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (int i = POSITIONAL_COLUMNS; i < header.length; i++) {
+            int occurrence = increment(occurrences, header[i]);
+            List<Integer> positions = positionsByName.get(header[i]);
+            if (positions == null) {
+                positions = new ArrayList<>(1);
+                positionsByName.put(header[i], positions);
+            }
+            if (positions.size() <= occurrence) {
+                positions.add(columns.size());
+                columns.add(header[i]);
+            }
+        }
+    }
+
+    private synchronized int[] getPositions(String[] header) {
+
+        int[] positions = positionsByHeader.get(header);
+        if (positions != null) {
+            return positions;
+        }
+        positions = new int[header.length];
+        Map<String, Integer> occurrences = new HashMap<>();
+        List<String> missingColumns = new ArrayList<>();
+        for (int i = 0; i < header.length; i++) {
+            if (i < POSITIONAL_COLUMNS) {
+                positions[i] = i;
+                continue;
+            }
+            int occurrence = increment(occurrences, header[i]);
+            List<Integer> namedPositions = positionsByName.get(header[i]);
+            if (namedPositions != null && occurrence < namedPositions.size()) {
+                positions[i] = namedPositions.get(occurrence);
+            } else {
+                positions[i] = -1;
+                missingColumns.add(header[i]);
+            }
+        }
+        if (!missingColumns.isEmpty()) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Columns " + missingColumns + " of the header "
+                    + Arrays.toString(header) + " are not columns of the outcome file. Their values are left out.");
+        }
+        positionsByHeader.put(header, positions);
+        return positions;
+    }
+
+    private static int increment(Map<String, Integer> occurrences, String name) {
+
+        Integer occurrence = occurrences.get(name);
+        int next = occurrence == null ? 0 : occurrence + 1;
+        occurrences.put(name, next);
+        return next;
+    }
+}
@@ -0,0 +1,337 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+import static org.wso2.carbon.custom.bulk.user.migration.OutcomeSpillWriter.EMPTY;
+import static org.wso2.carbon.custom.bulk.user.migration.OutcomeSpillWriter.FIRST_REFERENCE;
+import static org.wso2.carbon.custom.bulk.user.migration.OutcomeSpillWriter.LITERAL;
+import static org.wso2.carbon.custom.bulk.user.migration.OutcomeSpillWriter.MAGIC;
+import static org.wso2.carbon.custom.bulk.user.migration.OutcomeSpillWriter.NEW_ENTRY;
+import static org.wso2.carbon.custom.bulk.user.migration.OutcomeSpillWriter.RECORD;
+import static org.wso2.carbon.custom.bulk.user.migration.OutcomeSpillWriter.SEGMENT;
+import static org.wso2.carbon.custom.bulk.user.migration.OutcomeSpillWriter.SOURCE;
+import static org.wso2.carbon.custom.bulk.user.migration.OutcomeSpillWriter.VERSION;
+
+/**
+ * Streaming cursor over the records of a spill file written by {@link OutcomeSpillWriter}. Only the current
+ * record and the dictionaries of the current segment are held in memory, so files of any size can be read.
+ * A record cut short by a crash at the end of the file is ignored.
+ *
+ * <pre>
+ * try (OutcomeSpillCursor cursor = new OutcomeSpillCursor(file)) {
+ *     while (cursor.next()) {
+ *         String username = cursor.getValues()[0];
+ *     }
+ * }
+ * </pre>
+ */
+public class OutcomeSpillCursor implements Closeable {
+
+    private static final Log log = LogFactory.getLog(OutcomeSpillCursor.class);
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final CountingInputStream counter;
+    private final DataInputStream input;
+    private final List<String> sourcePaths = new ArrayList<>();
+    private final List<String[]> headers = new ArrayList<>();
+    private final List<List<String>> dictionaries = new ArrayList<>();
+    private final List<List<String>> extraDictionaries = new ArrayList<>();
+    private long completeLength;
+    private String[] extraColumns = new String[0];
+    private String sourcePath;
+    private String[] header;
+    private long rowNumber;
+    private String[] values;
+    private String[] extraValues;
+
+    /**
+     * @param file The spill file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public OutcomeSpillCursor(File file) throws IOException {
+
+        this.file = file;
+        this.counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+        this.input = new DataInputStream(counter);
+    }
+
+    /**
+     * Finds the end of the last complete entry of a spill file, so that an entry cut short by a crash can be
+     * truncated before more entries are appended.
+     *
+     * @param file The spill file.
+     * @return The length of the file without an incomplete last entry.
+     * @throws IOException If the file cannot be read or is not a spill file.
+     */
+    static long getCompleteLength(File file) throws IOException {
+
+        try (OutcomeSpillCursor cursor = new OutcomeSpillCursor(file)) {
+            while (cursor.next()) {
+                // Read up to the first incomplete entry.
+            }
+            return cursor.completeLength;
+        }
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return true if there is a record, false at the end of the file.
+     * @throws IOException If the file cannot be read or is not a spill file.
+     */
+    public boolean next() throws IOException {
+
+        while (true) {
+            int tag = input.read();
+            if (tag < 0) {
+                return false;
+            }
+            try {
+                switch (tag) {
+                    case SEGMENT:
+                        readSegment();
+                        completeLength = counter.count;
+                        break;
+                    case SOURCE:
+                        readSource();
+                        completeLength = counter.count;
+                        break;
+                    case RECORD:
+                        readRecord();
+                        completeLength = counter.count;
+                        return true;
+                    default:
+                        throw new IOException("Unexpected entry " + tag + " in spill file " + file);
+                }
+            } catch (EOFException e) {
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Ignoring an incomplete entry at the end of " + file);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return The path of the CSV file the current user was read from.
+     */
+    public String getSourcePath() {
+
+        return sourcePath;
+    }
+
+    /**
+     * @return The header of the CSV file the current user was read from.
+     */
+    public String[] getHeader() {
+
+        return header;
+    }
+
+    public long getRowNumber() {
+
+        return rowNumber;
+    }
+
+    public String[] getValues() {
+
+        return values;
+    }
+
+    /**
+     * @return The names of the extra columns of the current segment.
+     */
+    public String[] getExtraColumns() {
+
+        return extraColumns;
+    }
+
+    public String[] getExtraValues() {
+
+        return extraValues;
+    }
+
+    /**
+     * @return The number of bytes of the file read up to the end of the current record.
+     */
+    public long getPosition() {
+
+        return completeLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        input.close();
+    }
+
+    private void readSegment() throws IOException {
+
+        if (input.readInt() != MAGIC) {
+            throw new IOException(file + " is not a spill file");
+        }
+        int version = readVarInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version + " of spill file " + file);
+        }
+        extraColumns = new String[readVarInt()];
+        for (int i = 0; i < extraColumns.length; i++) {
+            extraColumns[i] = readString();
+        }
+        sourcePaths.clear();
+        headers.clear();
+        dictionaries.clear();
+        extraDictionaries.clear();
+    }
+
+    private void readSource() throws IOException {
+
+        int sourceId = readVarInt();
+        if (sourceId != sourcePaths.size()) {
+            throw new IOException("Unexpected source " + sourceId + " in spill file " + file);
+        }
+        String path = readString();
+        String[] sourceHeader = new String[readVarInt()];
+        for (int i = 0; i < sourceHeader.length; i++) {
+            sourceHeader[i] = readString();
+        }
+        sourcePaths.add(path);
+        headers.add(sourceHeader);
+    }
+
+    private void readRecord() throws IOException {
+
+        int sourceId = readVarInt();
+        if (sourceId >= sourcePaths.size()) {
+            throw new IOException("Unknown source " + sourceId + " in spill file " + file);
+        }
+        long recordRowNumber = readVarLong();
+        String[] recordValues = new String[readVarInt()];
+        for (int i = 0; i < recordValues.length; i++) {
+            recordValues[i] = readValue(dictionary(dictionaries, i));
+        }
+        String[] recordExtraValues = new String[readVarInt()];
+        for (int i = 0; i < recordExtraValues.length; i++) {
+            recordExtraValues[i] = readValue(dictionary(extraDictionaries, i));
+        }
+
+        sourcePath = sourcePaths.get(sourceId);
+        header = headers.get(sourceId);
+        rowNumber = recordRowNumber;
+        values = recordValues;
+        extraValues = recordExtraValues;
+    }
+
+    private static List<String> dictionary(List<List<String>> dictionaries, int column) {
+
+        while (dictionaries.size() <= column) {
+            dictionaries.add(new ArrayList<String>());
+        }
+        return dictionaries.get(column);
+    }
+
+    private String readValue(List<String> dictionary) throws IOException {
+
+        int code = readVarInt();
+        switch (code) {
+            case EMPTY:
+                return "";
+            case LITERAL:
+                return readString();
+            case NEW_ENTRY:
+                String value = readString();
+                dictionary.add(value);
+                return value;
+            default:
+                int index = code - FIRST_REFERENCE;
+                if (index >= dictionary.size()) {
+                    throw new IOException("Unknown dictionary entry " + index + " in spill file " + file);
+                }
+                return dictionary.get(index);
+        }
+    }
+
+    private String readString() throws IOException {
+
+        byte[] bytes = new byte[readVarInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarInt() throws IOException {
+
+        long value = readVarLong();
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt spill file " + file);
+        }
+        return (int) value;
+    }
+
+    private long readVarLong() throws IOException {
+
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt spill file " + file);
+    }
+
+    /**
+     * Counts the bytes consumed from the underlying stream.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
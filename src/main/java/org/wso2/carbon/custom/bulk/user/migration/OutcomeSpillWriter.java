@@ -0,0 +1,222 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Appends user outcome records to a compact binary spill file, which is read back with an
+ * {@link OutcomeSpillCursor}.
+ *
+ * The file is a sequence of entries, each starting with a tag byte:
+ * <ul>
+ *     <li>{@code SEGMENT}: written each time a writer opens the file. Holds a magic number, the format version and
+ *     the names of the extra columns. Dictionaries and sources are reset at each segment.</li>
+ *     <li>{@code SOURCE}: the path and the header of a CSV file, written before its first record.</li>
+ *     <li>{@code RECORD}: the source id, the row number and the values of a user, followed by the extra values.</li>
+ * </ul>
+ * Integers are unsigned LEB128 varints and strings are a varint byte length followed by UTF-8 bytes. Each value is
+ * encoded against an inline dictionary of its column: {@code EMPTY}, a {@code LITERAL} that is not remembered, a
+ * {@code NEW_ENTRY} literal that is added to the dictionary, or the index of a dictionary entry offset by
+ * {@code FIRST_REFERENCE}. Repeated values such as a country or an account state therefore take one or two bytes.
+ * Only values of up to {@code MAX_DICTIONARY_VALUE_LENGTH} characters are remembered, and each column remembers
+ * at most {@code MAX_DICTIONARY_SIZE} values, so columns of unique values such as usernames are written as
+ * literals without growing the dictionary. When a writer appends to an existing file, an entry cut short by a
+ * crash is truncated first.
+ *
+ * Passwords are written as empty values, unless the writer is opened to keep them, e.g. so that failed users can be
+ * retried. A file that keeps passwords is made readable and writable by its owner only.
+ */
+public class OutcomeSpillWriter implements Flushable, Closeable {
+
+    static final int MAGIC = 0x42555350;
+    static final int VERSION = 1;
+    static final int SEGMENT = 1;
+    static final int SOURCE = 2;
+    static final int RECORD = 3;
+    static final int EMPTY = 0;
+    static final int LITERAL = 1;
+    static final int NEW_ENTRY = 2;
+    static final int FIRST_REFERENCE = 3;
+    static final int MAX_DICTIONARY_SIZE = 4096;
+    static final int MAX_DICTIONARY_VALUE_LENGTH = 64;
+
+    private static final Log log = LogFactory.getLog(OutcomeSpillWriter.class);
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final DataOutputStream output;
+    private final boolean keepPasswords;
+    private final Map<String, Integer> sourceIds = new HashMap<>();
+    private final List<Map<String, Integer>> dictionaries = new ArrayList<>();
+    private final List<Map<String, Integer>> extraDictionaries = new ArrayList<>();
+
+    /**
+     * Opens the spill file and starts a new segment.
+     *
+     * @param file The spill file.
+     * @param append true to keep the records of previous runs.
+     * @param keepPasswords true to write the passwords of the users, false to write them as empty values.
+     * @param extraColumns The names of the columns appended after the user's own values.
+     * @throws IOException If the file cannot be opened.
+     */
+    public OutcomeSpillWriter(File file, boolean append, boolean keepPasswords, String... extraColumns)
+            throws IOException {
+
+        this.file = file;
+        this.keepPasswords = keepPasswords;
+        if (append && file.length() > 0) {
+            truncateIncompleteEntry(file);
+        }
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append),
+                IO_BUFFER_SIZE));
+        if (keepPasswords) {
+            restrictToOwner(file);
+        }
+        output.writeByte(SEGMENT);
+        output.writeInt(MAGIC);
+        writeVarInt(VERSION);
+        writeVarInt(extraColumns.length);
+        for (String extraColumn : extraColumns) {
+            writeString(extraColumn);
+        }
+    }
+
+    /**
+     * Appends a user.
+     *
+     * @param record The user to write.
+     * @param extraValues The values of the extra columns of this writer.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void write(UserRecord record, String... extraValues) throws IOException {
+
+        Integer sourceId = sourceIds.get(record.getSourcePath());
+        if (sourceId == null) {
+            sourceId = sourceIds.size();
+            sourceIds.put(record.getSourcePath(), sourceId);
+            output.writeByte(SOURCE);
+            writeVarInt(sourceId);
+            writeString(record.getSourcePath());
+            String[] header = record.getHeader();
+            writeVarInt(header.length);
+            for (String column : header) {
+                writeString(column);
+            }
+        }
+
+        String[] values = record.getValues();
+        output.writeByte(RECORD);
+        writeVarInt(sourceId);
+        writeVarLong(record.getRowNumber());
+        writeVarInt(values.length);
+        for (int i = 0; i < values.length; i++) {
+            writeValue(dictionary(dictionaries, i),
+                    i == ClaimMappingPlan.PASSWORD_COLUMN && !keepPasswords ? null : values[i]);
+        }
+        writeVarInt(extraValues.length);
+        for (int i = 0; i < extraValues.length; i++) {
+            writeValue(dictionary(extraDictionaries, i), extraValues[i]);
+        }
+    }
+
+    public File getFile() {
+
+        return file;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+
+        output.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        output.close();
+    }
+
+    private static void truncateIncompleteEntry(File file) throws IOException {
+
+        long completeLength = OutcomeSpillCursor.getCompleteLength(file);
+        if (completeLength < file.length()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(completeLength);
+            }
+        }
+    }
+
+    private static void restrictToOwner(File file) {
+
+        boolean restricted = file.setReadable(false, false) && file.setReadable(true, true)
+                && file.setWritable(false, false) && file.setWritable(true, true);
+        if (!restricted) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Unable to restrict access to " + file + ", which holds passwords");
+        }
+    }
+
+    private static Map<String, Integer> dictionary(List<Map<String, Integer>> dictionaries, int column) {
+
+        while (dictionaries.size() <= column) {
+            dictionaries.add(new HashMap<String, Integer>());
+        }
+        return dictionaries.get(column);
+    }
+
+    private void writeValue(Map<String, Integer> dictionary, String value) throws IOException {
+
+        if (value == null || value.isEmpty()) {
+            writeVarInt(EMPTY);
+            return;
+        }
+        Integer index = dictionary.get(value);
+        if (index != null) {
+            writeVarInt(FIRST_REFERENCE + index);
+        } else if (dictionary.size() < MAX_DICTIONARY_SIZE && value.length() <= MAX_DICTIONARY_VALUE_LENGTH) {
+            dictionary.put(value, dictionary.size());
+            writeVarInt(NEW_ENTRY);
+            writeString(value);
+        } else {
+            writeVarInt(LITERAL);
+            writeString(value);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+}
@@ -0,0 +1,19 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+/**
+ * Receives the outcome of each user handed to a {@link ProvisioningSink}.
+ */
+public interface ProvisioningListener {
+
+    void onSuccess(UserRecord record);
+
+    void onFailure(UserRecord record, Exception cause);
+
+    /**
+     * Called for a user that was not provisioned as the user store already holds it as is.
+     *
+     * @param record The user.
+     * @param reason The reason reported in the skipped users file.
+     */
+    void onSkipped(UserRecord record, String reason);
+}
@@ -0,0 +1,20 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import java.util.List;
+
+/**
+ * Destination to which the provisioning workers hand batches of parsed users.
+ * Implementations decide how the users of a batch are written to the target user store and must report
+ * the outcome of every user in the batch to the given listener, exactly once. A batch is the unit in which users
+ * are handed over and their outcomes recorded; it is not a user store transaction.
+ */
+public interface ProvisioningSink {
+
+    /**
+     * Provisions a batch of users.
+     *
+     * @param batch The users to provision, in input order.
+     * @param listener The listener notified of the outcome of each user.
+     */
+    void provision(List<UserRecord> batch, ProvisioningListener listener);
+}
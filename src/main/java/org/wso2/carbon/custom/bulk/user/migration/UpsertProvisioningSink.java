@@ -0,0 +1,166 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Sink for reconciliation runs, which creates the users that do not exist yet and brings the claims of existing
+ * users in line with the input.
+ *
+ * The current claim values of all users of a batch are fetched with a single
+ * {@link UserStoreClient#getUsersClaimValues} call. The users returned are matched with the rows by username, folded
+ * as {@link UsernameIndex} folds it, so a case-insensitive store that returns a username in its stored case still
+ * matches the row. Each user found in the store is compared with its row:
+ * <ul>
+ *     <li>Users whose claims all match are reported as skipped with the reason {@link #UNCHANGED}.</li>
+ *     <li>Users with differing claims are marked with {@link UserRecord.Operation#UPDATE}, and only the changed
+ *     claims are written.</li>
+ *     <li>Users not found are handed to the delegate to be added.</li>
+ * </ul>
+ * Passwords are not compared and are never changed for existing users. A claim that is empty in the row is left
+ * as it is in the user store. If the claims cannot be fetched, the whole batch is handed to the delegate, which
+ * should then be configured to update the users that turn out to exist. If the thread is interrupted while the
+ * claims are fetched, the batch is left unreported, so it is provisioned when the import is resumed.
+ */
+public class UpsertProvisioningSink implements ProvisioningSink {
+
+    public static final String UNCHANGED = DeltaImportFilter.UNCHANGED;
+
+    private static final Log log = LogFactory.getLog(UpsertProvisioningSink.class);
+
+    private final ProvisioningSink delegate;
+    private final UserStoreClient store;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final boolean caseInsensitive;
+
+    /**
+     * @param delegate The sink the new and changed users are provisioned through.
+     * @param store The user store the current claim values are fetched from.
+     * @param limiter The limiter for the calls in flight, or null to call the store without a limit.
+     * @param caseInsensitive true if the user store treats usernames case-insensitively.
+     */
+    public UpsertProvisioningSink(ProvisioningSink delegate, UserStoreClient store,
+                                  AdaptiveConcurrencyLimiter limiter, boolean caseInsensitive) {
+
+        this.delegate = delegate;
+        this.store = store;
+        this.limiter = limiter;
+        this.caseInsensitive = caseInsensitive;
+    }
+
+    @Override
+    public void provision(List<UserRecord> batch, ProvisioningListener listener) {
+
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<String, Map<String, String>> currentClaims;
+        try {
+            currentClaims = fetchClaims(batch);
+        } catch (UserStoreException e) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Unable to fetch the claims of a batch of " + batch.size()
+                    + " users. Existing users of the batch will be updated with all their claims. " + e.getMessage());
+            delegate.provision(batch, listener);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Interrupted while fetching the claims of a batch of " + batch.size()
+                    + " users. The batch is left for the next run.");
+            return;
+        }
+
+        List<UserRecord> provisionable = new ArrayList<>(batch.size());
+        for (UserRecord record : batch) {
+            Map<String, String> current = currentClaims.get(UsernameIndex.foldCase(record.getUsername(),
+                    caseInsensitive));
+            if (current == null || current.isEmpty()) {
+                // Not found, or found without any claim value, in which case adding it fails and it is updated.
+                provisionable.add(record);
+                continue;
+            }
+            Map<String, String> changedClaims = diff(record.getClaimMappingPlan().toClaims(record.getValues()),
+                    current);
+            if (changedClaims.isEmpty()) {
+                listener.onSkipped(record, UNCHANGED);
+            } else {
+                record.setOperation(UserRecord.Operation.UPDATE);
+                record.setChangedClaims(changedClaims);
+                provisionable.add(record);
+            }
+        }
+        if (!provisionable.isEmpty()) {
+            delegate.provision(provisionable, listener);
+        }
+    }
+
+    /**
+     * Fetches the current values of the claims mapped by the files of the batch.
+     *
+     * @return The claims of each user found in the user store, by folded username.
+     */
+    private Map<String, Map<String, String>> fetchClaims(List<UserRecord> batch)
+            throws UserStoreException, InterruptedException {
+
+        String[] usernames = new String[batch.size()];
+        Set<ClaimMappingPlan> plans = Collections.newSetFromMap(new IdentityHashMap<ClaimMappingPlan, Boolean>());
+        Set<String> claimURIs = new LinkedHashSet<>();
+        for (int i = 0; i < usernames.length; i++) {
+            UserRecord record = batch.get(i);
+            usernames[i] = record.getUsername();
+            if (plans.add(record.getClaimMappingPlan())) {
+                Collections.addAll(claimURIs, record.getClaimMappingPlan().getClaimURIs());
+            }
+        }
+        if (claimURIs.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        if (limiter != null) {
+            limiter.acquire();
+        }
+        long startTime = System.nanoTime();
+        boolean transientFailure = false;
+        Map<String, Map<String, String>> claimsByUser;
+        try {
+            claimsByUser = store.getUsersClaimValues(usernames, claimURIs.toArray(new String[0]));
+        } catch (UserStoreException e) {
+            transientFailure = FailureClassifier.isTransient(e);
+            throw e;
+        } finally {
+            if (limiter != null) {
+                limiter.release(System.nanoTime() - startTime, transientFailure);
+            }
+        }
+        if (!caseInsensitive) {
+            return claimsByUser;
+        }
+        Map<String, Map<String, String>> foldedClaimsByUser = new HashMap<>(claimsByUser.size() * 2);
+        for (Map.Entry<String, Map<String, String>> entry : claimsByUser.entrySet()) {
+            foldedClaimsByUser.put(UsernameIndex.foldCase(entry.getKey(), true), entry.getValue());
+        }
+        return foldedClaimsByUser;
+    }
+
+    private static Map<String, String> diff(Map<String, String> claims, Map<String, String> current) {
+
+        Map<String, String> changedClaims = new HashMap<>();
+        for (Map.Entry<String, String> claim : claims.entrySet()) {
+            if (!claim.getValue().equals(current.get(claim.getKey()))) {
+                changedClaims.put(claim.getKey(), claim.getValue());
+            }
+        }
+        return changedClaims;
+    }
+}
@@ -0,0 +1,314 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Appends user outcomes (successful or failed users) to a CSV file while the import is running.
+ *
+ * Records are written through a buffered writer and flushed every {@code flushInterval} records or after
+ * {@code FLUSH_PERIOD_MILLIS}, whichever comes first, so the file shows live progress without a disk write
+ * per user. Fields are quoted according to RFC 4180 when they contain a separator, a quote or a line break.
+ * Input files may have different columns, so the records are written under an {@link OutcomeColumnLayout}, which
+ * places each value under the column of its name: the layout set through {@link #setColumnLayout}, normally the
+ * union of the headers of all input files, or the header already in a file that is appended to. Without either,
+ * the header of the first record is used. The columns of the layout are written when the file is empty, followed
+ * by the names of any extra columns (e.g. the reason a user was skipped) given when the writer is opened.
+ * Passwords are never written to the CSV file; the password column is left empty.
+ *
+ * A writer opened with a spill file appends the records to the spill file in the compact format of
+ * {@link OutcomeSpillWriter} instead, and renders the CSV file from the spill file when it is closed, under the
+ * union of the headers found in the spill file. The records can also be read back from the spill file with an
+ * {@link OutcomeSpillCursor}.
+ *
+ * A retry spill file can be attached to either kind of writer. It receives a copy of every record, including the
+ * password, so that failed users can be provisioned again without the original CSV files.
+ */
+public class UserOutcomeWriter implements Closeable, Flushable {
+
+    private static final Log log = LogFactory.getLog(UserOutcomeWriter.class);
+    private static final long FLUSH_PERIOD_MILLIS = 1000;
+
+    private final File file;
+    private final Writer writer;
+    private final OutcomeSpillWriter spill;
+    private final int flushInterval;
+    private final String[] extraColumns;
+    private OutcomeSpillWriter retrySpill;
+    private OutcomeColumnLayout layout;
+    private boolean headerWritten;
+    private int recordsSinceFlush;
+    private long lastFlushTime = System.currentTimeMillis();
+    private long recordCount;
+
+    /**
+     * Opens the outcome file.
+     *
+     * @param file The CSV file to write to.
+     * @param append true to keep the existing content of the file (e.g. when resuming an import).
+     * @param flushInterval The maximum number of records buffered between two flushes.
+     * @param extraColumns The names of the columns appended after the user's own values.
+     * @throws IOException If the file cannot be opened.
+     */
+    public UserOutcomeWriter(File file, boolean append, int flushInterval, String... extraColumns)
+            throws IOException {
+
+        this.file = file;
+        this.flushInterval = flushInterval;
+        this.extraColumns = extraColumns;
+        this.headerWritten = append && file.length() > 0;
+        if (headerWritten) {
+            this.layout = readLayout(file, extraColumns.length);
+        }
+        this.writer = openCsvWriter(file, append);
+        this.spill = null;
+    }
+
+    /**
+     * Opens a spill file, from which the CSV file is rendered when the writer is closed.
+     *
+     * @param file The CSV file to render the records to.
+     * @param spillFile The spill file to write to.
+     * @param append true to keep the records of previous runs in the spill file (e.g. when resuming an import).
+     * @param extraColumns The names of the columns appended after the user's own values.
+     * @throws IOException If the spill file cannot be opened.
+     */
+    public UserOutcomeWriter(File file, File spillFile, boolean append, String... extraColumns) throws IOException {
+
+        this.file = file;
+        this.flushInterval = Integer.MAX_VALUE;
+        this.extraColumns = extraColumns;
+        this.writer = null;
+        this.spill = new OutcomeSpillWriter(spillFile, append, false, extraColumns);
+    }
+
+    /**
+     * Also writes every record, with its password, to a retry spill file. The file is readable and writable by its
+     * owner only.
+     *
+     * @param retrySpillFile The retry spill file.
+     * @param append true to keep the records of previous runs in the retry spill file.
+     * @throws IOException If the retry spill file cannot be opened.
+     */
+    public synchronized void attachRetrySpill(File retrySpillFile, boolean append) throws IOException {
+
+        retrySpill = new OutcomeSpillWriter(retrySpillFile, append, true, extraColumns);
+    }
+
+    /**
+     * Sets the columns the records are written under. It has no effect on a file that already has a header, or
+     * once a record has been written, and the CSV file rendered from a spill file uses the headers in the spill
+     * file instead.
+     *
+     * @param layout The columns of all input files.
+     */
+    public synchronized void setColumnLayout(OutcomeColumnLayout layout) {
+
+        if (this.layout == null && recordCount == 0) {
+            this.layout = layout;
+        }
+    }
+
+    /**
+     * Appends the given user to the file. Write failures are logged rather than thrown, so a reporting
+     * problem does not stop the provisioning workers.
+     *
+     * @param record The user to write.
+     * @param extraValues The values of the extra columns of this writer.
+     */
+    public synchronized void write(UserRecord record, String... extraValues) {
+
+        try {
+            if (retrySpill != null) {
+                retrySpill.write(record, extraValues);
+            }
+            if (spill != null) {
+                spill.write(record, extraValues);
+                recordCount++;
+                return;
+            }
+            if (layout == null) {
+                layout = OutcomeColumnLayout.of(Collections.singletonList(record.getHeader()));
+            }
+            if (!headerWritten) {
+                writeLine(writer, layout.getColumns(), extraColumns, false);
+                headerWritten = true;
+            }
+            writeLine(writer, layout.arrange(record.getHeader(), record.getValues()), extraValues, true);
+            recordCount++;
+
+            if (++recordsSinceFlush >= flushInterval
+                    || System.currentTimeMillis() - lastFlushTime >= FLUSH_PERIOD_MILLIS) {
+                flush();
+            }
+        } catch (IOException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while writing user " + record.getUsername()
+                    + " to " + file, e);
+        }
+    }
+
+    /**
+     * Appends the given users to the file under a single lock acquisition.
+     *
+     * @param records The users to write.
+     */
+    public synchronized void write(List<UserRecord> records) {
+
+        for (UserRecord record : records) {
+            write(record);
+        }
+    }
+
+    /**
+     * @return The number of records written by this writer.
+     */
+    public synchronized long getRecordCount() {
+
+        return recordCount;
+    }
+
+    public File getFile() {
+
+        return file;
+    }
+
+    /**
+     * @return The spill file the records are written to, or null if they are written to the CSV file directly.
+     */
+    public File getSpillFile() {
+
+        return spill != null ? spill.getFile() : null;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+
+        if (retrySpill != null) {
+            retrySpill.flush();
+        }
+        if (spill != null) {
+            spill.flush();
+            return;
+        }
+        writer.flush();
+        recordsSinceFlush = 0;
+        lastFlushTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        if (retrySpill != null) {
+            retrySpill.close();
+        }
+        if (spill == null) {
+            writer.close();
+            return;
+        }
+        spill.close();
+        OutcomeColumnLayout spillLayout = OutcomeColumnLayout.fromSpill(spill.getFile());
+        try (OutcomeSpillCursor cursor = new OutcomeSpillCursor(spill.getFile());
+             Writer csvWriter = openCsvWriter(file, false)) {
+            boolean csvHeaderWritten = false;
+            while (cursor.next()) {
+                if (!csvHeaderWritten) {
+                    writeLine(csvWriter, spillLayout.getColumns(), cursor.getExtraColumns(), false);
+                    csvHeaderWritten = true;
+                }
+                writeLine(csvWriter, spillLayout.arrange(cursor.getHeader(), cursor.getValues()),
+                        cursor.getExtraValues(), true);
+            }
+        }
+    }
+
+    /**
+     * Reads the header of an outcome file that is appended to, so that the new records are written under the
+     * columns it already has.
+     *
+     * @return The layout of the file, or null if its header cannot be read.
+     */
+    private static OutcomeColumnLayout readLayout(File file, int extraColumnCount) {
+
+        try {
+            String[] header = OutcomeColumnLayout.readHeader(file);
+            if (header == null || header.length < extraColumnCount) {
+                return null;
+            }
+            return OutcomeColumnLayout.of(Collections.singletonList(
+                    Arrays.copyOf(header, header.length - extraColumnCount)));
+        } catch (IOException e) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Unable to read the header of " + file + ". New records are "
+                    + "written under the columns of the input files. " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Writer openCsvWriter(File file, boolean append) throws IOException {
+
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8));
+    }
+
+    private static void writeLine(Writer writer, String[] fields, String[] extraFields, boolean redactPassword)
+            throws IOException {
+
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (!redactPassword || i != ClaimMappingPlan.PASSWORD_COLUMN) {
+                writeField(writer, fields[i]);
+            }
+        }
+        for (String extraField : extraFields) {
+            writer.write(',');
+            writeField(writer, extraField);
+        }
+        writer.write('\n');
+    }
+
+    private static void writeField(Writer writer, String field) throws IOException {
+
+        if (field == null) {
+            return;
+        }
+        if (!requiresQuoting(field)) {
+            writer.write(field);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private static boolean requiresQuoting(String field) {
+
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
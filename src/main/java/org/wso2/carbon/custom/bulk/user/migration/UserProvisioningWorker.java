@@ -0,0 +1,219 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.context.PrivilegedCarbonContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Provisioning worker that pulls parsed users from a shared queue and hands them to a {@link ProvisioningSink}.
+ * Each worker runs inside its own tenant flow, so several workers can provision users of the same
+ * tenant concurrently. A worker keeps taking users until it receives {@link UserRecord#END_OF_INPUT}.
+ *
+ * Users are taken from the queue in batches of up to {@code batchSize}, so the queue hand-off, the outcome
+ * writers and the progress journal are each locked once per batch rather than once per user.
+ * Users the sink reports as skipped are written to the skipped users file, and failed users are written with the
+ * classification of their failure, which decides whether they are retried by a later retry run. In delta import
+ * mode, the fingerprints of the provisioned users are recorded before their rows are marked as processed.
+ *
+ * Only the rows of users the sink reported, and rows without a username, are marked as processed in the progress
+ * journal. Users left unreported because the import was interrupted have no outcome yet, so they are provisioned
+ * again when the import is resumed.
+ */
+public class UserProvisioningWorker implements Callable<Integer>, ProvisioningListener {
+
+    private static final Log log = LogFactory.getLog(UserProvisioningWorker.class);
+    private final BlockingQueue<UserRecord> userQueue;
+    private final ProvisioningSink sink;
+    private final int batchSize;
+    private final String tenantDomain;
+    private final int tenantId;
+    private final UserOutcomeWriter successfulUsers;
+    private final UserOutcomeWriter failedUsers;
+    private final UserOutcomeWriter skippedUsers;
+    private final ImportProgressJournal progressJournal;
+    private final FingerprintStore fingerprintStore;
+    private final ImportMetrics metrics;
+    private final List<UserRecord> batch;
+    private final List<UserRecord> succeeded;
+    private final List<UserRecord> failed;
+    private final List<Exception> failureCauses;
+    private final List<UserRecord> skipped;
+    private final List<String> skipReasons;
+    private final List<UserRecord> completed;
+
+    public UserProvisioningWorker(BlockingQueue<UserRecord> userQueue, ProvisioningSink sink, int batchSize,
+                                  String tenantDomain, int tenantId, UserOutcomeWriter successfulUsers,
+                                  UserOutcomeWriter failedUsers, UserOutcomeWriter skippedUsers,
+                                  ImportProgressJournal progressJournal, FingerprintStore fingerprintStore,
+                                  ImportMetrics metrics) {
+
+        this.userQueue = userQueue;
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.tenantDomain = tenantDomain;
+        this.tenantId = tenantId;
+        this.successfulUsers = successfulUsers;
+        this.failedUsers = failedUsers;
+        this.skippedUsers = skippedUsers;
+        this.progressJournal = progressJournal;
+        this.fingerprintStore = fingerprintStore;
+        this.metrics = metrics;
+        this.batch = new ArrayList<>(batchSize);
+        this.succeeded = new ArrayList<>(batchSize);
+        this.failed = new ArrayList<>(batchSize);
+        this.failureCauses = new ArrayList<>(batchSize);
+        this.skipped = new ArrayList<>();
+        this.skipReasons = new ArrayList<>();
+        this.completed = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * Provisions users from the shared queue until the end of the input is reached.
+     *
+     * @return The number of users handled by this worker.
+     */
+    @Override
+    public Integer call() {
+
+        int processedCount = 0;
+        PrivilegedCarbonContext.startTenantFlow();
+        try {
+            PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantDomain(tenantDomain, true);
+            PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantId(tenantId);
+
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                endOfInput = takeBatch();
+                processBatch();
+                processedCount += batch.size();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Provisioning worker interrupted after processing "
+                    + processedCount + " users");
+        } finally {
+            PrivilegedCarbonContext.endTenantFlow();
+        }
+        return processedCount;
+    }
+
+    @Override
+    public void onSuccess(UserRecord record) {
+
+        succeeded.add(record);
+        if (record.getOperation() == UserRecord.Operation.UPDATE) {
+            metrics.userUpdated();
+        } else {
+            metrics.userProvisioned();
+        }
+    }
+
+    @Override
+    public void onFailure(UserRecord record, Exception cause) {
+
+        failed.add(record);
+        failureCauses.add(cause);
+        metrics.userFailed(cause);
+    }
+
+    @Override
+    public void onSkipped(UserRecord record, String reason) {
+
+        skipped.add(record);
+        skipReasons.add(reason);
+        metrics.userSkipped();
+    }
+
+    /**
+     * Fills the batch with the next users from the queue, blocking until at least one queue entry is available.
+     *
+     * @return true if the end of the input was reached while filling the batch.
+     * @throws InterruptedException If interrupted while waiting for users.
+     */
+    private boolean takeBatch() throws InterruptedException {
+
+        batch.add(userQueue.take());
+        userQueue.drainTo(batch, batchSize - 1);
+
+        // Each worker must consume exactly one end-of-input marker. Hand back any extra markers drained
+        // into this batch so that the other workers still see theirs.
+        int endMarkers = 0;
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            if (batch.get(i) == UserRecord.END_OF_INPUT) {
+                batch.remove(i);
+                endMarkers++;
+            }
+        }
+        for (int i = 1; i < endMarkers; i++) {
+            userQueue.put(UserRecord.END_OF_INPUT);
+        }
+        return endMarkers > 0;
+    }
+
+    private void processBatch() {
+
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<UserRecord> provisionable = new ArrayList<>(batch.size());
+        for (UserRecord record : batch) {
+            String username = record.getUsername();
+            if (username != null && !username.isEmpty()) {
+                provisionable.add(record);
+            } else {
+                completed.add(record);
+            }
+        }
+
+        try {
+            sink.provision(provisionable, this);
+        } catch (RuntimeException e) {
+            // Keep the worker alive, otherwise the reader would block on a queue nobody drains.
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Unexpected error while provisioning a batch of "
+                    + provisionable.size() + " users", e);
+            Set<UserRecord> reported = Collections.newSetFromMap(new IdentityHashMap<UserRecord, Boolean>());
+            reported.addAll(succeeded);
+            reported.addAll(failed);
+            reported.addAll(skipped);
+            for (UserRecord record : provisionable) {
+                if (!reported.contains(record)) {
+                    onFailure(record, e);
+                }
+            }
+        }
+
+        successfulUsers.write(succeeded);
+        for (int i = 0; i < failed.size(); i++) {
+            failedUsers.write(failed.get(i), FailureClassifier.describe(failureCauses.get(i)));
+        }
+        for (int i = 0; i < skipped.size(); i++) {
+            skippedUsers.write(skipped.get(i), skipReasons.get(i));
+        }
+        if (fingerprintStore != null) {
+            fingerprintStore.record(succeeded);
+            // Skipped users already hold the claims of their row.
+            fingerprintStore.record(skipped);
+        }
+        completed.addAll(succeeded);
+        completed.addAll(failed);
+        completed.addAll(skipped);
+        progressJournal.markCompleted(completed);
+        completed.clear();
+        succeeded.clear();
+        failed.clear();
+        failureCauses.clear();
+        skipped.clear();
+        skipReasons.clear();
+    }
+}
@@ -0,0 +1,147 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import java.util.Map;
+
+/**
+ * A single parsed user row together with the claim mapping and position of the CSV file it was read from.
+ * Instances are handed from the CSV reader to the provisioning workers through a bounded queue.
+ */
+public class UserRecord {
+
+    /**
+     * The user store operation a record is provisioned with.
+     */
+    public enum Operation {
+        /** Add the user to the user store. */
+        ADD,
+        /** Update the claims of a user that already exists in the user store. */
+        UPDATE
+    }
+
+    /**
+     * Marker record placed on the queue once all input has been read. Each worker stops when it takes one.
+     */
+    public static final UserRecord END_OF_INPUT = new UserRecord(null, new String[0], null, 0);
+
+    private final ClaimMappingPlan claimMappingPlan;
+    private final String[] values;
+    private final String sourcePath;
+    private final long rowNumber;
+    private String checkpointPath;
+    private long checkpointRow;
+    private Operation operation = Operation.ADD;
+    private long fingerprint;
+    private Map<String, String> changedClaims;
+
+    public UserRecord(ClaimMappingPlan claimMappingPlan, String[] values, String sourcePath, long rowNumber) {
+
+        this.claimMappingPlan = claimMappingPlan;
+        this.values = values;
+        this.sourcePath = sourcePath;
+        this.rowNumber = rowNumber;
+    }
+
+    public ClaimMappingPlan getClaimMappingPlan() {
+
+        return claimMappingPlan;
+    }
+
+    public String[] getHeader() {
+
+        return claimMappingPlan.getHeader();
+    }
+
+    public String[] getValues() {
+
+        return values;
+    }
+
+    public String getUsername() {
+
+        return values.length > 0 ? values[0] : null;
+    }
+
+    public String getSourcePath() {
+
+        return sourcePath;
+    }
+
+    /**
+     * @return The 1-based data row number of this user within its source file, excluding the header line.
+     */
+    public long getRowNumber() {
+
+        return rowNumber;
+    }
+
+    /**
+     * @return The path under which the progress journal records this user, by default its source file.
+     */
+    public String getCheckpointPath() {
+
+        return checkpointPath != null ? checkpointPath : sourcePath;
+    }
+
+    /**
+     * @return The row number under which the progress journal records this user, by default its source row.
+     */
+    public long getCheckpointRow() {
+
+        return checkpointPath != null ? checkpointRow : rowNumber;
+    }
+
+    /**
+     * Records this user in the progress journal under another file than its source file, e.g. under the spill
+     * file it was read back from in a retry run, while the outcome files keep its source file and row.
+     *
+     * @param path The absolute path of the file the record was read from.
+     * @param row The 1-based number of the record within that file.
+     */
+    public void setCheckpoint(String path, long row) {
+
+        this.checkpointPath = path;
+        this.checkpointRow = row;
+    }
+
+    public Operation getOperation() {
+
+        return operation;
+    }
+
+    /**
+     * Sets the operation the user is provisioned with. Records are handed to the workers through a queue,
+     * so an operation set by a reader before the record is queued is visible to the worker.
+     *
+     * @param operation The operation.
+     */
+    public void setOperation(Operation operation) {
+
+        this.operation = operation;
+    }
+
+    /**
+     * @return The fingerprint of the claims of this user, or 0 if delta import is disabled.
+     */
+    public long getFingerprint() {
+
+        return fingerprint;
+    }
+
+    public void setFingerprint(long fingerprint) {
+
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @return The claims to write when updating this user, or null to write all claims of the row.
+     */
+    public Map<String, String> getChangedClaims() {
+
+        return changedClaims;
+    }
+
+    public void setChangedClaims(Map<String, String> changedClaims) {
+
+        this.changedClaims = changedClaims;
+    }
+}
@@ -0,0 +1,15 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+/**
+ * Decides, as each row is read, whether a user is handed to the provisioning workers.
+ * Implementations are shared by all readers and must be thread-safe. A rejected user must be reported and
+ * marked as processed in the progress journal by the filter itself, as it never reaches a worker.
+ */
+public interface UserRecordFilter {
+
+    /**
+     * @param record The parsed user.
+     * @return true if the user should be handed to the provisioning workers.
+     */
+    boolean accept(UserRecord record);
+}
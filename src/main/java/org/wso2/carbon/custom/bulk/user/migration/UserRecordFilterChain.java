@@ -0,0 +1,41 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies several filters in order. A user is accepted only if every filter accepts it, and the filters after
+ * the first one that rejects it are not consulted, so a user is reported as skipped only once.
+ */
+public class UserRecordFilterChain implements UserRecordFilter {
+
+    private final List<UserRecordFilter> filters = new ArrayList<>();
+
+    /**
+     * @param filter The filter to apply after the ones already in the chain, or null to leave the chain unchanged.
+     * @return This chain.
+     */
+    public UserRecordFilterChain add(UserRecordFilter filter) {
+
+        if (filter != null) {
+            filters.add(filter);
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+
+        return filters.isEmpty();
+    }
+
+    @Override
+    public boolean accept(UserRecord record) {
+
+        for (UserRecordFilter filter : filters) {
+            if (!filter.accept(record)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,56 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.util.Map;
+
+/**
+ * The user store calls the provisioning sinks are built on.
+ * {@link UserStoreManagerClient} makes them on the user store manager of the tenant. Other implementations let the
+ * sinks, with their throttling, retries and upserts, run against a stand-in for the user store, e.g. in benchmarks.
+ */
+public interface UserStoreClient {
+
+    /**
+     * Adds a user.
+     *
+     * @param username The username, without a user store domain for the primary user store.
+     * @param password The password of the user.
+     * @param claims The claim values of the user, by claim URI.
+     * @throws UserStoreException If the user cannot be added, e.g. because it already exists.
+     */
+    void addUser(String username, String password, Map<String, String> claims) throws UserStoreException;
+
+    /**
+     * Sets claim values of an existing user. Claims not in the given map are left as they are.
+     *
+     * @param username The username.
+     * @param claims The claim values to set, by claim URI.
+     * @throws UserStoreException If the claims cannot be set.
+     */
+    void setUserClaimValues(String username, Map<String, String> claims) throws UserStoreException;
+
+    boolean isExistingUser(String username) throws UserStoreException;
+
+    /**
+     * Fetches claim values of several users in a single call.
+     *
+     * @param usernames The usernames.
+     * @param claimURIs The claims to fetch.
+     * @return The claim values of each user found in the user store, by username without the user store domain.
+     * @throws UserStoreException If the claims cannot be fetched.
+     */
+    Map<String, Map<String, String>> getUsersClaimValues(String[] usernames, String[] claimURIs)
+            throws UserStoreException;
+
+    /**
+     * Lists one page of the usernames that match a filter.
+     *
+     * @param filter The filter, e.g. {@code *} for all users.
+     * @param limit The maximum number of usernames to list. The user store may list fewer.
+     * @param offset The 1-based position of the first username to list.
+     * @return The usernames, possibly qualified with their user store domain, or an empty array past the last one.
+     * @throws UserStoreException If the users cannot be listed.
+     */
+    String[] listUsers(String filter, int limit, int offset) throws UserStoreException;
+}
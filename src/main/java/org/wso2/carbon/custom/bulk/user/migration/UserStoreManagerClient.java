@@ -0,0 +1,62 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.user.core.common.AbstractUserStoreManager;
+import org.wso2.carbon.user.core.model.UserClaimSearchEntry;
+import org.wso2.carbon.user.core.util.UserCoreUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link UserStoreClient} that calls the user store manager of the tenant, under the default profile.
+ */
+public class UserStoreManagerClient implements UserStoreClient {
+
+    private final AbstractUserStoreManager store;
+
+    public UserStoreManagerClient(AbstractUserStoreManager store) {
+
+        this.store = store;
+    }
+
+    @Override
+    public void addUser(String username, String password, Map<String, String> claims) throws UserStoreException {
+
+        store.addUserWithID(username, password, null, claims, null);
+    }
+
+    @Override
+    public void setUserClaimValues(String username, Map<String, String> claims) throws UserStoreException {
+
+        store.setUserClaimValues(username, claims, null);
+    }
+
+    @Override
+    public boolean isExistingUser(String username) throws UserStoreException {
+
+        return store.isExistingUser(username);
+    }
+
+    @Override
+    public Map<String, Map<String, String>> getUsersClaimValues(String[] usernames, String[] claimURIs)
+            throws UserStoreException {
+
+        UserClaimSearchEntry[] entries = store.getUsersClaimValues(usernames, claimURIs, null);
+        Map<String, Map<String, String>> claimsByUser = new HashMap<>((int) (usernames.length / 0.75f) + 1);
+        if (entries != null) {
+            for (UserClaimSearchEntry entry : entries) {
+                if (entry != null && entry.getUserName() != null && entry.getClaims() != null) {
+                    claimsByUser.put(UserCoreUtil.removeDomainFromName(entry.getUserName()), entry.getClaims());
+                }
+            }
+        }
+        return claimsByUser;
+    }
+
+    @Override
+    public String[] listUsers(String filter, int limit, int offset) throws UserStoreException {
+
+        return store.listUsers(filter, limit, offset);
+    }
+}
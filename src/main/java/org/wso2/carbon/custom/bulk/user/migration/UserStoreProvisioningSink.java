@@ -0,0 +1,174 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Provisioning sink that adds users through {@link UserStoreClient#addUser}, or updates the claims of existing
+ * users through {@link UserStoreClient#setUserClaimValues} for records marked with
+ * {@link UserRecord.Operation#UPDATE}, writing only the changed claims if the record carries them. The user store
+ * API has no multi-user insert, so each user of a batch is provisioned by its own call, and a failing user does not
+ * affect the rest of the batch.
+ *
+ * When an {@link AdaptiveConcurrencyLimiter} is configured, every call waits for a permit, and its latency
+ * and outcome are fed back to the limiter. Calls that fail with a transient error are retried up to
+ * {@code maxRetries} times, after a back-off with full jitter that doubles on each attempt.
+ *
+ * If {@code updateExistingUsers} is set, a user whose addition fails because the user already exists is updated
+ * instead. This lets a delta import or an upsert start from a user store populated by an earlier full import.
+ *
+ * If the thread is interrupted, e.g. because the import job is cancelled, the rest of the batch is left
+ * unreported. These users are not checkpointed, so they are provisioned when the import is resumed.
+ */
+public class UserStoreProvisioningSink implements ProvisioningSink {
+
+    private static final Log log = LogFactory.getLog(UserStoreProvisioningSink.class);
+    private final UserStoreClient store;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ImportMetrics metrics;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final long maxRetryBackoffMillis;
+    private final boolean updateExistingUsers;
+
+    public UserStoreProvisioningSink(UserStoreClient store, ImportMetrics metrics) {
+
+        this(store, null, metrics, 0, 0, 0, false);
+    }
+
+    /**
+     * @param store The user store to add users to.
+     * @param limiter The limiter for the calls in flight, or null to call the store without a limit.
+     * @param metrics The metrics to which the latency of each call is reported.
+     * @param maxRetries The maximum number of retries of a call that failed with a transient error.
+     * @param retryBackoffMillis The back-off ceiling before the first retry.
+     * @param maxRetryBackoffMillis The maximum back-off ceiling.
+     * @param updateExistingUsers true to update the claims of a user that cannot be added as it already exists.
+     */
+    public UserStoreProvisioningSink(UserStoreClient store, AdaptiveConcurrencyLimiter limiter,
+                                     ImportMetrics metrics, int maxRetries, long retryBackoffMillis,
+                                     long maxRetryBackoffMillis, boolean updateExistingUsers) {
+
+        this.store = store;
+        this.limiter = limiter;
+        this.metrics = metrics;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.maxRetryBackoffMillis = maxRetryBackoffMillis;
+        this.updateExistingUsers = updateExistingUsers;
+    }
+
+    @Override
+    public void provision(List<UserRecord> batch, ProvisioningListener listener) {
+
+        for (int i = 0; i < batch.size(); i++) {
+            UserRecord record = batch.get(i);
+            if (Thread.currentThread().isInterrupted()) {
+                logInterrupted(batch.size() - i);
+                return;
+            }
+            try {
+                provisionUserWithRetries(record);
+                listener.onSuccess(record);
+            } catch (UserStoreException e) {
+                log.error(BULK_UPLOAD_LOG_PREFIX + "Error occurred while " + describe(record)
+                        + " user with the username: " + record.getUsername(), e);
+                listener.onFailure(record, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logInterrupted(batch.size() - i);
+                return;
+            } catch (RuntimeException e) {
+                log.error(BULK_UPLOAD_LOG_PREFIX + "Unexpected error while provisioning user: "
+                        + record.getUsername(), e);
+                listener.onFailure(record, e);
+            }
+        }
+    }
+
+    private void provisionUserWithRetries(UserRecord record) throws UserStoreException, InterruptedException {
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                provisionUser(record);
+                return;
+            } catch (UserStoreException e) {
+                if (attempt >= maxRetries || Thread.currentThread().isInterrupted()
+                        || !FailureClassifier.isTransient(e)) {
+                    throw e;
+                }
+                long backoff = ThreadLocalRandom.current().nextLong(
+                        Math.min(maxRetryBackoffMillis, retryBackoffMillis << Math.min(attempt, 20)) + 1);
+                log.warn(BULK_UPLOAD_LOG_PREFIX + "Transient error while " + describe(record)
+                        + " user with the username: " + record.getUsername() + ". Retrying in " + backoff
+                        + " ms (attempt " + (attempt + 1) + " of " + maxRetries + "). " + e.getMessage());
+                Thread.sleep(backoff);
+            }
+        }
+    }
+
+    private void provisionUser(UserRecord record) throws UserStoreException, InterruptedException {
+
+        ClaimMappingPlan plan = record.getClaimMappingPlan();
+        String[] values = record.getValues();
+        String username = plan.getUsername(values);
+        Map<String, String> claims = record.getChangedClaims() != null ? record.getChangedClaims()
+                : plan.toClaims(values);
+        if (limiter != null) {
+            limiter.acquire();
+        }
+        long startTime = System.nanoTime();
+        boolean transientFailure = false;
+        try {
+            if (record.getOperation() == UserRecord.Operation.UPDATE) {
+                store.setUserClaimValues(username, claims);
+            } else {
+                addUser(record, username, plan.getPassword(values), claims);
+            }
+        } catch (UserStoreException e) {
+            transientFailure = FailureClassifier.isTransient(e);
+            throw e;
+        } finally {
+            long latency = System.nanoTime() - startTime;
+            metrics.recordUserStoreCallLatency(latency);
+            if (limiter != null) {
+                limiter.release(latency, transientFailure);
+            }
+        }
+    }
+
+    private void addUser(UserRecord record, String username, String password, Map<String, String> claims)
+            throws UserStoreException {
+
+        try {
+            store.addUser(username, password, claims);
+        } catch (UserStoreException e) {
+            if (!updateExistingUsers || FailureClassifier.isTransient(e) || !store.isExistingUser(username)) {
+                throw e;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug(BULK_UPLOAD_LOG_PREFIX + "User " + username + " already exists. Updating its claims.");
+            }
+            store.setUserClaimValues(username, claims);
+            record.setOperation(UserRecord.Operation.UPDATE);
+        }
+    }
+
+    private static void logInterrupted(int remaining) {
+
+        log.warn(BULK_UPLOAD_LOG_PREFIX + "Interrupted while provisioning users. " + remaining
+                + " users of the batch are left for the next run.");
+    }
+
+    private static String describe(UserRecord record) {
+
+        return record.getOperation() == UserRecord.Operation.UPDATE ? "updating" : "adding";
+    }
+}
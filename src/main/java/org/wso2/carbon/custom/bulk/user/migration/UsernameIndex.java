@@ -0,0 +1,114 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import java.util.Locale;
+
+/**
+ * Compact set of usernames, stored as 64-bit hashes in an open-addressing table of primitive longs.
+ *
+ * Each username costs about 16 bytes, against well over 100 bytes for a {@code HashSet<String>} entry, so tens of
+ * millions of names fit in a few hundred megabytes at most. Two different names share a 64-bit hash with a
+ * probability of about n^2 / 2^65, i.e. less than one in ten thousand runs even for ten million names.
+ */
+public class UsernameIndex {
+
+    private static final long EMPTY = 0L;
+    private static final double MAX_LOAD_FACTOR = 0.6;
+
+    private final boolean caseInsensitive;
+    private long[] table;
+    private int size;
+
+    /**
+     * @param expectedSize The number of usernames the index is sized for. It grows beyond that if needed.
+     * @param caseInsensitive true if usernames that differ only in case are the same user.
+     */
+    public UsernameIndex(int expectedSize, boolean caseInsensitive) {
+
+        this.caseInsensitive = caseInsensitive;
+        this.table = new long[tableSizeFor(expectedSize)];
+    }
+
+    /**
+     * Adds a username to the index.
+     *
+     * @param username The username.
+     * @return true if the username was not in the index yet.
+     */
+    public synchronized boolean add(String username) {
+
+        if (size + 1 > table.length * MAX_LOAD_FACTOR) {
+            resize();
+        }
+        if (insert(table, hash(username))) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized boolean contains(String username) {
+
+        long hash = hash(username);
+        int mask = table.length - 1;
+        for (int slot = (int) hash & mask; table[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (table[slot] == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+
+        return size;
+    }
+
+    private void resize() {
+
+        long[] newTable = new long[table.length * 2];
+        for (long hash : table) {
+            if (hash != EMPTY) {
+                insert(newTable, hash);
+            }
+        }
+        table = newTable;
+    }
+
+    private static boolean insert(long[] target, long hash) {
+
+        int mask = target.length - 1;
+        int slot = (int) hash & mask;
+        while (target[slot] != EMPTY) {
+            if (target[slot] == hash) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        target[slot] = hash;
+        return true;
+    }
+
+    /**
+     * Folds a username to the form in which usernames are compared, so that lookups keyed by username agree with
+     * the index on which names are the same user.
+     *
+     * @param username The username.
+     * @param caseInsensitive true if usernames that differ only in case are the same user.
+     * @return The folded username.
+     */
+    public static String foldCase(String username, boolean caseInsensitive) {
+
+        return caseInsensitive ? username.toLowerCase(Locale.ENGLISH) : username;
+    }
+
+    private long hash(String username) {
+
+        return HashFunctions.hash(foldCase(username, caseInsensitive));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+
+        long required = (long) Math.ceil(Math.max(expectedSize, 16) / MAX_LOAD_FACTOR);
+        return (int) Math.min(1L << 30, Long.highestOneBit(required - 1) << 1);
+    }
+}
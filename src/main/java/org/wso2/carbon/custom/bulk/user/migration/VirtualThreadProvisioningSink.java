@@ -0,0 +1,167 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.context.PrivilegedCarbonContext;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+
+/**
+ * Sink that provisions every user of a batch on its own virtual thread, so that the network latency of a remote
+ * user store (e.g. an LDAP or Active Directory secondary store) overlaps across thousands of users instead of
+ * being paid one user at a time by each worker.
+ *
+ * The users in flight across all workers are capped by a shared semaphore. Each virtual thread runs in its own
+ * tenant flow and provisions its user through the delegate sink, so retries, throttling and metrics behave as in
+ * the platform thread mode. {@link #provision(List, ProvisioningListener)} returns once every user of the batch
+ * has been reported, so the worker still records the outcomes and the progress of whole batches. If the worker is
+ * interrupted, it returns at once and the users without a report are left for the next run.
+ *
+ * Virtual threads need Java 21 or later. They are created through reflection, as the component is built for
+ * Java 8; {@link #newVirtualThreadExecutor()} returns null on older runtimes.
+ */
+public class VirtualThreadProvisioningSink implements ProvisioningSink {
+
+    private static final Log log = LogFactory.getLog(VirtualThreadProvisioningSink.class);
+
+    private final ProvisioningSink delegate;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final String tenantDomain;
+    private final int tenantId;
+
+    /**
+     * @param delegate The sink each user is provisioned through.
+     * @param executor The executor that starts a virtual thread per task.
+     * @param maxInFlight The maximum number of users provisioned at the same time.
+     * @param tenantDomain The tenant domain the users are provisioned in.
+     * @param tenantId The tenant id the users are provisioned in.
+     */
+    public VirtualThreadProvisioningSink(ProvisioningSink delegate, ExecutorService executor, int maxInFlight,
+                                         String tenantDomain, int tenantId) {
+
+        this.delegate = delegate;
+        this.executor = executor;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.tenantDomain = tenantDomain;
+        this.tenantId = tenantId;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     *
+     * @return The executor, or null if the runtime does not support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Unable to create a virtual thread executor", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void provision(List<UserRecord> batch, ProvisioningListener listener) {
+
+        BatchListener batchListener = new BatchListener(listener);
+        CountDownLatch done = new CountDownLatch(batch.size());
+        int submitted = 0;
+        try {
+            for (UserRecord record : batch) {
+                inFlight.acquire();
+                try {
+                    executor.execute(() -> provisionUser(record, batchListener, done));
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                submitted++;
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn(BULK_UPLOAD_LOG_PREFIX + "Interrupted while provisioning a batch of " + batch.size()
+                    + " users on virtual threads. " + (batch.size() - submitted)
+                    + " users were not started and are left for the next run.");
+        } finally {
+            // Users still in flight are left unreported, so they are not checkpointed and are retried on resume.
+            batchListener.close();
+        }
+    }
+
+    private void provisionUser(UserRecord record, ProvisioningListener listener, CountDownLatch done) {
+
+        PrivilegedCarbonContext.startTenantFlow();
+        try {
+            PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantDomain(tenantDomain, true);
+            PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantId(tenantId);
+            delegate.provision(Collections.singletonList(record), listener);
+        } catch (RuntimeException e) {
+            log.error(BULK_UPLOAD_LOG_PREFIX + "Unexpected error while provisioning user " + record.getUsername(), e);
+            listener.onFailure(record, e);
+        } finally {
+            PrivilegedCarbonContext.endTenantFlow();
+            inFlight.release();
+            done.countDown();
+        }
+    }
+
+    /**
+     * Serializes the reports of the virtual threads into the worker's listener, which is not thread-safe, and
+     * drops the reports that arrive after the batch has been handed back to the worker.
+     */
+    private static class BatchListener implements ProvisioningListener {
+
+        private final ProvisioningListener listener;
+        private boolean closed;
+
+        private BatchListener(ProvisioningListener listener) {
+
+            this.listener = listener;
+        }
+
+        @Override
+        public synchronized void onSuccess(UserRecord record) {
+
+            if (!closed) {
+                listener.onSuccess(record);
+            }
+        }
+
+        @Override
+        public synchronized void onFailure(UserRecord record, Exception cause) {
+
+            if (!closed) {
+                listener.onFailure(record, cause);
+            }
+        }
+
+        @Override
+        public synchronized void onSkipped(UserRecord record, String reason) {
+
+            if (!closed) {
+                listener.onSkipped(record, reason);
+            }
+        }
+
+        private synchronized void close() {
+
+            closed = true;
+        }
+    }
+}
@@ -11,42 +11,50 @@ import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
 import org.wso2.carbon.context.CarbonCoreInitializedEvent;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
-import org.wso2.carbon.custom.bulk.user.migration.BulkUserUploadThread;
-import org.wso2.carbon.custom.bulk.user.migration.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.wso2.carbon.custom.bulk.user.migration.ImportJobManager;
+import org.wso2.carbon.custom.bulk.user.migration.ImportJobService;
 import org.wso2.carbon.user.core.service.RealmService;
 import org.wso2.carbon.utils.CarbonUtils;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD;
 import static org.wso2.carbon.custom.bulk.user.migration.Constants.BULK_UPLOAD_LOG_PREFIX;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_BULK_USER_UPLOAD_POOL_SIZE;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.DEFAULT_MAX_WORKERS_PER_IMPORT_JOB;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.MAX_CONCURRENT_IMPORT_JOBS;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.MAX_WORKERS_PER_IMPORT_JOB;
 
 /**
  * OSGi component for the custom user administrator service.
  * This component handles the activation and deactivation of the service,
  * manages bulk user upload functionality, and binds/unbinds required OSGi services
  * such as RealmService and CarbonCoreInitializedEvent.
+ * The bulk user import is registered as an {@link ImportJobService}, through which imports can be submitted at
+ * any time. With -Dbulkupload=true, an import configured by bulk.user.properties is submitted on activation.
  */
 @Component(name = "org.wso2.carbon.identity.custom.user.list.component",
            immediate = true)
 public class CustomUserAdministratorServiceComponent {
 
     private static final Log log = LogFactory.getLog(CustomUserAdministratorServiceComponent.class);
-
+    private ImportJobManager importJobManager;
+    private ServiceRegistration<ImportJobService> importJobServiceRegistration;
 
     @Activate
     protected void activate(ComponentContext context) {
 
         try {
+            importJobManager = new ImportJobManager(
+                    Math.max(1, Integer.getInteger(MAX_CONCURRENT_IMPORT_JOBS, DEFAULT_BULK_USER_UPLOAD_POOL_SIZE)),
+                    Math.max(1, Integer.getInteger(MAX_WORKERS_PER_IMPORT_JOB, DEFAULT_MAX_WORKERS_PER_IMPORT_JOB)));
+            importJobServiceRegistration = context.getBundleContext().registerService(ImportJobService.class,
+                    importJobManager, null);
+
             boolean bulkUpload = Boolean.parseBoolean(System.getProperty(BULK_UPLOAD));
             if (bulkUpload) {
                 log.info(BULK_UPLOAD_LOG_PREFIX + "Bulk user upload is enabled from file system");
                 CarbonUtils.setDiagnosticLogMode(PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId());
-                Callable<Boolean> bulkUploadThread = new BulkUserUploadThread();
-                ExecutorService executorService = Executors.newFixedThreadPool(Constants.DEFAULT_BULK_USER_UPLOAD_POOL_SIZE);
-                executorService.submit(bulkUploadThread);
+                importJobManager.submit();
             }
 
             if (log.isDebugEnabled()) {
@@ -60,6 +68,14 @@ public class CustomUserAdministratorServiceComponent {
     @Deactivate
     protected void deactivate(ComponentContext cxt) {
 
+        if (importJobServiceRegistration != null) {
+            importJobServiceRegistration.unregister();
+            importJobServiceRegistration = null;
+        }
+        if (importJobManager != null) {
+            importJobManager.shutdown();
+            importJobManager = null;
+        }
         if (log.isDebugEnabled()) {
             log.debug("Custom component is deactivated.");
         }
@@ -0,0 +1,94 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final int WINDOW_SIZE = 50;
+
+    @Test
+    public void startsAtTheMaximumLimit() {
+
+        assertEquals(8, new AdaptiveConcurrencyLimiter(1, 8, 2.0).getLimit());
+    }
+
+    @Test
+    public void cutsTheLimitByAQuarterOnATransientError() throws InterruptedException {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 2.0);
+
+        call(limiter, 10000, true);
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void countsABurstOfTransientErrorsOnce() throws InterruptedException {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 2.0);
+
+        call(limiter, 10000, true);
+        call(limiter, 10000, true);
+        call(limiter, 10000, true);
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void growsByOneAfterEachWindowWithoutCongestion() throws InterruptedException {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 2.0);
+        call(limiter, 1, true);
+        callWindow(limiter, 1, WINDOW_SIZE - 1);
+        assertEquals(6, limiter.getLimit());
+
+        callWindow(limiter, 1, WINDOW_SIZE);
+        assertEquals(7, limiter.getLimit());
+        callWindow(limiter, 1, WINDOW_SIZE);
+        assertEquals(8, limiter.getLimit());
+        callWindow(limiter, 1, WINDOW_SIZE);
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void cutsTheLimitWhenTheLatencyExceedsTheTolerance() throws InterruptedException {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 2.0);
+        callWindow(limiter, 10, WINDOW_SIZE);
+        assertEquals(8, limiter.getLimit());
+
+        callWindow(limiter, 15, WINDOW_SIZE);
+        assertEquals(8, limiter.getLimit());
+        callWindow(limiter, 30, WINDOW_SIZE);
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void neverGoesBelowTheMinimumLimit() throws InterruptedException {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 8, 2.0);
+        callWindow(limiter, 1, WINDOW_SIZE);
+        for (int i = 0; i < 10; i++) {
+            callWindow(limiter, 100, WINDOW_SIZE);
+        }
+
+        assertEquals(4, limiter.getLimit());
+    }
+
+    private static void callWindow(AdaptiveConcurrencyLimiter limiter, long latencyMillis, int calls)
+            throws InterruptedException {
+
+        for (int i = 0; i < calls; i++) {
+            call(limiter, latencyMillis, false);
+        }
+    }
+
+    private static void call(AdaptiveConcurrencyLimiter limiter, long latencyMillis, boolean transientFailure)
+            throws InterruptedException {
+
+        limiter.acquire();
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(latencyMillis), transientFailure);
+    }
+}
@@ -0,0 +1,58 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkUserUploadThreadTest {
+
+    @Test
+    public void returnsTheValueOnceTheLookupFindsIt() throws Exception {
+
+        final List<Long> callTimes = new ArrayList<>();
+        String value = BulkUserUploadThread.pollWithBackoff("Test store", () -> {
+            callTimes.add(System.nanoTime());
+            return callTimes.size() == 4 ? "store" : null;
+        }, 10000, 5, 20);
+
+        assertEquals("store", value);
+        assertEquals(4, callTimes.size());
+        // The delays are 5, 10 and 20 ms.
+        assertTrue(callTimes.get(3) - callTimes.get(0) >= 35000000L);
+    }
+
+    @Test
+    public void backsOffUntilTheTimeout() throws Exception {
+
+        final List<Long> callTimes = new ArrayList<>();
+        long startTime = System.currentTimeMillis();
+        Object value = BulkUserUploadThread.pollWithBackoff("Test store", () -> {
+            callTimes.add(System.nanoTime());
+            return null;
+        }, 200, 10, 40);
+
+        assertNull(value);
+        assertTrue(System.currentTimeMillis() - startTime >= 200);
+        // 10, 20 and 40 ms, then every 40 ms.
+        assertTrue("polled " + callTimes.size() + " times", callTimes.size() <= 9);
+    }
+
+    @Test
+    public void stopsWaitingWhenInterrupted() throws Exception {
+
+        Thread.currentThread().interrupt();
+        try {
+            BulkUserUploadThread.pollWithBackoff("Test store", () -> null, 10000, 1000, 1000);
+            fail("The wait was not interrupted");
+        } catch (InterruptedException e) {
+            assertFalse(Thread.currentThread().isInterrupted());
+        }
+    }
+}
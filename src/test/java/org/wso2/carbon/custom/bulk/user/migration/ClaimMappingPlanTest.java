@@ -0,0 +1,112 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.Test;
+import org.wso2.carbon.user.api.Claim;
+import org.wso2.carbon.user.api.ClaimManager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClaimMappingPlanTest {
+
+    private static final String EMAIL_CLAIM = "http://wso2.org/claims/emailaddress";
+    private static final String GIVEN_NAME_CLAIM = "http://wso2.org/claims/givenname";
+    private static final String UNKNOWN_CLAIM = "http://wso2.org/claims/unknown";
+
+    @Test
+    public void mapsEveryNonEmptyClaimColumnWithoutClaimManager() {
+
+        ClaimMappingPlan plan = ClaimMappingPlan.compile(
+                new String[]{"username", "password", EMAIL_CLAIM, "", GIVEN_NAME_CLAIM}, null);
+
+        assertArrayEquals(new String[]{EMAIL_CLAIM, GIVEN_NAME_CLAIM}, plan.getClaimURIs());
+        assertTrue(plan.isMapped(0));
+        assertTrue(plan.isMapped(1));
+        assertTrue(plan.isMapped(2));
+        assertFalse(plan.isMapped(3));
+        assertTrue(plan.isMapped(4));
+        assertFalse(plan.isMapped(5));
+    }
+
+    @Test
+    public void dropsClaimsUnknownToTheClaimManager() {
+
+        ClaimMappingPlan plan = ClaimMappingPlan.compile(
+                new String[]{"username", "password", UNKNOWN_CLAIM, EMAIL_CLAIM}, claimManager(EMAIL_CLAIM));
+
+        assertArrayEquals(new String[]{EMAIL_CLAIM}, plan.getClaimURIs());
+        assertFalse(plan.isMapped(2));
+        assertTrue(plan.isMapped(3));
+    }
+
+    @Test
+    public void buildsClaimsSkippingEmptyValuesAndMissingColumns() {
+
+        ClaimMappingPlan plan = ClaimMappingPlan.compile(
+                new String[]{"username", "password", EMAIL_CLAIM, GIVEN_NAME_CLAIM}, null);
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put(GIVEN_NAME_CLAIM, "Alice");
+        assertEquals(expected, plan.toClaims(new String[]{"alice", "secret", "", "Alice"}));
+        expected.clear();
+        expected.put(EMAIL_CLAIM, "bob@example.com");
+        assertEquals(expected, plan.toClaims(new String[]{"bob", "secret", "bob@example.com"}));
+    }
+
+    @Test
+    public void readsUsernameAndPasswordByPosition() {
+
+        ClaimMappingPlan plan = ClaimMappingPlan.compile(new String[]{"user", "pass"}, null);
+
+        assertEquals(0, plan.getClaimURIs().length);
+        assertEquals("alice", plan.getUsername(new String[]{"alice", "secret"}));
+        assertEquals("secret", plan.getPassword(new String[]{"alice", "secret"}));
+        assertNull(plan.getPassword(new String[]{"alice"}));
+        assertNull(plan.getUsername(new String[0]));
+    }
+
+    @Test
+    public void fingerprintsClaimsRegardlessOfColumnOrderAndPassword() {
+
+        ClaimMappingPlan plan = ClaimMappingPlan.compile(
+                new String[]{"username", "password", EMAIL_CLAIM, GIVEN_NAME_CLAIM}, null);
+        ClaimMappingPlan reordered = ClaimMappingPlan.compile(
+                new String[]{"username", "password", GIVEN_NAME_CLAIM, EMAIL_CLAIM}, null);
+
+        long fingerprint = plan.fingerprint(new String[]{"alice", "secret", "alice@example.com", "Alice"});
+        assertEquals(fingerprint, reordered.fingerprint(new String[]{"alice", "secret", "Alice", "alice@example.com"}));
+        assertEquals(fingerprint, plan.fingerprint(new String[]{"alice", "changed", "alice@example.com", "Alice"}));
+        assertNotEquals(fingerprint, plan.fingerprint(new String[]{"alice", "secret", "alice@example.org", "Alice"}));
+        assertNotEquals(fingerprint, plan.fingerprint(new String[]{"alice", "secret", "Alice", "alice@example.com"}));
+        assertNotEquals(0, plan.fingerprint(new String[]{"alice", "secret", "", ""}));
+    }
+
+    private static ClaimManager claimManager(String... knownClaimURIs) {
+
+        final List<String> known = Arrays.asList(knownClaimURIs);
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                if ("getClaim".equals(method.getName()) && args != null && args.length == 1) {
+                    return known.contains(args[0]) ? new Claim() : null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        };
+        return (ClaimManager) Proxy.newProxyInstance(ClaimManager.class.getClassLoader(),
+                new Class<?>[]{ClaimManager.class}, handler);
+    }
+}
@@ -0,0 +1,99 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.Test;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompletedRowRangesTest {
+
+    @Test
+    public void mergesAdjacentRows() {
+
+        CompletedRowRanges ranges = new CompletedRowRanges();
+        ranges.add(3);
+        ranges.add(1);
+        ranges.add(2);
+        ranges.add(5);
+
+        assertEquals(ranges(1, 3, 5, 5), ranges.getRanges());
+        assertEquals(4, ranges.getRowCount());
+    }
+
+    @Test
+    public void mergesOverlappingAndTouchingRanges() {
+
+        CompletedRowRanges ranges = new CompletedRowRanges();
+        ranges.add(10, 20);
+        ranges.add(30, 40);
+        ranges.add(50, 60);
+        ranges.add(15, 29);
+        assertEquals(ranges(10, 40, 50, 60), ranges.getRanges());
+
+        ranges.add(5, 70);
+        assertEquals(ranges(5, 70), ranges.getRanges());
+        ranges.add(6, 8);
+        assertEquals(ranges(5, 70), ranges.getRanges());
+        ranges.add(8, 4);
+        assertEquals(66, ranges.getRowCount());
+    }
+
+    @Test
+    public void tracksTheWatermarkFromTheFirstRow() {
+
+        CompletedRowRanges ranges = new CompletedRowRanges();
+        ranges.add(2, 5);
+        assertEquals(0, ranges.getWatermark());
+
+        ranges.add(1);
+        assertEquals(5, ranges.getWatermark());
+        ranges.add(7);
+        assertEquals(5, ranges.getWatermark());
+        ranges.add(6);
+        assertEquals(7, ranges.getWatermark());
+    }
+
+    @Test
+    public void answersWhetherRowsAreCompleted() {
+
+        CompletedRowRanges ranges = new CompletedRowRanges();
+        ranges.add(1, 3);
+        ranges.add(6, 8);
+
+        assertTrue(ranges.contains(1));
+        assertTrue(ranges.contains(3));
+        assertFalse(ranges.contains(4));
+        assertTrue(ranges.contains(8));
+        assertFalse(ranges.contains(9));
+        assertTrue(ranges.containsAll(6, 8));
+        assertTrue(ranges.containsAll(2, 3));
+        assertFalse(ranges.containsAll(3, 6));
+        assertFalse(ranges.containsAll(4, 5));
+    }
+
+    @Test
+    public void copiesAreIndependent() {
+
+        CompletedRowRanges ranges = new CompletedRowRanges();
+        ranges.add(1, 3);
+        CompletedRowRanges copy = new CompletedRowRanges(ranges);
+        ranges.add(4);
+
+        assertEquals(3, copy.getWatermark());
+        assertEquals(4, ranges.getWatermark());
+        assertTrue(new CompletedRowRanges().isEmpty());
+    }
+
+    private static SortedMap<Long, Long> ranges(long... bounds) {
+
+        SortedMap<Long, Long> ranges = new TreeMap<>();
+        for (int i = 0; i < bounds.length; i += 2) {
+            ranges.put(bounds[i], bounds[i + 1]);
+        }
+        return ranges;
+    }
+}
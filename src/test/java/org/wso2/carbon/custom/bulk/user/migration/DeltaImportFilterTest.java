@@ -0,0 +1,91 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaImportFilterTest {
+
+    private static final String EMAIL_CLAIM = "http://wso2.org/claims/emailaddress";
+    private static final ClaimMappingPlan PLAN = ClaimMappingPlan.compile(
+            new String[]{"username", "password", EMAIL_CLAIM}, null);
+
+    private File directory;
+    private File input;
+    private ImportProgressJournal journal;
+    private UserOutcomeWriter skippedUsers;
+    private FingerprintStore fingerprintStore;
+    private DeltaImportFilter filter;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("delta-test").toFile();
+        input = new File(directory, "users.csv");
+        Files.write(input.toPath(), "username,password\n".getBytes(StandardCharsets.UTF_8));
+        journal = new ImportProgressJournal(new File(directory, "import_progress.journal"), 1000);
+        journal.register(input);
+        skippedUsers = new UserOutcomeWriter(new File(directory, "skipped.csv"), false, 100, "reason");
+        fingerprintStore = new FingerprintStore(new File(directory, "user_fingerprints.dat"), 16, false);
+        filter = new DeltaImportFilter(fingerprintStore, skippedUsers, journal, new ImportMetrics("delta-test"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        skippedUsers.close();
+        for (File file : directory.listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Test
+    public void addsUsersWithoutFingerprint() {
+
+        UserRecord record = user("alice", "alice@example.com", 1);
+
+        assertTrue(filter.accept(record));
+        assertEquals(UserRecord.Operation.ADD, record.getOperation());
+        assertEquals(PLAN.fingerprint(record.getValues()), record.getFingerprint());
+    }
+
+    @Test
+    public void updatesUsersWhoseClaimsChanged() {
+
+        UserRecord provisioned = user("alice", "alice@example.com", 1);
+        filter.accept(provisioned);
+        fingerprintStore.record(Arrays.asList(provisioned));
+
+        UserRecord changed = user("alice", "alice@example.org", 2);
+        assertTrue(filter.accept(changed));
+        assertEquals(UserRecord.Operation.UPDATE, changed.getOperation());
+    }
+
+    @Test
+    public void skipsUnchangedUsersAndCheckpointsThem() {
+
+        UserRecord provisioned = user("alice", "alice@example.com", 1);
+        filter.accept(provisioned);
+        fingerprintStore.record(Arrays.asList(provisioned));
+
+        assertFalse(filter.accept(user("alice", "alice@example.com", 2)));
+        assertEquals(1, skippedUsers.getRecordCount());
+        assertTrue(journal.register(input).contains(2));
+    }
+
+    private UserRecord user(String username, String email, long rowNumber) {
+
+        return new UserRecord(PLAN, new String[]{username, "secret", email}, input.getAbsolutePath(), rowNumber);
+    }
+}
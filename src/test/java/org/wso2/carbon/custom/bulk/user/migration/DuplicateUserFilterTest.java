@@ -0,0 +1,135 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicateUserFilterTest {
+
+    private static final String[] HEADER = {"username", "password"};
+    private static final ClaimMappingPlan PLAN = ClaimMappingPlan.compile(HEADER, null);
+
+    private final FakeUserStoreClient store = new FakeUserStoreClient(false);
+    private File directory;
+    private File input;
+    private File skippedFile;
+    private ImportProgressJournal journal;
+    private UserOutcomeWriter skippedUsers;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("duplicate-test").toFile();
+        input = new File(directory, "users.csv");
+        Files.write(input.toPath(), "username,password\n".getBytes(StandardCharsets.UTF_8));
+        journal = new ImportProgressJournal(new File(directory, "import_progress.journal"), 1000);
+        journal.register(input);
+        skippedFile = new File(directory, "skipped.csv");
+        skippedUsers = new UserOutcomeWriter(skippedFile, false, 100, "reason");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        skippedUsers.close();
+        for (File file : directory.listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Test
+    public void skipsUsernamesRepeatedInTheInputAndUsersThatExist() throws IOException {
+
+        UsernameIndex existingUsers = new UsernameIndex(16, true);
+        existingUsers.add("carol");
+        DuplicateUserFilter filter = new DuplicateUserFilter(new UsernameIndex(16, true), existingUsers,
+                skippedUsers, journal, new ImportMetrics("duplicate-test"));
+
+        assertTrue(filter.accept(user("alice", 1)));
+        assertFalse(filter.accept(user("ALICE", 2)));
+        assertFalse(filter.accept(user("Carol", 3)));
+        assertTrue(filter.accept(user("", 4)));
+        assertTrue(filter.accept(user("", 5)));
+        skippedUsers.flush();
+
+        assertEquals("username,password,reason\n"
+                + "ALICE,," + DuplicateUserFilter.DUPLICATE_IN_INPUT + "\n"
+                + "Carol,," + DuplicateUserFilter.ALREADY_EXISTS + "\n",
+                new String(Files.readAllBytes(skippedFile.toPath()), StandardCharsets.UTF_8));
+        CompletedRowRanges completed = journal.register(input);
+        assertTrue(completed.containsAll(2, 3));
+        assertFalse(completed.contains(1));
+    }
+
+    @Test
+    public void prefetchesEveryPageOfExistingUsers() throws UserStoreException {
+
+        addUsers(25);
+
+        UsernameIndex existingUsers = DuplicateUserFilter.prefetchExistingUsers(store, 10, 1000, 16, false);
+
+        assertEquals(25, existingUsers.size());
+        assertTrue(existingUsers.contains("user0"));
+        assertTrue(existingUsers.contains("user24"));
+        assertEquals(3, store.getListCalls());
+    }
+
+    @Test
+    public void followsTheMaximumListLengthOfTheUserStore() throws UserStoreException {
+
+        addUsers(25);
+        store.setMaxPageLength(4);
+
+        UsernameIndex existingUsers = DuplicateUserFilter.prefetchExistingUsers(store, 10, 1000, 16, false);
+
+        assertEquals(25, existingUsers.size());
+        assertEquals(7, store.getListCalls());
+    }
+
+    @Test
+    public void stopsAtAPageWithoutNewUsernames() throws UserStoreException {
+
+        addUsers(25);
+        store.setOffsetIgnored(true);
+
+        UsernameIndex existingUsers = DuplicateUserFilter.prefetchExistingUsers(store, 10, 1000, 16, false);
+
+        assertEquals(10, existingUsers.size());
+        assertEquals(2, store.getListCalls());
+    }
+
+    @Test
+    public void stopsAfterTheMaximumNumberOfUsers() throws UserStoreException {
+
+        addUsers(25);
+
+        UsernameIndex existingUsers = DuplicateUserFilter.prefetchExistingUsers(store, 10, 15, 16, false);
+
+        assertEquals(20, existingUsers.size());
+        assertEquals(2, store.getListCalls());
+    }
+
+    private void addUsers(int count) {
+
+        for (int i = 0; i < count; i++) {
+            store.putUser("user" + i, Collections.<String, String>emptyMap());
+        }
+    }
+
+    private UserRecord user(String username, long rowNumber) {
+
+        return new UserRecord(PLAN, new String[]{username, "secret"}, input.getAbsolutePath(), rowNumber);
+    }
+}
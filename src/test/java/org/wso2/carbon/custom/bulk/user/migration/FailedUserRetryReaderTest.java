@@ -0,0 +1,123 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.ERROR_CLASS_COLUMN;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.ERROR_MESSAGE_COLUMN;
+import static org.wso2.carbon.custom.bulk.user.migration.Constants.FAILURE_TYPE_COLUMN;
+
+public class FailedUserRetryReaderTest {
+
+    private static final String[] HEADER = {"username", "password", "http://wso2.org/claims/emailaddress"};
+    private static final ClaimMappingPlan PLAN = ClaimMappingPlan.compile(HEADER, null);
+
+    private File directory;
+    private File spillFile;
+    private File journalFile;
+    private File failedFile;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("retry-test").toFile();
+        spillFile = new File(directory, "failed_users.retry.spill");
+        journalFile = new File(directory, "import_progress.journal");
+        failedFile = new File(directory, "failed.csv");
+        try (OutcomeSpillWriter writer = new OutcomeSpillWriter(spillFile, false, true, FAILURE_TYPE_COLUMN,
+                ERROR_CLASS_COLUMN, ERROR_MESSAGE_COLUMN)) {
+            writer.write(user("alice", 4), FailureClassifier.TRANSIENT, "java.net.SocketTimeoutException",
+                    "Read timed out");
+            writer.write(user("bob", 9), FailureClassifier.PERMANENT, "org.wso2.carbon.user.core.UserStoreException",
+                    "Password policy violation");
+            writer.write(user("carol", 12), "", "", "");
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        for (File file : directory.listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Test
+    public void retriesTransientAndUnclassifiedFailuresOnly() throws Exception {
+
+        ImportProgressJournal journal = new ImportProgressJournal(journalFile, 1000);
+        BlockingQueue<UserRecord> queue = new LinkedBlockingQueue<>();
+        try (UserOutcomeWriter failedUsers = new UserOutcomeWriter(failedFile, false, 100, FAILURE_TYPE_COLUMN,
+                ERROR_CLASS_COLUMN, ERROR_MESSAGE_COLUMN)) {
+            assertTrue(newReader(journal, queue, failedUsers).call());
+            assertEquals(1, failedUsers.getRecordCount());
+        }
+
+        List<UserRecord> retried = new ArrayList<>(queue);
+        assertEquals(2, retried.size());
+        assertArrayEquals(new String[]{"alice", "secret", "alice@example.com"}, retried.get(0).getValues());
+        assertEquals("users.csv", retried.get(0).getSourcePath());
+        assertEquals(4, retried.get(0).getRowNumber());
+        assertEquals(spillFile.getAbsolutePath(), retried.get(0).getCheckpointPath());
+        assertEquals(1, retried.get(0).getCheckpointRow());
+        assertEquals("carol", retried.get(1).getUsername());
+        assertEquals(3, retried.get(1).getCheckpointRow());
+        assertTrue(journal.register(spillFile).contains(2));
+        assertEquals("username,password,http://wso2.org/claims/emailaddress," + FAILURE_TYPE_COLUMN + ","
+                + ERROR_CLASS_COLUMN + "," + ERROR_MESSAGE_COLUMN + "\n"
+                + "bob,,bob@example.com,PERMANENT,org.wso2.carbon.user.core.UserStoreException,"
+                + "Password policy violation\n", new String(Files.readAllBytes(failedFile.toPath()),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void resumesAfterTheRecordsAlreadyProcessed() throws Exception {
+
+        ImportProgressJournal journal = new ImportProgressJournal(journalFile, 1000);
+        journal.register(spillFile);
+        journal.markCompleted(spillFile.getAbsolutePath(), 1);
+        journal.markCompleted(spillFile.getAbsolutePath(), 2);
+        journal.flush();
+        ImportProgressJournal reloaded = new ImportProgressJournal(journalFile, 1000);
+        reloaded.load();
+        ImportMetrics metrics = new ImportMetrics("retry-test");
+        metrics.setTotalBytes(spillFile.length());
+        BlockingQueue<UserRecord> queue = new LinkedBlockingQueue<>();
+        try (UserOutcomeWriter failedUsers = new UserOutcomeWriter(failedFile, false, 100, FAILURE_TYPE_COLUMN,
+                ERROR_CLASS_COLUMN, ERROR_MESSAGE_COLUMN)) {
+            assertTrue(new FailedUserRetryReader(spillFile, queue, reloaded, null, metrics, failedUsers).call());
+            assertEquals(0, failedUsers.getRecordCount());
+        }
+
+        assertEquals(1, queue.size());
+        assertEquals("carol", queue.peek().getUsername());
+        assertEquals(1, metrics.getRowsParsed());
+    }
+
+    private FailedUserRetryReader newReader(ImportProgressJournal journal, BlockingQueue<UserRecord> queue,
+                                           UserOutcomeWriter failedUsers) {
+
+        return new FailedUserRetryReader(spillFile, queue, journal, null, new ImportMetrics("retry-test"),
+                failedUsers);
+    }
+
+    private static UserRecord user(String username, long rowNumber) {
+
+        return new UserRecord(PLAN, new String[]{username, "secret", username + "@example.com"}, "users.csv",
+                rowNumber);
+    }
+}
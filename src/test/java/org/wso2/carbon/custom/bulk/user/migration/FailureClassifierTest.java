@@ -0,0 +1,61 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.Test;
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.net.SocketTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeoutException;
+import javax.naming.CommunicationException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FailureClassifierTest {
+
+    @Test
+    public void classifiesTransientCauses() {
+
+        assertTrue(FailureClassifier.isTransient(new UserStoreException("Error", new SocketTimeoutException())));
+        assertTrue(FailureClassifier.isTransient(new UserStoreException("Error",
+                new RuntimeException(new SQLTransientConnectionException()))));
+        assertTrue(FailureClassifier.isTransient(new TimeoutException()));
+        assertTrue(FailureClassifier.isTransient(new UserStoreException("Error", new CommunicationException())));
+        assertTrue(FailureClassifier.isTransient(new UserStoreException("Error", new InterruptedException())));
+    }
+
+    @Test
+    public void classifiesTransientMessages() {
+
+        assertTrue(FailureClassifier.isTransient(new UserStoreException("Read timed out")));
+        assertTrue(FailureClassifier.isTransient(new UserStoreException("Error",
+                new RuntimeException("Connection Reset by peer"))));
+        assertTrue(FailureClassifier.isTransient(new UserStoreException("LDAP TIMEOUT")));
+    }
+
+    @Test
+    public void classifiesOtherFailuresAsPermanent() {
+
+        assertFalse(FailureClassifier.isTransient(new UserStoreException("Password policy violation")));
+        assertFalse(FailureClassifier.isTransient(new UserStoreException("Username alice already exists",
+                new IllegalArgumentException("Invalid claim"))));
+        assertFalse(FailureClassifier.isTransient(new UserStoreException((String) null)));
+    }
+
+    @Test
+    public void describesTheTypeRootCauseAndMessageOfAFailure() {
+
+        assertArrayEquals(new String[]{FailureClassifier.TRANSIENT, SocketTimeoutException.class.getName(),
+                "Error while adding user"}, FailureClassifier.describe(new UserStoreException("Error while adding user",
+                new RuntimeException(new SocketTimeoutException("Read timed out")))));
+        assertArrayEquals(new String[]{FailureClassifier.PERMANENT, UserStoreException.class.getName(),
+                "Password policy violation"}, FailureClassifier.describe(
+                new UserStoreException("Password policy violation")));
+        assertArrayEquals(new String[]{FailureClassifier.PERMANENT, IllegalStateException.class.getName(),
+                "Invalid state"}, FailureClassifier.describe(new RuntimeException(null,
+                new IllegalStateException("Invalid state"))));
+        assertArrayEquals(new String[]{FailureClassifier.PERMANENT, IllegalStateException.class.getName(), ""},
+                FailureClassifier.describe(new IllegalStateException()));
+    }
+}
@@ -0,0 +1,173 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory user store for unit tests, which can be told to fail the next calls that add users.
+ */
+class FakeUserStoreClient implements UserStoreClient {
+
+    private final Map<String, Map<String, String>> users = new LinkedHashMap<>();
+    private final Deque<UserStoreException> addFailures = new ArrayDeque<>();
+    private final Deque<UserStoreException> claimLookupFailures = new ArrayDeque<>();
+    private final boolean caseInsensitive;
+    private int addCalls;
+    private int updateCalls;
+    private int claimLookups;
+    private int maxPageLength = Integer.MAX_VALUE;
+    private boolean offsetIgnored;
+    private int listCalls;
+
+    FakeUserStoreClient(boolean caseInsensitive) {
+
+        this.caseInsensitive = caseInsensitive;
+    }
+
+    void putUser(String username, Map<String, String> claims) {
+
+        users.put(username, new HashMap<>(claims));
+    }
+
+    void failNextAdd(UserStoreException failure) {
+
+        addFailures.add(failure);
+    }
+
+    void failNextClaimLookup(UserStoreException failure) {
+
+        claimLookupFailures.add(failure);
+    }
+
+    Map<String, String> getClaims(String username) {
+
+        String storedUsername = find(username);
+        return storedUsername != null ? users.get(storedUsername) : null;
+    }
+
+    /**
+     * Caps the pages listed by {@link #listUsers(String, int, int)}, as a user store with a maximum list length does.
+     */
+    void setMaxPageLength(int maxPageLength) {
+
+        this.maxPageLength = maxPageLength;
+    }
+
+    /**
+     * Makes {@link #listUsers(String, int, int)} list the first page whatever the offset, as some user stores do.
+     */
+    void setOffsetIgnored(boolean offsetIgnored) {
+
+        this.offsetIgnored = offsetIgnored;
+    }
+
+    int getAddCalls() {
+
+        return addCalls;
+    }
+
+    int getUpdateCalls() {
+
+        return updateCalls;
+    }
+
+    int getClaimLookups() {
+
+        return claimLookups;
+    }
+
+    int getListCalls() {
+
+        return listCalls;
+    }
+
+    @Override
+    public synchronized void addUser(String username, String password, Map<String, String> claims)
+            throws UserStoreException {
+
+        addCalls++;
+        if (!addFailures.isEmpty()) {
+            throw addFailures.poll();
+        }
+        if (find(username) != null) {
+            throw new UserStoreException("Username " + username + " already exists in the system");
+        }
+        putUser(username, claims);
+    }
+
+    @Override
+    public synchronized void setUserClaimValues(String username, Map<String, String> claims)
+            throws UserStoreException {
+
+        updateCalls++;
+        String storedUsername = find(username);
+        if (storedUsername == null) {
+            throw new UserStoreException("User " + username + " does not exist");
+        }
+        users.get(storedUsername).putAll(claims);
+    }
+
+    @Override
+    public synchronized boolean isExistingUser(String username) {
+
+        return find(username) != null;
+    }
+
+    @Override
+    public synchronized Map<String, Map<String, String>> getUsersClaimValues(String[] usernames, String[] claimURIs)
+            throws UserStoreException {
+
+        claimLookups++;
+        if (!claimLookupFailures.isEmpty()) {
+            throw claimLookupFailures.poll();
+        }
+        Map<String, Map<String, String>> claimsByUser = new HashMap<>();
+        for (String username : usernames) {
+            String storedUsername = find(username);
+            if (storedUsername == null) {
+                continue;
+            }
+            Map<String, String> claims = new HashMap<>();
+            for (String claimURI : claimURIs) {
+                String value = users.get(storedUsername).get(claimURI);
+                if (value != null) {
+                    claims.put(claimURI, value);
+                }
+            }
+            claimsByUser.put(storedUsername, claims);
+        }
+        return claimsByUser;
+    }
+
+    @Override
+    public synchronized String[] listUsers(String filter, int limit, int offset) {
+
+        listCalls++;
+        List<String> usernames = new ArrayList<>(users.keySet());
+        int from = offsetIgnored ? 0 : Math.min(Math.max(offset - 1, 0), usernames.size());
+        int to = (int) Math.min(usernames.size(), (long) from + Math.min(limit, maxPageLength));
+        return usernames.subList(from, to).toArray(new String[0]);
+    }
+
+    private String find(String username) {
+
+        if (users.containsKey(username)) {
+            return username;
+        }
+        if (caseInsensitive) {
+            for (String storedUsername : users.keySet()) {
+                if (storedUsername.equalsIgnoreCase(username)) {
+                    return storedUsername;
+                }
+            }
+        }
+        return null;
+    }
+}
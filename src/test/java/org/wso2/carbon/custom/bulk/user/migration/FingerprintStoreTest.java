@@ -0,0 +1,160 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FingerprintStoreTest {
+
+    private static final String[] HEADER = {"username", "password"};
+    private static final ClaimMappingPlan PLAN = ClaimMappingPlan.compile(HEADER, null);
+
+    private File directory;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("fingerprint-test").toFile();
+        file = new File(directory, "user_fingerprints.dat");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        for (File child : directory.listFiles()) {
+            Files.delete(child.toPath());
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Test
+    public void keepsTheLastFingerprintOfEachUser() {
+
+        FingerprintStore store = new FingerprintStore(file, 16, false);
+        store.record(Arrays.asList(user("alice", 11), user("bob", 12), user("carol", 0)));
+        store.record(Arrays.asList(user("alice", 21)));
+
+        assertEquals(21, store.get("alice"));
+        assertEquals(12, store.get("bob"));
+        assertEquals(0, store.get("carol"));
+        assertEquals(0, store.get("Alice"));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void foldsTheCaseOfUsernamesWhenCaseInsensitive() {
+
+        FingerprintStore store = new FingerprintStore(file, 16, true);
+        store.record(Arrays.asList(user("Alice", 11)));
+        store.record(Arrays.asList(user("ALICE", 21)));
+
+        assertEquals(21, store.get("alice"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void growsBeyondTheExpectedSize() {
+
+        FingerprintStore store = new FingerprintStore(file, 16, false);
+        store.record(users(5000));
+
+        assertEquals(5000, store.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i + 1, store.get("user" + i));
+        }
+    }
+
+    @Test
+    public void loadsTheFingerprintsAppendedByEachFlush() throws IOException {
+
+        FingerprintStore store = new FingerprintStore(file, 16, false);
+        store.record(Arrays.asList(user("alice", 11), user("bob", 12)));
+        store.flush();
+        store.record(Arrays.asList(user("alice", 21)));
+        store.flush();
+        assertEquals(3 * 16, file.length());
+
+        FingerprintStore reloaded = load();
+        assertEquals(21, reloaded.get("alice"));
+        assertEquals(12, reloaded.get("bob"));
+        assertEquals(2, reloaded.size());
+        store.close();
+    }
+
+    @Test
+    public void compactsTheFileWhenClosed() throws IOException {
+
+        FingerprintStore store = new FingerprintStore(file, 16, false);
+        store.record(users(100));
+        store.flush();
+        store.record(users(100));
+        store.close();
+
+        assertEquals(100 * 16, file.length());
+        FingerprintStore reloaded = load();
+        assertEquals(100, reloaded.size());
+        assertEquals(100, reloaded.get("user99"));
+    }
+
+    @Test
+    public void discardsAnEntryCutShortByACrash() throws IOException {
+
+        FingerprintStore store = new FingerprintStore(file, 16, false);
+        store.record(Arrays.asList(user("alice", 11), user("bob", 12)));
+        store.close();
+        try (FileOutputStream output = new FileOutputStream(file, true)) {
+            output.write(new byte[]{1, 2, 3, 4, 5});
+        }
+
+        FingerprintStore reloaded = load();
+        assertEquals(2 * 16, file.length());
+        assertEquals(11, reloaded.get("alice"));
+        assertEquals(12, reloaded.get("bob"));
+        assertEquals(2, reloaded.size());
+
+        reloaded.record(Arrays.asList(user("carol", 13)));
+        reloaded.flush();
+        assertEquals(13, load().get("carol"));
+        reloaded.close();
+    }
+
+    @Test
+    public void startsEmptyWithoutFile() throws IOException {
+
+        assertEquals(0, load().size());
+    }
+
+    private FingerprintStore load() throws IOException {
+
+        FingerprintStore store = new FingerprintStore(file, 16, false);
+        store.load();
+        return store;
+    }
+
+    private static List<UserRecord> users(int count) {
+
+        List<UserRecord> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(user("user" + i, i + 1));
+        }
+        return users;
+    }
+
+    private static UserRecord user(String username, long fingerprint) {
+
+        UserRecord record = new UserRecord(PLAN, new String[]{username, "secret"}, "users.csv", 1);
+        record.setFingerprint(fingerprint);
+        return record;
+    }
+}
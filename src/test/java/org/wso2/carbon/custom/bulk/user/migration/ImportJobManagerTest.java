@@ -0,0 +1,130 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ImportJobManagerTest {
+
+    // Jobs stay queued, as the scheduler never runs them.
+    private final QueueingExecutor scheduler = new QueueingExecutor();
+    private final ImportJobManager manager = new ImportJobManager(scheduler, 4);
+
+    @Test
+    public void queuesSubmittedJobs() {
+
+        String jobId = manager.submit(configuration("carbon.super", "PRIMARY", "/tmp/import-a"));
+
+        assertNotNull(jobId);
+        ImportJobStatus status = manager.getStatus(jobId);
+        assertEquals(ImportJobStatus.State.QUEUED, status.getState());
+        assertEquals("carbon.super", status.getTenantDomain());
+        assertEquals(0, status.getUsersProvisioned());
+        assertEquals(1, manager.getJobs().size());
+        assertEquals(1, scheduler.tasks.size());
+        assertNull(manager.getStatus("unknown"));
+    }
+
+    @Test
+    public void rejectsJobsForTheSameUserStoreOrOutputDirectory() {
+
+        assertNotNull(manager.submit(configuration("carbon.super", "", "/tmp/import-a")));
+
+        assertNull(manager.submit(configuration("carbon.super", "primary", "/tmp/import-b")));
+        assertNull(manager.submit(configuration("example.com", "PRIMARY", "/tmp/import-a")));
+        assertNotNull(manager.submit(configuration("carbon.super", "LDAP", "/tmp/import-b")));
+        assertNotNull(manager.submit(configuration("example.com", "PRIMARY", "/tmp/import-c")));
+        assertEquals(3, manager.getJobs().size());
+    }
+
+    @Test
+    public void cancelsQueuedJobsAndAcceptsTheirUserStoreAgain() {
+
+        String jobId = manager.submit(configuration("carbon.super", "PRIMARY", "/tmp/import-a"));
+
+        assertTrue(manager.cancel(jobId));
+        assertEquals(ImportJobStatus.State.CANCELLED, manager.getStatus(jobId).getState());
+        assertTrue(manager.getStatus(jobId).getEndTime() > 0);
+        assertFalse(manager.cancel(jobId));
+        assertFalse(manager.cancel("unknown"));
+        assertNotNull(manager.submit(configuration("carbon.super", "PRIMARY", "/tmp/import-a")));
+    }
+
+    @Test
+    public void rejectsJobsOnceShutDown() {
+
+        String jobId = manager.submit(configuration("carbon.super", "PRIMARY", "/tmp/import-a"));
+        manager.shutdown();
+
+        assertEquals(ImportJobStatus.State.CANCELLED, manager.getStatus(jobId).getState());
+        assertNull(manager.submit(configuration("example.com", "PRIMARY", "/tmp/import-b")));
+    }
+
+    private static Properties configuration(String tenantDomain, String userDomain, String outputDirectory) {
+
+        Properties configuration = new Properties();
+        configuration.setProperty(Constants.TENANT_DOMAIN, tenantDomain);
+        configuration.setProperty(Constants.USER_DOMAIN, userDomain);
+        configuration.setProperty(Constants.OUTPUT_DIRECTORY, outputDirectory);
+        return configuration;
+    }
+
+    private static class QueueingExecutor extends AbstractExecutorService {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+        private boolean shutdown;
+
+        @Override
+        public void execute(Runnable task) {
+
+            if (shutdown) {
+                throw new RejectedExecutionException("Shut down");
+            }
+            tasks.add(task);
+        }
+
+        @Override
+        public void shutdown() {
+
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+
+            shutdown = true;
+            List<Runnable> queued = new ArrayList<>(tasks);
+            tasks.clear();
+            return queued;
+        }
+
+        @Override
+        public boolean isShutdown() {
+
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.Test;
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+
+public class ImportMetricsTest {
+
+    @Test
+    public void leavesSkippedBytesOutOfThePercentComplete() {
+
+        ImportMetrics metrics = new ImportMetrics("metrics-test");
+        metrics.setTotalBytes(1000);
+        metrics.bytesRead(600);
+        metrics.bytesSkipped(600);
+        assertEquals(0, metrics.getPercentComplete(), 1e-9);
+
+        metrics.bytesRead(100);
+        assertEquals(25, metrics.getPercentComplete(), 1e-9);
+        metrics.bytesRead(300);
+        assertEquals(100, metrics.getPercentComplete(), 1e-9);
+    }
+
+    @Test
+    public void countsFailuresByTheTypeOfTheirRootCause() {
+
+        ImportMetrics metrics = new ImportMetrics("metrics-test");
+        metrics.userFailed(new UserStoreException("Error", new SocketTimeoutException()));
+        metrics.userFailed(new UserStoreException("Error", new SocketTimeoutException()));
+        metrics.userFailed(new UserStoreException("Password policy violation"));
+        metrics.userFailed(null);
+
+        assertEquals(4, metrics.getUsersFailed());
+        assertEquals("{SocketTimeoutException=2, Unknown=1, UserStoreException=1}", metrics.getFailuresByType());
+    }
+
+    @Test
+    public void reportsUserStoreCallLatencies() {
+
+        ImportMetrics metrics = new ImportMetrics("metrics-test");
+        metrics.recordUserStoreCallLatency(2000000);
+        metrics.recordUserStoreCallLatency(4000000);
+
+        assertEquals(2, metrics.getUserStoreCallLatencyP50Millis(), 2.0 / 16);
+        assertEquals(4, metrics.getUserStoreCallLatencyP99Millis(), 4.0 / 16);
+        assertEquals(4, metrics.getUserStoreCallLatencyMaxMillis(), 0);
+    }
+}
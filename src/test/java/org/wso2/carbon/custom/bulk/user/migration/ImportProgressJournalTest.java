@@ -0,0 +1,178 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ImportProgressJournalTest {
+
+    private File directory;
+    private File input;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("journal-test").toFile();
+        input = new File(directory, "users.csv");
+        Files.write(input.toPath(), "username,password\nalice,secret\n".getBytes(StandardCharsets.UTF_8));
+        journalFile = new File(directory, "import_progress.journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        for (File file : directory.listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Test
+    public void restoresCompletedRowsAfterFlush() throws IOException {
+
+        ImportProgressJournal journal = new ImportProgressJournal(journalFile, 1000);
+        journal.register(input);
+        String path = input.getAbsolutePath();
+        for (long row = 1; row <= 10; row++) {
+            journal.markCompleted(path, row);
+        }
+        journal.markCompleted(path, 15);
+        journal.markCompleted(path, 16);
+        journal.markCompleted(path, 20);
+        journal.flush();
+
+        ImportProgressJournal reloaded = load();
+        assertTrue(reloaded.hasCheckpoint());
+        CompletedRowRanges completed = reloaded.register(input);
+        assertEquals(10, completed.getWatermark());
+        assertEquals(13, completed.getRowCount());
+        assertTrue(completed.containsAll(15, 16));
+        assertTrue(completed.contains(20));
+        assertFalse(completed.contains(11));
+        assertFalse(completed.contains(17));
+    }
+
+    @Test
+    public void flushesEveryFlushIntervalRows() throws IOException {
+
+        ImportProgressJournal journal = new ImportProgressJournal(journalFile, 3);
+        journal.register(input);
+        journal.markCompleted(input.getAbsolutePath(), 1);
+        journal.markCompleted(input.getAbsolutePath(), 2);
+        assertFalse(journalFile.exists());
+
+        journal.markCompleted(input.getAbsolutePath(), 3);
+        assertTrue(journalFile.exists());
+        assertEquals(3, load().register(input).getWatermark());
+    }
+
+    @Test
+    public void keepsTheLastRowOffsetAtOrBelowTheWatermark() throws IOException {
+
+        ImportProgressJournal journal = new ImportProgressJournal(journalFile, 1000);
+        journal.register(input);
+        String path = input.getAbsolutePath();
+        journal.recordRowOffset(path, 1000, 50000);
+        journal.recordRowOffset(path, 2000, 100000);
+        journal.recordRowOffset(path, 3000, 150000);
+        for (long row = 1; row <= 2500; row++) {
+            journal.markCompleted(path, row);
+        }
+        journal.flush();
+
+        ImportProgressJournal reloaded = load();
+        reloaded.register(input);
+        ImportProgressJournal.RowOffset resumeOffset = reloaded.getResumeOffset(path);
+        assertEquals(2000, resumeOffset.getRowNumber());
+        assertEquals(100000, resumeOffset.getOffset());
+    }
+
+    @Test
+    public void hasNoResumeOffsetWithoutRecordedOffsets() throws IOException {
+
+        ImportProgressJournal journal = new ImportProgressJournal(journalFile, 1000);
+        journal.register(input);
+        journal.markCompleted(input.getAbsolutePath(), 1);
+
+        assertNull(journal.getResumeOffset(input.getAbsolutePath()));
+    }
+
+    @Test
+    public void discardsProgressOfModifiedFiles() throws IOException {
+
+        ImportProgressJournal journal = new ImportProgressJournal(journalFile, 1000);
+        journal.register(input);
+        journal.markCompleted(input.getAbsolutePath(), 1);
+        journal.flush();
+
+        Files.write(input.toPath(), "username,password\nalice,secret\nbob,secret\n".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(load().register(input).isEmpty());
+    }
+
+    @Test
+    public void ignoresMalformedEntries() throws IOException {
+
+        File other = new File(directory, "other.csv");
+        Files.write(other.toPath(), "username,password\n".getBytes(StandardCharsets.UTF_8));
+        File third = new File(directory, "third.csv");
+        Files.write(third.toPath(), "username,password\n".getBytes(StandardCharsets.UTF_8));
+        Properties entries = new Properties();
+        entries.setProperty(input.getAbsolutePath(), input.length() + "," + input.lastModified() + ",1,3-x");
+        entries.setProperty(other.getAbsolutePath(), other.length() + "," + other.lastModified());
+        entries.setProperty(third.getAbsolutePath(), third.length() + "," + third.lastModified() + ",4,6-7");
+        try (OutputStream outputStream = Files.newOutputStream(journalFile.toPath())) {
+            entries.store(outputStream, null);
+        }
+
+        ImportProgressJournal journal = load();
+        assertTrue(journal.register(input).isEmpty());
+        assertTrue(journal.register(other).isEmpty());
+        CompletedRowRanges completed = journal.register(third);
+        assertEquals(4, completed.getWatermark());
+        assertTrue(completed.containsAll(6, 7));
+    }
+
+    @Test
+    public void startsAfreshWithoutJournalFile() throws IOException {
+
+        ImportProgressJournal journal = load();
+
+        assertFalse(journal.hasCheckpoint());
+        assertTrue(journal.register(input).isEmpty());
+    }
+
+    @Test
+    public void deleteRemovesTheCheckpoint() throws IOException {
+
+        ImportProgressJournal journal = new ImportProgressJournal(journalFile, 1000);
+        journal.register(input);
+        journal.markCompleted(input.getAbsolutePath(), 1);
+        journal.flush();
+        journal.delete();
+
+        assertFalse(journalFile.exists());
+        assertFalse(journal.hasCheckpoint());
+        assertFalse(load().hasCheckpoint());
+    }
+
+    private ImportProgressJournal load() throws IOException {
+
+        ImportProgressJournal journal = new ImportProgressJournal(journalFile, 1000);
+        journal.load();
+        return journal;
+    }
+}
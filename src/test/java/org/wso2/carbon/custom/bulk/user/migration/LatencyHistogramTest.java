@@ -0,0 +1,67 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private static final double RELATIVE_ERROR = 1.0 / 16;
+
+    @Test
+    public void reportsZeroWithoutValues() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMillis(0.99), 0);
+        assertEquals(0, histogram.getMaxMillis(), 0);
+    }
+
+    @Test
+    public void reportsSmallValuesExactly() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+
+        assertEquals(0.005, histogram.getPercentileMillis(0.5), 1e-9);
+        assertEquals(0.010, histogram.getPercentileMillis(0.99), 1e-9);
+        assertEquals(0.010, histogram.getMaxMillis(), 1e-9);
+    }
+
+    @Test
+    public void reportsPercentilesWithinTheRelativeError() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long millis = 1000; millis >= 1; millis--) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertWithin(500, histogram.getPercentileMillis(0.5));
+        assertWithin(990, histogram.getPercentileMillis(0.99));
+        assertWithin(1, histogram.getPercentileMillis(0.001));
+        assertEquals(1000, histogram.getPercentileMillis(1.0), 0);
+        assertEquals(1000, histogram.getMaxMillis(), 0);
+    }
+
+    @Test
+    public void neverReportsMoreThanTheMaximum() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1025));
+
+        assertEquals(1025, histogram.getPercentileMillis(0.5), 0);
+    }
+
+    private static void assertWithin(double expectedMillis, double actualMillis) {
+
+        assertTrue("expected about " + expectedMillis + " but was " + actualMillis,
+                actualMillis >= expectedMillis && actualMillis <= expectedMillis * (1 + RELATIVE_ERROR));
+    }
+}
@@ -0,0 +1,144 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedCSVUserReaderTest {
+
+    private static final String EMAIL_CLAIM = "http://wso2.org/claims/emailaddress";
+    // The rows are numbered by record, as opencsv reads them: a line break within quotes does not start a row.
+    private static final String CSV = "username,password," + EMAIL_CLAIM + "\r\n"
+            + "alice,secret,alice@example.com\r\n"
+            + "\"bob\",\"pa\"\"ss\",\"multi\nline@example.com\"\r\n"
+            + " carol , \"a,b\" ,carol@example.com\n"
+            + "\n"
+            + "dave,secret,dave@example.com";
+
+    private File directory;
+    private File input;
+    private File journalFile;
+    private ExecutorService chunkPool;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("mapped-reader-test").toFile();
+        input = new File(directory, "users.csv");
+        journalFile = new File(directory, "import_progress.journal");
+        chunkPool = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        chunkPool.shutdownNow();
+        for (File file : directory.listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Test
+    public void numbersRowsByRecordAcrossChunks() throws Exception {
+
+        write(CSV.getBytes(StandardCharsets.UTF_8));
+        for (long chunkSize : new long[]{1, 40, 1 << 20}) {
+            ImportMetrics metrics = new ImportMetrics("mapped-reader-test");
+            metrics.setTotalBytes(input.length());
+            List<UserRecord> records = read(new ImportProgressJournal(journalFile, 1000), metrics, chunkSize);
+
+            assertEquals(4, records.size());
+            assertRecord(records.get(0), 1, "alice", "secret", "alice@example.com");
+            assertRecord(records.get(1), 2, "bob", "pa\"ss", "multi\nline@example.com");
+            assertRecord(records.get(2), 3, "carol", "a,b", "carol@example.com");
+            assertRecord(records.get(3), 5, "dave", "secret", "dave@example.com");
+            assertEquals(100, metrics.getPercentComplete(), 1e-9);
+        }
+    }
+
+    @Test
+    public void compilesTheHeaderAfterAByteOrderMark() throws Exception {
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+        content.write(CSV.getBytes(StandardCharsets.UTF_8));
+        write(content.toByteArray());
+
+        List<UserRecord> records = read(new ImportProgressJournal(journalFile, 1000),
+                new ImportMetrics("mapped-reader-test"), 1 << 20);
+
+        assertEquals("username", records.get(0).getHeader()[0]);
+        assertEquals("alice@example.com", records.get(0).getClaimMappingPlan().toClaims(
+                records.get(0).getValues()).get(EMAIL_CLAIM));
+    }
+
+    @Test
+    public void skipsRowsCompletedByAPreviousRun() throws Exception {
+
+        write(CSV.getBytes(StandardCharsets.UTF_8));
+        ImportProgressJournal journal = new ImportProgressJournal(journalFile, 1000);
+        journal.register(input);
+        journal.markCompleted(input.getAbsolutePath(), 1);
+        journal.markCompleted(input.getAbsolutePath(), 2);
+        journal.markCompleted(input.getAbsolutePath(), 5);
+        journal.flush();
+
+        ImportProgressJournal reloaded = new ImportProgressJournal(journalFile, 1000);
+        reloaded.load();
+        ImportMetrics metrics = new ImportMetrics("mapped-reader-test");
+        metrics.setTotalBytes(input.length());
+        List<UserRecord> records = read(reloaded, metrics, 1);
+
+        assertEquals(1, records.size());
+        assertRecord(records.get(0), 3, "carol", "a,b", "carol@example.com");
+        assertEquals(100, metrics.getPercentComplete(), 1e-9);
+        assertTrue(reloaded.register(input).contains(4));
+    }
+
+    private List<UserRecord> read(ImportProgressJournal journal, ImportMetrics metrics, long chunkSize)
+            throws Exception {
+
+        BlockingQueue<UserRecord> queue = new LinkedBlockingQueue<>();
+        assertTrue(new MappedCSVUserReader(input, queue, journal, null, metrics, null, chunkPool, chunkSize).call());
+        List<UserRecord> records = new ArrayList<>(queue);
+        Collections.sort(records, new Comparator<UserRecord>() {
+            @Override
+            public int compare(UserRecord first, UserRecord second) {
+
+                return Long.compare(first.getRowNumber(), second.getRowNumber());
+            }
+        });
+        return records;
+    }
+
+    private void write(byte[] content) throws IOException {
+
+        Files.write(input.toPath(), content);
+    }
+
+    private static void assertRecord(UserRecord record, long rowNumber, String username, String password,
+                                     String email) {
+
+        assertEquals(rowNumber, record.getRowNumber());
+        assertArrayEquals(new String[]{username, password, email}, record.getValues());
+    }
+}
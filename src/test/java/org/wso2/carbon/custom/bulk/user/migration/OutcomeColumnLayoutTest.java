@@ -0,0 +1,115 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class OutcomeColumnLayoutTest {
+
+    private static final String EMAIL_CLAIM = "http://wso2.org/claims/emailaddress";
+    private static final String GIVEN_NAME_CLAIM = "http://wso2.org/claims/givenname";
+    private static final String LAST_NAME_CLAIM = "http://wso2.org/claims/lastname";
+    private static final String[] FIRST_HEADER = {"username", "password", EMAIL_CLAIM, GIVEN_NAME_CLAIM};
+    private static final String[] SECOND_HEADER = {"user", "pwd", LAST_NAME_CLAIM, EMAIL_CLAIM};
+    private static final String EXPECTED_CSV = "username,password," + EMAIL_CLAIM + "," + GIVEN_NAME_CLAIM + ","
+            + LAST_NAME_CLAIM + ",reason\n"
+            + "alice,,alice@example.com,Alice,,first\n"
+            + "bob,,bob@example.com,,Smith,second\n";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("layout-test").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        for (File file : directory.listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Test
+    public void listsEveryColumnOnceInOrderOfFirstAppearance() {
+
+        OutcomeColumnLayout layout = OutcomeColumnLayout.of(Arrays.asList(FIRST_HEADER, SECOND_HEADER));
+
+        assertArrayEquals(new String[]{"username", "password", EMAIL_CLAIM, GIVEN_NAME_CLAIM, LAST_NAME_CLAIM},
+                layout.getColumns());
+    }
+
+    @Test
+    public void placesClaimsByNameAndUsernameAndPasswordByPosition() {
+
+        OutcomeColumnLayout layout = OutcomeColumnLayout.of(Arrays.asList(FIRST_HEADER, SECOND_HEADER));
+
+        assertArrayEquals(new String[]{"alice", "secret", "alice@example.com", "Alice", null},
+                layout.arrange(FIRST_HEADER, new String[]{"alice", "secret", "alice@example.com", "Alice"}));
+        assertArrayEquals(new String[]{"bob", "secret", "bob@example.com", null, "Smith"},
+                layout.arrange(SECOND_HEADER, new String[]{"bob", "secret", "Smith", "bob@example.com"}));
+    }
+
+    @Test
+    public void keepsRepeatedColumnsAndLeavesOutUnknownOnes() {
+
+        String[] repeated = {"username", "password", EMAIL_CLAIM, EMAIL_CLAIM};
+        OutcomeColumnLayout layout = OutcomeColumnLayout.of(Arrays.asList(repeated, FIRST_HEADER));
+
+        assertArrayEquals(new String[]{"username", "password", EMAIL_CLAIM, EMAIL_CLAIM, GIVEN_NAME_CLAIM},
+                layout.getColumns());
+        assertArrayEquals(new String[]{"carol", "secret", "a@example.com", "b@example.com", null},
+                layout.arrange(repeated, new String[]{"carol", "secret", "a@example.com", "b@example.com"}));
+        assertArrayEquals(new String[]{"dave", "secret", "dave@example.com", null, null},
+                layout.arrange(SECOND_HEADER, new String[]{"dave", "secret", "Jones", "dave@example.com"}));
+    }
+
+    @Test
+    public void writesUsersOfAllFilesUnderTheUnionOfTheirHeaders() throws IOException {
+
+        File file = new File(directory, "successful.csv");
+        try (UserOutcomeWriter writer = new UserOutcomeWriter(file, false, 100, "reason")) {
+            writer.setColumnLayout(OutcomeColumnLayout.of(Arrays.asList(FIRST_HEADER, SECOND_HEADER)));
+            writeUsers(writer);
+        }
+
+        assertEquals(EXPECTED_CSV, read(file));
+    }
+
+    @Test
+    public void rendersSpilledUsersUnderTheUnionOfTheirHeaders() throws IOException {
+
+        File file = new File(directory, "successful.csv");
+        try (UserOutcomeWriter writer = new UserOutcomeWriter(file, new File(directory, "successful.spill"), false,
+                "reason")) {
+            writeUsers(writer);
+        }
+
+        assertEquals(EXPECTED_CSV, read(file));
+    }
+
+    private static void writeUsers(UserOutcomeWriter writer) {
+
+        writer.write(new UserRecord(ClaimMappingPlan.compile(FIRST_HEADER, null),
+                new String[]{"alice", "secret", "alice@example.com", "Alice"}, "first.csv", 1), "first");
+        writer.write(new UserRecord(ClaimMappingPlan.compile(SECOND_HEADER, null),
+                new String[]{"bob", "secret", "Smith", "bob@example.com"}, "second.csv", 1), "second");
+    }
+
+    private static String read(File file) throws IOException {
+
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,171 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OutcomeSpillCursorTest {
+
+    private static final String COUNTRY_CLAIM = "http://wso2.org/claims/country";
+    private static final String[] FIRST_HEADER = {"username", "password", COUNTRY_CLAIM};
+    private static final String[] SECOND_HEADER = {"user", "pwd", COUNTRY_CLAIM, "http://wso2.org/claims/givenname"};
+    private static final ClaimMappingPlan FIRST_PLAN = ClaimMappingPlan.compile(FIRST_HEADER, null);
+    private static final ClaimMappingPlan SECOND_PLAN = ClaimMappingPlan.compile(SECOND_HEADER, null);
+
+    private File directory;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("spill-test").toFile();
+        file = new File(directory, "failed.spill");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        for (File child : directory.listFiles()) {
+            Files.delete(child.toPath());
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Test
+    public void readsBackTheRecordsOfEachSource() throws IOException {
+
+        try (OutcomeSpillWriter writer = new OutcomeSpillWriter(file, false, false, "type", "message")) {
+            writer.write(new UserRecord(FIRST_PLAN, new String[]{"alice", "secret", "LK"}, "first.csv", 1),
+                    "PERMANENT", "Password policy violation");
+            writer.write(new UserRecord(SECOND_PLAN, new String[]{"bob", "secret", "LK", ""}, "second.csv", 7),
+                    "TRANSIENT", "Read timed out");
+            writer.write(new UserRecord(FIRST_PLAN, new String[]{"carol", "secret", "LK"}, "first.csv", 2),
+                    "PERMANENT", "Password policy violation");
+        }
+
+        try (OutcomeSpillCursor cursor = new OutcomeSpillCursor(file)) {
+            assertTrue(cursor.next());
+            assertEquals("first.csv", cursor.getSourcePath());
+            assertArrayEquals(FIRST_HEADER, cursor.getHeader());
+            String[] firstHeader = cursor.getHeader();
+            assertEquals(1, cursor.getRowNumber());
+            assertArrayEquals(new String[]{"alice", "", "LK"}, cursor.getValues());
+            assertArrayEquals(new String[]{"type", "message"}, cursor.getExtraColumns());
+            assertArrayEquals(new String[]{"PERMANENT", "Password policy violation"}, cursor.getExtraValues());
+
+            assertTrue(cursor.next());
+            assertEquals("second.csv", cursor.getSourcePath());
+            assertArrayEquals(SECOND_HEADER, cursor.getHeader());
+            assertEquals(7, cursor.getRowNumber());
+            assertArrayEquals(new String[]{"bob", "", "LK", ""}, cursor.getValues());
+            assertArrayEquals(new String[]{"TRANSIENT", "Read timed out"}, cursor.getExtraValues());
+
+            assertTrue(cursor.next());
+            assertSame(firstHeader, cursor.getHeader());
+            assertArrayEquals(new String[]{"carol", "", "LK"}, cursor.getValues());
+            assertEquals(file.length(), cursor.getPosition());
+            assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    public void keepsPasswordsWhenAskedTo() throws IOException {
+
+        try (OutcomeSpillWriter writer = new OutcomeSpillWriter(file, false, true)) {
+            writer.write(new UserRecord(FIRST_PLAN, new String[]{"alice", "secret", "LK"}, "first.csv", 1));
+        }
+
+        List<String[]> values = readValues();
+        assertArrayEquals(new String[]{"alice", "secret", "LK"}, values.get(0));
+    }
+
+    @Test
+    public void readsManyRecordsWithRepeatedAndUniqueValues() throws IOException {
+
+        String[] countries = {"LK", "US", "DE"};
+        try (OutcomeSpillWriter writer = new OutcomeSpillWriter(file, false, false)) {
+            for (int i = 0; i < 5000; i++) {
+                writer.write(new UserRecord(FIRST_PLAN, new String[]{"user" + i, "secret", countries[i % 3]},
+                        "first.csv", i + 1));
+            }
+        }
+
+        List<String[]> values = readValues();
+        assertEquals(5000, values.size());
+        for (int i = 0; i < 5000; i++) {
+            assertArrayEquals(new String[]{"user" + i, "", countries[i % 3]}, values.get(i));
+        }
+    }
+
+    @Test
+    public void startsANewSegmentWhenAppending() throws IOException {
+
+        try (OutcomeSpillWriter writer = new OutcomeSpillWriter(file, false, false, "reason")) {
+            writer.write(new UserRecord(FIRST_PLAN, new String[]{"alice", "secret", "LK"}, "first.csv", 1), "A");
+        }
+        try (OutcomeSpillWriter writer = new OutcomeSpillWriter(file, true, false, "type", "message")) {
+            writer.write(new UserRecord(FIRST_PLAN, new String[]{"bob", "secret", "LK"}, "first.csv", 2), "B", "C");
+        }
+
+        try (OutcomeSpillCursor cursor = new OutcomeSpillCursor(file)) {
+            assertTrue(cursor.next());
+            assertArrayEquals(new String[]{"reason"}, cursor.getExtraColumns());
+            assertArrayEquals(new String[]{"A"}, cursor.getExtraValues());
+            assertTrue(cursor.next());
+            assertArrayEquals(new String[]{"type", "message"}, cursor.getExtraColumns());
+            assertArrayEquals(new String[]{"B", "C"}, cursor.getExtraValues());
+            assertArrayEquals(new String[]{"bob", "", "LK"}, cursor.getValues());
+            assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    public void ignoresAndTruncatesAnEntryCutShortByACrash() throws IOException {
+
+        long completeLength;
+        try (OutcomeSpillWriter writer = new OutcomeSpillWriter(file, false, false, "reason")) {
+            writer.write(new UserRecord(FIRST_PLAN, new String[]{"alice", "secret", "LK"}, "first.csv", 1), "A");
+            writer.flush();
+            completeLength = file.length();
+            writer.write(new UserRecord(FIRST_PLAN, new String[]{"bob", "secret", "LK"}, "first.csv", 2), "B");
+        }
+        try (RandomAccessFile cut = new RandomAccessFile(file, "rw")) {
+            cut.setLength(cut.length() - 3);
+        }
+
+        assertEquals(1, readValues().size());
+        assertEquals(completeLength, OutcomeSpillCursor.getCompleteLength(file));
+
+        try (OutcomeSpillWriter writer = new OutcomeSpillWriter(file, true, false, "reason")) {
+            writer.write(new UserRecord(FIRST_PLAN, new String[]{"carol", "secret", "LK"}, "first.csv", 3), "C");
+        }
+        List<String[]> values = readValues();
+        assertEquals(2, values.size());
+        assertArrayEquals(new String[]{"alice", "", "LK"}, values.get(0));
+        assertArrayEquals(new String[]{"carol", "", "LK"}, values.get(1));
+    }
+
+    private List<String[]> readValues() throws IOException {
+
+        List<String[]> values = new ArrayList<>();
+        try (OutcomeSpillCursor cursor = new OutcomeSpillCursor(file)) {
+            while (cursor.next()) {
+                values.add(cursor.getValues());
+            }
+        }
+        return values;
+    }
+}
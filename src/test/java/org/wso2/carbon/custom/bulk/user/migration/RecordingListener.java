@@ -0,0 +1,41 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listener for unit tests that keeps the outcome of every user reported by a sink.
+ */
+class RecordingListener implements ProvisioningListener {
+
+    final List<UserRecord> succeeded = new ArrayList<>();
+    final List<UserRecord> failed = new ArrayList<>();
+    final List<Exception> failureCauses = new ArrayList<>();
+    final List<UserRecord> skipped = new ArrayList<>();
+    final List<String> skipReasons = new ArrayList<>();
+
+    @Override
+    public synchronized void onSuccess(UserRecord record) {
+
+        succeeded.add(record);
+    }
+
+    @Override
+    public synchronized void onFailure(UserRecord record, Exception cause) {
+
+        failed.add(record);
+        failureCauses.add(cause);
+    }
+
+    @Override
+    public synchronized void onSkipped(UserRecord record, String reason) {
+
+        skipped.add(record);
+        skipReasons.add(reason);
+    }
+
+    synchronized int getReportedCount() {
+
+        return succeeded.size() + failed.size() + skipped.size();
+    }
+}
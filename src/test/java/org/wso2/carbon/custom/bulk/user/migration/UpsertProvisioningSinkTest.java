@@ -0,0 +1,108 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.Test;
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class UpsertProvisioningSinkTest {
+
+    private static final String EMAIL_CLAIM = "http://wso2.org/claims/emailaddress";
+    private static final String GIVEN_NAME_CLAIM = "http://wso2.org/claims/givenname";
+    private static final ClaimMappingPlan PLAN = ClaimMappingPlan.compile(
+            new String[]{"username", "password", EMAIL_CLAIM, GIVEN_NAME_CLAIM}, null);
+
+    private final RecordingListener listener = new RecordingListener();
+
+    @Test
+    public void addsNewUsersSkipsUnchangedOnesAndWritesOnlyChangedClaims() {
+
+        FakeUserStoreClient store = new FakeUserStoreClient(false);
+        store.putUser("bob", claims("bob@example.com", "Bob"));
+        store.putUser("carol", claims("carol@example.com", "Carol"));
+        UserRecord alice = user("alice", "alice@example.com", "Alice");
+        UserRecord bob = user("bob", "bob@example.com", "Bob");
+        UserRecord carol = user("carol", "carol@example.org", "Carol");
+
+        newSink(store, false).provision(Arrays.asList(alice, bob, carol), listener);
+
+        assertEquals(1, store.getClaimLookups());
+        assertEquals(Arrays.asList(alice, carol), listener.succeeded);
+        assertEquals(Arrays.asList(bob), listener.skipped);
+        assertEquals(UpsertProvisioningSink.UNCHANGED, listener.skipReasons.get(0));
+        assertEquals(UserRecord.Operation.UPDATE, carol.getOperation());
+        assertEquals(Collections.singletonMap(EMAIL_CLAIM, "carol@example.org"), carol.getChangedClaims());
+        assertEquals(claims("carol@example.org", "Carol"), store.getClaims("carol"));
+        assertEquals(claims("alice@example.com", "Alice"), store.getClaims("alice"));
+    }
+
+    @Test
+    public void leavesClaimsThatAreEmptyInTheRowAsTheyAre() {
+
+        FakeUserStoreClient store = new FakeUserStoreClient(false);
+        store.putUser("bob", claims("bob@example.com", "Bob"));
+
+        newSink(store, false).provision(Arrays.asList(user("bob", "bob@example.com", "")), listener);
+
+        assertEquals(1, listener.skipped.size());
+        assertEquals(0, store.getUpdateCalls());
+    }
+
+    @Test
+    public void matchesUsersReturnedInTheirStoredCase() {
+
+        FakeUserStoreClient store = new FakeUserStoreClient(true);
+        store.putUser("bob", claims("bob@example.com", "Bob"));
+        UserRecord bob = user("BOB", "bob@example.com", "Bob");
+
+        newSink(store, true).provision(Arrays.asList(bob), listener);
+
+        assertEquals(Arrays.asList(bob), listener.skipped);
+        assertEquals(0, store.getAddCalls());
+    }
+
+    @Test
+    public void handsTheWholeBatchToTheDelegateWhenClaimsCannotBeFetched() {
+
+        FakeUserStoreClient store = new FakeUserStoreClient(false);
+        store.putUser("bob", claims("bob@example.com", "Bob"));
+        store.failNextClaimLookup(new UserStoreException("Read timed out"));
+        UserRecord bob = user("bob", "bob@example.com", "Robert");
+        List<UserRecord> batch = Arrays.asList(user("alice", "alice@example.com", "Alice"), bob);
+
+        newSink(store, false).provision(batch, listener);
+
+        assertEquals(batch, listener.succeeded);
+        assertSame(UserRecord.Operation.UPDATE, bob.getOperation());
+        assertNull(bob.getChangedClaims());
+        assertEquals(claims("bob@example.com", "Robert"), store.getClaims("bob"));
+    }
+
+    private static UpsertProvisioningSink newSink(FakeUserStoreClient store, boolean caseInsensitive) {
+
+        UserStoreProvisioningSink delegate = new UserStoreProvisioningSink(store, null,
+                new ImportMetrics("upsert-test"), 0, 1, 1, true);
+        return new UpsertProvisioningSink(delegate, store, null, caseInsensitive);
+    }
+
+    private static Map<String, String> claims(String email, String givenName) {
+
+        Map<String, String> claims = new HashMap<>();
+        claims.put(EMAIL_CLAIM, email);
+        claims.put(GIVEN_NAME_CLAIM, givenName);
+        return claims;
+    }
+
+    private static UserRecord user(String username, String email, String givenName) {
+
+        return new UserRecord(PLAN, new String[]{username, "secret", email, givenName}, "users.csv", 1);
+    }
+}
@@ -0,0 +1,102 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+public class UserOutcomeWriterTest {
+
+    private static final String[] HEADER = {"username", "password", "http://wso2.org/claims/emailaddress"};
+    private static final ClaimMappingPlan PLAN = ClaimMappingPlan.compile(HEADER, null);
+
+    private File directory;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("outcome-test").toFile();
+        file = new File(directory, "successful.csv");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        for (File child : directory.listFiles()) {
+            Files.delete(child.toPath());
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Test
+    public void writesHeaderOnceAndLeavesPasswordsOut() throws IOException {
+
+        try (UserOutcomeWriter writer = new UserOutcomeWriter(file, false, 100)) {
+            writer.write(user("alice", "secret", "alice@example.com"));
+            writer.write(user("bob", "secret", "bob@example.com"));
+        }
+
+        assertEquals("username,password,http://wso2.org/claims/emailaddress\n"
+                + "alice,,alice@example.com\n"
+                + "bob,,bob@example.com\n", read(file));
+    }
+
+    @Test
+    public void quotesFieldsAccordingToRfc4180() throws IOException {
+
+        try (UserOutcomeWriter writer = new UserOutcomeWriter(file, false, 100, "message")) {
+            writer.write(user("alice", "pass,word", "a,b@example.com"), "said \"no\"");
+            writer.write(user("bob", "secret", "line\nbreak"), "carriage\rreturn");
+        }
+
+        assertEquals("username,password,http://wso2.org/claims/emailaddress,message\n"
+                + "alice,,\"a,b@example.com\",\"said \"\"no\"\"\"\n"
+                + "bob,,\"line\nbreak\",\"carriage\rreturn\"\n", read(file));
+    }
+
+    @Test
+    public void appendsWithoutRepeatingTheHeader() throws IOException {
+
+        try (UserOutcomeWriter writer = new UserOutcomeWriter(file, false, 100)) {
+            writer.write(user("alice", "secret", "alice@example.com"));
+        }
+        try (UserOutcomeWriter writer = new UserOutcomeWriter(file, true, 100)) {
+            writer.write(user("bob", "secret", "bob@example.com"));
+            assertEquals(1, writer.getRecordCount());
+        }
+
+        assertEquals("username,password,http://wso2.org/claims/emailaddress\n"
+                + "alice,,alice@example.com\n"
+                + "bob,,bob@example.com\n", read(file));
+    }
+
+    @Test
+    public void flushesEveryFlushIntervalRecords() throws IOException {
+
+        try (UserOutcomeWriter writer = new UserOutcomeWriter(file, false, 2)) {
+            writer.write(user("alice", "secret", "alice@example.com"));
+            writer.write(user("bob", "secret", "bob@example.com"));
+
+            assertEquals("username,password,http://wso2.org/claims/emailaddress\n"
+                    + "alice,,alice@example.com\n"
+                    + "bob,,bob@example.com\n", read(file));
+        }
+    }
+
+    private static UserRecord user(String username, String password, String email) {
+
+        return new UserRecord(PLAN, new String[]{username, password, email}, "users.csv", 1);
+    }
+
+    private static String read(File file) throws IOException {
+
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class UserProvisioningWorkerTest {
+
+    private static final String[] HEADER = {"username", "password", "http://wso2.org/claims/emailaddress"};
+    private static final ClaimMappingPlan PLAN = ClaimMappingPlan.compile(HEADER, null);
+
+    private File directory;
+    private File input;
+    private ImportProgressJournal journal;
+    private UserOutcomeWriter successfulUsers;
+    private UserOutcomeWriter failedUsers;
+    private UserOutcomeWriter skippedUsers;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("worker-test").toFile();
+        input = new File(directory, "users.csv");
+        Files.write(input.toPath(), "username,password\n".getBytes(StandardCharsets.UTF_8));
+        journal = new ImportProgressJournal(new File(directory, "import_progress.journal"), 1000);
+        journal.register(input);
+        successfulUsers = new UserOutcomeWriter(new File(directory, "successful.csv"), false, 100);
+        failedUsers = new UserOutcomeWriter(new File(directory, "failed.csv"), false, 100, "type", "class",
+                "message");
+        skippedUsers = new UserOutcomeWriter(new File(directory, "skipped.csv"), false, 100, "reason");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        successfulUsers.close();
+        failedUsers.close();
+        skippedUsers.close();
+        for (File file : directory.listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Test
+    public void reportsEveryOutcomeAndCheckpointsItsRow() throws Exception {
+
+        BlockingQueue<UserRecord> queue = queueOf(user("alice", 1), user("bob", 2), user("", 3), user("carol", 4));
+        ProvisioningSink sink = new ProvisioningSink() {
+            @Override
+            public void provision(List<UserRecord> batch, ProvisioningListener listener) {
+
+                for (UserRecord record : batch) {
+                    if ("bob".equals(record.getUsername())) {
+                        listener.onFailure(record, new UserStoreException("Password policy violation"));
+                    } else if ("carol".equals(record.getUsername())) {
+                        listener.onSkipped(record, "UNCHANGED");
+                    } else {
+                        listener.onSuccess(record);
+                    }
+                }
+            }
+        };
+
+        int processed = newWorker(queue, sink, 2).call();
+
+        assertEquals(4, processed);
+        assertEquals(1, successfulUsers.getRecordCount());
+        assertEquals(1, failedUsers.getRecordCount());
+        assertEquals(1, skippedUsers.getRecordCount());
+        CompletedRowRanges completed = reloadCompletedRows();
+        assertEquals(4, completed.getWatermark());
+    }
+
+    @Test
+    public void reportsUsersLeftUnreportedBySinkErrorAsFailed() throws Exception {
+
+        BlockingQueue<UserRecord> queue = queueOf(user("alice", 1), user("bob", 2), user("carol", 3));
+        final List<Integer> batchSizes = new ArrayList<>();
+        ProvisioningSink sink = new ProvisioningSink() {
+            @Override
+            public void provision(List<UserRecord> batch, ProvisioningListener listener) {
+
+                batchSizes.add(batch.size());
+                listener.onSuccess(batch.get(0));
+                throw new IllegalStateException("Sink bug");
+            }
+        };
+
+        newWorker(queue, sink, 10).call();
+
+        assertEquals(1, batchSizes.size());
+        assertEquals(1, successfulUsers.getRecordCount());
+        assertEquals(2, failedUsers.getRecordCount());
+        assertEquals(3, reloadCompletedRows().getWatermark());
+    }
+
+    @Test
+    public void leavesOneEndMarkerForEachOtherWorker() throws Exception {
+
+        BlockingQueue<UserRecord> queue = queueOf(user("alice", 1));
+        queue.put(UserRecord.END_OF_INPUT);
+        ProvisioningSink sink = new ProvisioningSink() {
+            @Override
+            public void provision(List<UserRecord> batch, ProvisioningListener listener) {
+
+                for (UserRecord record : batch) {
+                    listener.onSuccess(record);
+                }
+            }
+        };
+
+        newWorker(queue, sink, 10).call();
+
+        assertEquals(1, queue.size());
+        assertSame(UserRecord.END_OF_INPUT, queue.peek());
+        assertEquals(1, successfulUsers.getRecordCount());
+    }
+
+    private UserProvisioningWorker newWorker(BlockingQueue<UserRecord> queue, ProvisioningSink sink, int batchSize) {
+
+        return new UserProvisioningWorker(queue, sink, batchSize, "carbon.super", -1234, successfulUsers, failedUsers,
+                skippedUsers, journal, null, new ImportMetrics("worker-test"));
+    }
+
+    private CompletedRowRanges reloadCompletedRows() throws IOException {
+
+        journal.flush();
+        ImportProgressJournal reloaded = new ImportProgressJournal(new File(directory, "import_progress.journal"),
+                1000);
+        reloaded.load();
+        return reloaded.register(input);
+    }
+
+    private UserRecord user(String username, long rowNumber) {
+
+        return new UserRecord(PLAN, new String[]{username, "secret", username + "@example.com"},
+                input.getAbsolutePath(), rowNumber);
+    }
+
+    private static BlockingQueue<UserRecord> queueOf(UserRecord... records) throws InterruptedException {
+
+        BlockingQueue<UserRecord> queue = new LinkedBlockingQueue<>();
+        for (UserRecord record : records) {
+            queue.put(record);
+        }
+        queue.put(UserRecord.END_OF_INPUT);
+        return queue;
+    }
+}
@@ -0,0 +1,176 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.Test;
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UserStoreProvisioningSinkTest {
+
+    private static final String EMAIL_CLAIM = "http://wso2.org/claims/emailaddress";
+    private static final String[] HEADER = {"username", "password", EMAIL_CLAIM};
+    private static final ClaimMappingPlan PLAN = ClaimMappingPlan.compile(HEADER, null);
+
+    private final FakeUserStoreClient store = new FakeUserStoreClient(false);
+    private final RecordingListener listener = new RecordingListener();
+
+    @Test
+    public void addsEachUserOfTheBatchWithItsOwnCall() {
+
+        List<UserRecord> batch = Arrays.asList(user("alice", 1), user("bob", 2), user("carol", 3));
+
+        new UserStoreProvisioningSink(store, new ImportMetrics("sink-test")).provision(batch, listener);
+
+        assertEquals(3, store.getAddCalls());
+        assertEquals(batch, listener.succeeded);
+        assertEquals("alice@example.com", store.getClaims("alice").get(EMAIL_CLAIM));
+    }
+
+    @Test
+    public void reportsAFailingUserWithoutAffectingTheRestOfTheBatch() {
+
+        UserStoreException failure = new UserStoreException("Password policy violation");
+        store.failNextAdd(failure);
+        List<UserRecord> batch = Arrays.asList(user("alice", 1), user("bob", 2));
+
+        new UserStoreProvisioningSink(store, new ImportMetrics("sink-test")).provision(batch, listener);
+
+        assertEquals(2, store.getAddCalls());
+        assertEquals(1, listener.failed.size());
+        assertSame(batch.get(0), listener.failed.get(0));
+        assertSame(failure, listener.failureCauses.get(0));
+        assertEquals(1, listener.succeeded.size());
+        assertNotNull(store.getClaims("bob"));
+    }
+
+    @Test
+    public void leavesTheBatchUnreportedWhenInterrupted() {
+
+        List<UserRecord> batch = Arrays.asList(user("alice", 1), user("bob", 2));
+        Thread.currentThread().interrupt();
+        try {
+            new UserStoreProvisioningSink(store, new ImportMetrics("sink-test")).provision(batch, listener);
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertEquals(0, store.getAddCalls());
+        assertEquals(0, listener.getReportedCount());
+    }
+
+    @Test
+    public void retriesTransientFailures() {
+
+        store.failNextAdd(new UserStoreException("Read timed out"));
+        store.failNextAdd(new UserStoreException("Connection reset"));
+        List<UserRecord> batch = Arrays.asList(user("alice", 1));
+
+        retryingSink(null, 2).provision(batch, listener);
+
+        assertEquals(3, store.getAddCalls());
+        assertEquals(batch, listener.succeeded);
+    }
+
+    @Test
+    public void reportsATransientFailureOnceTheRetriesAreExhausted() {
+
+        store.failNextAdd(new UserStoreException("Read timed out"));
+        store.failNextAdd(new UserStoreException("Read timed out"));
+
+        retryingSink(null, 1).provision(Arrays.asList(user("alice", 1)), listener);
+
+        assertEquals(2, store.getAddCalls());
+        assertEquals(1, listener.failed.size());
+        assertEquals(0, listener.succeeded.size());
+    }
+
+    @Test
+    public void doesNotRetryPermanentFailures() {
+
+        store.failNextAdd(new UserStoreException("Password policy violation"));
+
+        retryingSink(null, 3).provision(Arrays.asList(user("alice", 1)), listener);
+
+        assertEquals(1, store.getAddCalls());
+        assertEquals(1, listener.failed.size());
+    }
+
+    @Test
+    public void reportsTransientFailuresToTheLimiter() {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 2.0);
+        store.failNextAdd(new UserStoreException("Read timed out"));
+
+        retryingSink(limiter, 1).provision(Arrays.asList(user("alice", 1)), listener);
+
+        assertEquals(6, limiter.getLimit());
+        assertEquals(1, listener.succeeded.size());
+    }
+
+    @Test
+    public void updatesTheClaimsOfRecordsMarkedForUpdate() {
+
+        store.putUser("alice", Collections.singletonMap(EMAIL_CLAIM, "old@example.com"));
+        UserRecord record = user("alice", 1);
+        record.setOperation(UserRecord.Operation.UPDATE);
+
+        new UserStoreProvisioningSink(store, new ImportMetrics("sink-test")).provision(Arrays.asList(record), listener);
+
+        assertEquals(0, store.getAddCalls());
+        assertEquals(1, store.getUpdateCalls());
+        assertEquals("alice@example.com", store.getClaims("alice").get(EMAIL_CLAIM));
+        assertEquals(1, listener.succeeded.size());
+    }
+
+    @Test
+    public void updatesAnExistingUserWhoseAdditionFails() {
+
+        store.putUser("alice", Collections.singletonMap(EMAIL_CLAIM, "old@example.com"));
+        UserRecord record = user("alice", 1);
+
+        updatingSink().provision(Arrays.asList(record), listener);
+
+        assertEquals(1, store.getAddCalls());
+        assertEquals(1, store.getUpdateCalls());
+        assertEquals(UserRecord.Operation.UPDATE, record.getOperation());
+        assertEquals("alice@example.com", store.getClaims("alice").get(EMAIL_CLAIM));
+        assertEquals(1, listener.succeeded.size());
+    }
+
+    @Test
+    public void reportsAnExistingUserAsFailedWithoutUpdates() {
+
+        store.putUser("alice", Collections.singletonMap(EMAIL_CLAIM, "old@example.com"));
+
+        new UserStoreProvisioningSink(store, new ImportMetrics("sink-test")).provision(
+                Arrays.asList(user("alice", 1)), listener);
+
+        assertEquals(0, store.getUpdateCalls());
+        assertEquals(1, listener.failed.size());
+        assertEquals("old@example.com", store.getClaims("alice").get(EMAIL_CLAIM));
+    }
+
+    private static UserRecord user(String username, long rowNumber) {
+
+        return new UserRecord(PLAN, new String[]{username, "secret", username + "@example.com"}, "users.csv",
+                rowNumber);
+    }
+
+    private UserStoreProvisioningSink retryingSink(AdaptiveConcurrencyLimiter limiter, int maxRetries) {
+
+        return new UserStoreProvisioningSink(store, limiter, new ImportMetrics("sink-test"), maxRetries, 1, 1, false);
+    }
+
+    private UserStoreProvisioningSink updatingSink() {
+
+        return new UserStoreProvisioningSink(store, null, new ImportMetrics("sink-test"), 0, 1, 1, true);
+    }
+}
@@ -0,0 +1,69 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UsernameIndexTest {
+
+    @Test
+    public void addsEachUsernameOnce() {
+
+        UsernameIndex index = new UsernameIndex(16, false);
+
+        assertTrue(index.add("alice"));
+        assertTrue(index.add("bob"));
+        assertFalse(index.add("alice"));
+        assertEquals(2, index.size());
+        assertTrue(index.contains("alice"));
+        assertTrue(index.contains("bob"));
+        assertFalse(index.contains("carol"));
+    }
+
+    @Test
+    public void keepsUsernamesThatDifferInCaseApartWhenCaseSensitive() {
+
+        UsernameIndex index = new UsernameIndex(16, false);
+        index.add("Alice");
+
+        assertTrue(index.add("alice"));
+        assertFalse(index.contains("ALICE"));
+    }
+
+    @Test
+    public void foldsTheCaseOfUsernamesWhenCaseInsensitive() {
+
+        UsernameIndex index = new UsernameIndex(16, true);
+        index.add("Alice");
+
+        assertFalse(index.add("alice"));
+        assertTrue(index.contains("ALICE"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void growsBeyondTheExpectedSize() {
+
+        UsernameIndex index = new UsernameIndex(16, false);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(index.add("user" + i));
+        }
+
+        assertEquals(10000, index.size());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(index.contains("user" + i));
+            assertFalse(index.add("user" + i));
+        }
+        assertFalse(index.contains("user10000"));
+    }
+
+    @Test
+    public void foldsCaseOnlyWhenCaseInsensitive() {
+
+        assertEquals("alice", UsernameIndex.foldCase("ALice", true));
+        assertEquals("ALice", UsernameIndex.foldCase("ALice", false));
+        assertEquals("title", UsernameIndex.foldCase("TITLE", true));
+    }
+}
@@ -0,0 +1,98 @@
+package org.wso2.carbon.custom.bulk.user.migration;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VirtualThreadProvisioningSinkTest {
+
+    private static final String[] HEADER = {"username", "password"};
+    private static final ClaimMappingPlan PLAN = ClaimMappingPlan.compile(HEADER, null);
+
+    // Platform threads stand in for virtual threads, which the sink only uses through the ExecutorService API.
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final RecordingListener listener = new RecordingListener();
+
+    @After
+    public void tearDown() {
+
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void reportsEveryUserBeforeReturning() {
+
+        List<UserRecord> batch = batch(50);
+
+        new VirtualThreadProvisioningSink(new UserStoreProvisioningSink(new FakeUserStoreClient(false),
+                new ImportMetrics("virtual-thread-test")), executor, 8, "carbon.super", -1234)
+                .provision(batch, listener);
+
+        assertEquals(50, listener.succeeded.size());
+    }
+
+    @Test
+    public void capsTheUsersInFlight() {
+
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        ProvisioningSink delegate = new ProvisioningSink() {
+            @Override
+            public void provision(List<UserRecord> batch, ProvisioningListener listener) {
+
+                int current = inFlight.incrementAndGet();
+                maxInFlight.accumulateAndGet(current, Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                listener.onSuccess(batch.get(0));
+            }
+        };
+
+        new VirtualThreadProvisioningSink(delegate, executor, 4, "carbon.super", -1234).provision(batch(40), listener);
+
+        assertEquals(40, listener.succeeded.size());
+        assertTrue(maxInFlight.get() <= 4);
+    }
+
+    @Test
+    public void reportsUnexpectedErrorsOfTheDelegateAsFailures() {
+
+        ProvisioningSink delegate = new ProvisioningSink() {
+            @Override
+            public void provision(List<UserRecord> batch, ProvisioningListener listener) {
+
+                if ("user1".equals(batch.get(0).getUsername())) {
+                    throw new IllegalStateException("Sink bug");
+                }
+                listener.onSuccess(batch.get(0));
+            }
+        };
+
+        new VirtualThreadProvisioningSink(delegate, executor, 4, "carbon.super", -1234).provision(batch(3), listener);
+
+        assertEquals(2, listener.succeeded.size());
+        assertEquals(1, listener.failed.size());
+        assertEquals("user1", listener.failed.get(0).getUsername());
+    }
+
+    private static List<UserRecord> batch(int size) {
+
+        List<UserRecord> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            batch.add(new UserRecord(PLAN, new String[]{"user" + i, "secret"}, "users.csv", i + 1));
+        }
+        return batch;
+    }
+}